@@ -0,0 +1,53 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.Target;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Creates AnnoPages for the benchmarks that look like the word-level pages of a newspaper: one page annotation
+ * followed by word annotations, each with a char range in the resource text and one target
+ */
+final class BenchmarkPages {
+
+    static final BaseUrls BASE_URLS = new BaseUrls("https://iiif.europeana.eu/presentation/", "/annopage/",
+                                                   "http://data.europeana.eu/annotation/", "/",
+                                                   "http://data.europeana.eu/fulltext/");
+
+    private static final String DATASET_ID = "9200396";
+    private static final String LOCAL_ID   = "BibliographicResource_3000118435009";
+
+    private BenchmarkPages() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * @param nrAnnotations total number of annotations of the page
+     * @return AnnoPage with a page annotation and nrAnnotations - 1 word annotations
+     */
+    static AnnoPage wordLevelPage(int nrAnnotations) {
+        Resource resource = new Resource("b4a4a3b0cc4e0a2d", "nl", "", DATASET_ID, LOCAL_ID);
+        AnnoPage annoPage = new AnnoPage(DATASET_ID, LOCAL_ID, "1",
+                                         "https://iiif.europeana.eu/image/" + DATASET_ID + "/" + LOCAL_ID + "/1",
+                                         resource);
+        List<Annotation> annotations = new ArrayList<>(nrAnnotations);
+        annotations.add(new Annotation("page", 'P', null, null,
+                                       Collections.singletonList(new Target(0, 0, 2500, 3500)), "nl"));
+        int offset = 0;
+        for (int i = 1; i < nrAnnotations; i++) {
+            int length = 3 + i % 8;
+            int line   = i / 12;
+            Target target = new Target(60 + (i % 12) * 190, 100 + line * 30, length * 18, 25);
+            annotations.add(new Annotation(Integer.toHexString(0x10000 + i), 'W', offset, offset + length,
+                                           Collections.singletonList(target)));
+            offset += length + 1;
+        }
+        annoPage.setAns(annotations);
+        return annoPage;
+    }
+}
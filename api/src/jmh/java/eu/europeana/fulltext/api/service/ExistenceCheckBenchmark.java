@@ -0,0 +1,134 @@
+package eu.europeana.fulltext.api.service;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.Morphia;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the AnnoPage existence check (AnnoPageRepositoryImpl.existsByLimitOne, a projected find with limit 1) with
+ * the count-based check it replaced (DBCursor.count() on a limit(1) cursor, which runs a separate count command), for
+ * pages that exist and pages that don't.
+ * This needs a running MongoDB; the benchmark creates a "fulltext-benchmark" database there with nrPages word-level
+ * pages and drops it again afterwards. The server is set with the mongoUri parameter, e.g.
+ * -Dbenchmark.args="ExistenceCheckBenchmark -p mongoUri=mongodb://otherhost:27017"
+ * Run it against a server with the same version and hardware as production, a local server hides the network latency
+ * that the extra count command costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExistenceCheckBenchmark {
+
+    private static final String DATABASE   = "fulltext-benchmark";
+    private static final String DATASET_ID = "9200396";
+    private static final String LOCAL_ID   = "BibliographicResource_3000118435009";
+
+    @Param("mongodb://localhost:27017")
+    private String mongoUri;
+
+    @Param("10000")
+    private int nrPages;
+
+    @Param({"true", "false"})
+    private boolean pageExists;
+
+    private MongoClient            mongoClient;
+    private AnnoPageRepositoryImpl repository;
+    private DBCollection           collection;
+    private String[]               pageIds;
+    private int                    next;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        mongoClient = new MongoClient(new MongoClientURI(mongoUri));
+        mongoClient.dropDatabase(DATABASE);
+        Morphia morphia = new Morphia();
+        morphia.map(AnnoPage.class);
+        AdvancedDatastore datastore = (AdvancedDatastore) morphia.createDatastore(mongoClient, DATABASE);
+        datastore.ensureIndexes();
+
+        List<Annotation> annotations = BenchmarkPages.wordLevelPage(500).getAns();
+        List<AnnoPage> annoPages = new ArrayList<>(nrPages);
+        for (int i = 1; i <= nrPages; i++) {
+            AnnoPage annoPage = new AnnoPage(DATASET_ID, LOCAL_ID, String.valueOf(i), "tg" + i, null);
+            annoPage.setAns(annotations);
+            annoPages.add(annoPage);
+        }
+        datastore.save(annoPages);
+
+        // the repository is normally wired by Spring
+        repository = new AnnoPageRepositoryImpl();
+        for (Class<?> type = AnnoPageRepositoryImpl.class; type != Object.class; type = type.getSuperclass()) {
+            Field field = type.getDeclaredField("datastore");
+            field.setAccessible(true);
+            field.set(repository, datastore);
+        }
+        collection = datastore.getCollection(AnnoPage.class);
+
+        // existing pages are 1..nrPages, the others are not there
+        pageIds = new String[1024];
+        for (int i = 0; i < pageIds.length; i++) {
+            int pageNr = 1 + (i * 7919) % nrPages;
+            pageIds[i] = String.valueOf(pageExists ? pageNr : nrPages + pageNr);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mongoClient.dropDatabase(DATABASE);
+        mongoClient.close();
+    }
+
+    private String nextPageId() {
+        next = (next + 1) % pageIds.length;
+        return pageIds[next];
+    }
+
+    @Benchmark
+    public boolean existsByLimitOne() {
+        return repository.existsByLimitOne(DATASET_ID, LOCAL_ID, nextPageId());
+    }
+
+    /**
+     * The existence check as it was done before existsByLimitOne
+     */
+    @Benchmark
+    public boolean existsByCount() {
+        DBObject query = new BasicDBObject();
+        query.put("dsId", DATASET_ID);
+        query.put("lcId", LOCAL_ID);
+        query.put("pgId", nextPageId());
+        DBCursor cur = collection.find(query).limit(1);
+        int count = cur.count();
+        cur.close();
+        return (count >= 1);
+    }
+}
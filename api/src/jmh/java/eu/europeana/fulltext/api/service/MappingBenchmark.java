@@ -0,0 +1,82 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.model.v2.AnnotationPageV2;
+import eu.europeana.fulltext.api.model.v3.AnnotationPageV3;
+import eu.europeana.fulltext.entity.AnnoPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares mapping the annotations of a word-level AnnoPage on the calling thread with mapping them in parallel
+ * chunks (see annopage.mapping.parallel.minannotations), for pages of increasing size. The page size where the
+ * parallel mode becomes faster is the lowest sensible value for that setting on the machine the benchmark is run on.
+ * Note that this measures one request on an otherwise idle machine; when all cores are busy with other requests
+ * parallel mapping can't make a request faster.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"500", "1000", "2000", "5000", "10000", "50000"})
+    private int nrAnnotations;
+
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    private EDM2IIIFMapping mapping;
+    private AnnoPage        annoPage;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        FTSettings settings = mock(FTSettings.class);
+        given(settings.getAnnoPageBaseUrl()).willReturn(BenchmarkPages.BASE_URLS.getAnnoPageBaseUrl());
+        given(settings.getAnnoPageDirectory()).willReturn(BenchmarkPages.BASE_URLS.getAnnoPageDirectory());
+        given(settings.getAnnotationBaseUrl()).willReturn(BenchmarkPages.BASE_URLS.getAnnotationBaseUrl());
+        given(settings.getAnnotationDirectory()).willReturn(BenchmarkPages.BASE_URLS.getAnnotationDirectory());
+        given(settings.getResourceBaseUrl()).willReturn(BenchmarkPages.BASE_URLS.getResourceBaseUrl());
+        // every page is mapped in parallel, or none at all
+        given(settings.getAnnoPageMappingParallelMinAnnotations()).willReturn(parallel ? 1 : 0);
+
+        // the mapping is configured by its (Spring) constructor
+        Constructor<EDM2IIIFMapping> constructor = EDM2IIIFMapping.class.getDeclaredConstructor(FTSettings.class);
+        constructor.setAccessible(true);
+        mapping = constructor.newInstance(settings);
+        annoPage = BenchmarkPages.wordLevelPage(nrAnnotations);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mapping.shutdown();
+    }
+
+    @Benchmark
+    public AnnotationPageV2 mapV2() {
+        return EDM2IIIFMapping.getAnnotationPageV2(annoPage);
+    }
+
+    @Benchmark
+    public AnnotationPageV3 mapV3() {
+        return EDM2IIIFMapping.getAnnotationPageV3(annoPage);
+    }
+}
@@ -0,0 +1,140 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the two query execution modes (see query.execution.mode) under load. A fixed pool of "servlet" threads
+ * handles requests the way the controller does: it runs the request's task through the QueryExecutor and, in executor
+ * mode, hands the returned future over instead of waiting for it. Meanwhile a number of clients keep sending requests
+ * whose database query takes queryLatencyMs (simulated by sleeping, like a blocking driver call).
+ * fastRequest measures a request that doesn't query the database; in blocking mode it has to wait for a servlet
+ * thread that is stuck on a query, in executor mode for a query thread. slowRequest measures a request that queries
+ * the database itself.
+ * Note that this only compares how the threads are used: the real database, and whether it copes with more queries
+ * at the same time, is left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryExecutionBenchmark {
+
+    private static final int SERVLET_THREADS = 16;
+    private static final int QUERY_THREADS   = 32;
+    private static final int LOAD_CLIENTS    = 64;
+
+    @Param({"blocking", "executor"})
+    private String mode;
+
+    @Param({"5", "50"})
+    private long queryLatencyMs;
+
+    private QueryExecutor   queryExecutor;
+    private ExecutorService servlets;
+    private ExecutorService clients;
+
+    private volatile boolean running;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        FTSettings settings = mock(FTSettings.class);
+        given(settings.isQueryExecutorMode()).willReturn("executor".equals(mode));
+        given(settings.getQueryThreads()).willReturn(QUERY_THREADS);
+        given(settings.getQueryQueueSize()).willReturn(500);
+        queryExecutor = new QueryExecutor(settings);
+        servlets = Executors.newFixedThreadPool(SERVLET_THREADS);
+
+        running = true;
+        clients = Executors.newFixedThreadPool(LOAD_CLIENTS);
+        for (int i = 0; i < LOAD_CLIENTS; i++) {
+            clients.execute(() -> {
+                while (running) {
+                    try {
+                        handle(this::query).get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Exception e) {
+                        // rejected or failed, the next one may succeed
+                    }
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        clients.shutdown();
+        clients.awaitTermination(10, TimeUnit.SECONDS);
+        servlets.shutdown();
+        servlets.awaitTermination(10, TimeUnit.SECONDS);
+        queryExecutor.shutdown();
+    }
+
+    private String query() throws InterruptedException {
+        Thread.sleep(queryLatencyMs);
+        return "result";
+    }
+
+    /**
+     * Handle a request on a servlet thread
+     * @return future that completes when the response is ready
+     */
+    private CompletableFuture<Object> handle(QueryExecutor.QueryTask<?> task) {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        servlets.execute(() -> {
+            try {
+                Object result = queryExecutor.execute(task);
+                if (result instanceof CompletableFuture) {
+                    // async request processing: the servlet thread is free again
+                    ((CompletableFuture<?>) result).whenComplete((value, error) -> {
+                        if (error == null) {
+                            response.complete(value);
+                        } else {
+                            response.completeExceptionally(error);
+                        }
+                    });
+                } else {
+                    response.complete(result);
+                }
+            } catch (Exception e) {
+                response.completeExceptionally(e);
+            }
+        });
+        return response;
+    }
+
+    @Benchmark
+    public Object fastRequest() throws Exception {
+        return handle(() -> "cached").get();
+    }
+
+    @Benchmark
+    public Object slowRequest() throws Exception {
+        return handle(this::query).get();
+    }
+}
@@ -0,0 +1,64 @@
+package eu.europeana.fulltext.api.service;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import eu.europeana.fulltext.entity.AnnoPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping a word-level AnnoPage and serializing it to JSON-LD, which is what an annopage request does
+ * when the page isn't pre-rendered. Most of the mapping time of such pages goes to building the annotation, resource
+ * and target ids, so run this with the GC profiler (-prof gc) to see the allocation per page as well. To compare with
+ * another version of the mapping, run the same benchmark against that version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({"1000", "5000", "20000"})
+    private int nrAnnotations;
+
+    @Param({"2", "3"})
+    private String version;
+
+    private AnnoPage              annoPage;
+    private ObjectWriter          writer;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() {
+        annoPage = BenchmarkPages.wordLevelPage(nrAnnotations);
+        writer = AnnoPageRenderer.createJsonMapper().writer();
+        out = new ByteArrayOutputStream(nrAnnotations * 512);
+    }
+
+    @Benchmark
+    public Object map() {
+        return "3".equals(version) ? EDM2IIIFMapping.getAnnotationPageV3(annoPage, BenchmarkPages.BASE_URLS)
+                                   : EDM2IIIFMapping.getAnnotationPageV2(annoPage, BenchmarkPages.BASE_URLS);
+    }
+
+    @Benchmark
+    public int mapAndSerialize() throws IOException {
+        out.reset();
+        writer.writeValue(out, map());
+        return out.size();
+    }
+}
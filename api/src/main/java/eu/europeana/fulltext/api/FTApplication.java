@@ -8,6 +8,7 @@ import org.springframework.boot.web.servlet.support.SpringBootServletInitializer
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -25,6 +26,7 @@ import java.io.IOException;
 		"eu.europeana.fulltext.api",
 		"eu.europeana.fulltext.repository"})
 @PropertySource(value = "classpath:build.properties")
+@EnableScheduling
 public class FTApplication extends SpringBootServletInitializer {
 
 	/**
@@ -19,9 +19,12 @@ package eu.europeana.fulltext.api.config;
 
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.async.client.MongoClients;
+import eu.europeana.fulltext.repository.impl.AsyncInfoRepository;
 import org.apache.logging.log4j.LogManager;
 import org.mongodb.morphia.AdvancedDatastore;
 import org.mongodb.morphia.Morphia;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.mongo.MongoProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -50,4 +53,21 @@ public class DataSourceConfig {
         final AdvancedDatastore datastore = (AdvancedDatastore) new Morphia().createDatastore(mongoClient, database);
         return datastore;
     }
+
+    /**
+     * Client of the async driver, only used in the "async" query execution mode. Note that it connects directly, the
+     * socks proxy settings only apply to the (blocking) MongoClient
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "query.execution.mode", havingValue = "async")
+    public com.mongodb.async.client.MongoClient asyncMongoClient(MongoProperties mongoProperties) {
+        return MongoClients.create(mongoProperties.getUri());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "query.execution.mode", havingValue = "async")
+    public AsyncInfoRepository asyncInfoRepository(com.mongodb.async.client.MongoClient asyncMongoClient,
+                                                   AdvancedDatastore datastore) {
+        return new AsyncInfoRepository(asyncMongoClient, datastore);
+    }
 }
@@ -24,6 +24,7 @@ public class FTDefinitions {
 
     public static final String MEDIA_TYPE_JSONLD          = "application/ld+json";
     public static final String MEDIA_TYPE_JSON            = "application/json";
+    public static final String MEDIA_TYPE_NDJSON          = "application/x-ndjson";
     public static final String V3_ANNO_PAGE_TYPE          = "AnnotationPage";
     public static final String V3_ANNOTATION_TYPE         = "Annotation";
     public static final String V3_ANNO_BODY_TYPE          = "SpecificResource";
@@ -40,6 +41,11 @@ public class FTDefinitions {
      */
     public static final String MEDIA_TYPE_IIIF_V3  = "http://iiif.io/api/presentation/3/context.json";
 
+    /**
+     * Context for IIIF Content Search version 1 responses
+     */
+    public static final String MEDIA_TYPE_IIIF_SEARCH_V1 = "http://iiif.io/api/search/1/context.json";
+
 
     /**
      * Media type used in @context tag of Fulltext Resource
@@ -24,7 +24,10 @@ import org.springframework.context.annotation.PropertySource;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -38,6 +41,12 @@ import java.util.Properties;
 @PropertySource(value = "classpath:fulltext.user.properties", ignoreResourceNotFound = true)
 //@EnableMongoRepositories(basePackages="eu.europeana.fulltext")
 public class FTSettings {
+
+    /** Endpoint types that can have their own caching policy */
+    public static final String CACHE_ANNOPAGE   = "annopage";
+    public static final String CACHE_ANNOTATION = "annotation";
+    public static final String CACHE_RESOURCE   = "resource";
+
     private Boolean suppressParseException = false; // default value if we run this outside of Spring
 
     @Value("${annopage.baseurl}")
@@ -55,9 +64,143 @@ public class FTSettings {
     @Value("${annotation.directory}")
     private String annotationDirectory;
 
+    @Value("${annopage.batch.maxpages:100}")
+    private int annoPageBatchMaxPages;
+
+    @Value("${search.maxhits:500}")
+    private int searchMaxHits;
+
+    @Value("${annopage.stream.minannotations:0}")
+    private int annoPageStreamMinAnnotations;
+
+    @Value("${annopage.mapping.parallel.minannotations:0}")
+    private int annoPageMappingParallelMinAnnotations;
+
+    @Value("${annopage.mapping.parallel.threads:0}")
+    private int annoPageMappingParallelThreads;
+
+    @Value("${query.execution.mode:blocking}")
+    private String queryExecutionMode;
+
+    @Value("${query.threads:32}")
+    private int queryThreads;
+
+    @Value("${query.queue:500}")
+    private int queryQueueSize;
+
+    @Value("${query.max.inflight:0}")
+    private int maxInflightQueries;
+
+    @Value("${query.max.inflight.wait.ms:1000}")
+    private long maxInflightWaitMs;
+
+    @Value("${prerendered.enabled:false}")
+    private boolean prerenderedEnabled;
+
+    @Value("${localstore.enabled:false}")
+    private boolean localStoreEnabled;
+
+    @Value("${localstore.directory:}")
+    private String localStoreDirectory;
+
+    @Value("${localstore.segment.bytes:268435456}")
+    private int localStoreSegmentBytes;
+
+    @Value("${localstore.max.segments:8}")
+    private int localStoreMaxSegments;
+
+    @Value("${localstore.preload.datasets:}")
+    private String localStorePreloadDatasets;
+
+    @Value("${annopage.cache.enabled:false}")
+    private boolean annoPageCacheEnabled;
+
+    @Value("${annopage.cache.maxbytes:268435456}")
+    private long annoPageCacheMaxBytes;
+
+    @Value("${annopage.cache.blocksize:4096}")
+    private int annoPageCacheBlockSize;
+
+    @Value("${annopage.cache.stripes:16}")
+    private int annoPageCacheStripes;
+
+    @Value("${pageindex.cache.size:1000}")
+    private int pageIndexCacheSize;
+
+    @Value("${existence.filter.enabled:false}")
+    private boolean existenceFilterEnabled;
+
+    @Value("${existence.filter.maxbytes:67108864}")
+    private long existenceFilterMaxBytes;
+
+    @Value("${existence.filter.fpp:0.01}")
+    private double existenceFilterFpp;
+
+    @Value("${existence.filter.insertcheck.ms:10000}")
+    private long existenceFilterInsertCheckMs;
+
+    @Value("${etag.fasthash:false}")
+    private boolean eTagFastHash;
+
+    @Value("${cache.surrogatekeys.enabled:false}")
+    private boolean surrogateKeysEnabled;
+
+    @Value("${slowrequests.enabled:false}")
+    private boolean slowRequestsEnabled;
+
+    @Value("${slowrequests.threshold.ms:1000}")
+    private long slowRequestsThresholdMs;
+
+    @Value("${slowrequests.buffer.size:100}")
+    private int slowRequestsBufferSize;
+
+    // Cache-Control header value per endpoint type, built once from the cache.{type}.* properties
+    private final Map<String, String> cacheControl = new HashMap<>();
+
     @Autowired
     private Environment environment;
 
+    // resolved once, the app version doesn't change while we're running
+    private String appVersion;
+
+
+    @PostConstruct
+    private void init() {
+        appVersion = loadAppVersion();
+        for (String endpointType : new String[]{CACHE_ANNOPAGE, CACHE_ANNOTATION, CACHE_RESOURCE}) {
+            String value = buildCacheControl("cache." + endpointType);
+            if (value != null) {
+                cacheControl.put(endpointType, value);
+            }
+        }
+    }
+
+    /**
+     * Build a Cache-Control header value from the maxage, smaxage, stalewhilerevalidate and staleiferror properties
+     * with the given prefix (all in seconds)
+     * @return Cache-Control header value, or null if none of the properties are set
+     */
+    private String buildCacheControl(String prefix) {
+        Integer maxAge               = environment.getProperty(prefix + ".maxage", Integer.class);
+        Integer sMaxAge              = environment.getProperty(prefix + ".smaxage", Integer.class);
+        Integer staleWhileRevalidate = environment.getProperty(prefix + ".stalewhilerevalidate", Integer.class);
+        Integer staleIfError         = environment.getProperty(prefix + ".staleiferror", Integer.class);
+        if (maxAge == null && sMaxAge == null && staleWhileRevalidate == null && staleIfError == null) {
+            return null;
+        }
+        // without max-age browsers could cache heuristically, so we explicitly ask them to revalidate
+        StringBuilder result = new StringBuilder("public, max-age=").append(maxAge == null ? 0 : maxAge);
+        if (sMaxAge != null) {
+            result.append(", s-maxage=").append(sMaxAge);
+        }
+        if (staleWhileRevalidate != null) {
+            result.append(", stale-while-revalidate=").append(staleWhileRevalidate);
+        }
+        if (staleIfError != null) {
+            result.append(", stale-if-error=").append(staleIfError);
+        }
+        return result.toString();
+    }
 
     /**
      * For production we want to suppress exceptions that arise from parsing record data, but for testing/debugging we
@@ -74,6 +217,10 @@ public class FTSettings {
      * @return String containing app version, used in the eTag SHA hash generation
      */
     public String getAppVersion() {
+        return appVersion;
+    }
+
+    private String loadAppVersion() {
         Properties  buildProperties  = new Properties();
         InputStream resourceAsStream = this.getClass().getResourceAsStream("/build.properties");
         try {
@@ -84,6 +231,28 @@ public class FTSettings {
         }
     }
 
+    /**
+     * @param endpointType one of the CACHE_* endpoint types
+     * @return the Cache-Control header value for the endpoint type, or null if no caching policy is configured
+     */
+    public String getCacheControl(String endpointType) {
+        return cacheControl.get(endpointType);
+    }
+
+    /**
+     * @return true if responses should contain a Surrogate-Key header (for purging CDN caches per dataset or record)
+     */
+    public boolean isSurrogateKeysEnabled() {
+        return surrogateKeysEnabled;
+    }
+
+    /**
+     * @return true if eTags should be generated with a fast non-cryptographic hash instead of SHA-256
+     */
+    public boolean isETagFastHash() {
+        return eTagFastHash;
+    }
+
     public String getAnnoPageBaseUrl() {
         return annoPageBaseUrl;
     }
@@ -104,4 +273,213 @@ public class FTSettings {
         return annotationDirectory;
     }
 
+    /**
+     * @return the maximum number of pages that can be requested in one batch annopage request
+     */
+    public int getAnnoPageBatchMaxPages() {
+        return annoPageBatchMaxPages;
+    }
+
+    /**
+     * @return the maximum number of hits that are returned in one search response
+     */
+    public int getSearchMaxHits() {
+        return searchMaxHits;
+    }
+
+    /**
+     * @return minimum number of annotations of an AnnoPage for it to be streamed instead of rendered in one go, 0 if
+     * AnnoPages should never be streamed
+     */
+    public int getAnnoPageStreamMinAnnotations() {
+        return annoPageStreamMinAnnotations;
+    }
+
+    /**
+     * @return minimum number of annotations of an AnnoPage for its annotations to be mapped in parallel, 0 if
+     * annotations should always be mapped on the request thread
+     */
+    public int getAnnoPageMappingParallelMinAnnotations() {
+        return annoPageMappingParallelMinAnnotations;
+    }
+
+    /**
+     * @return the number of threads used for mapping annotations in parallel, 0 to use one thread per processor
+     */
+    public int getAnnoPageMappingParallelThreads() {
+        return annoPageMappingParallelThreads;
+    }
+
+    /**
+     * @return true if database queries should be run on a dedicated thread pool ("executor" mode), false if they should
+     * run on the servlet threads ("blocking" mode)
+     */
+    public boolean isQueryExecutorMode() {
+        return "executor".equalsIgnoreCase(queryExecutionMode);
+    }
+
+    /**
+     * @return true if existence checks and conditional request lookups should run on the async Mongo driver and all
+     * other database queries on the dedicated thread pool ("async" mode)
+     */
+    public boolean isQueryAsyncMode() {
+        return "async".equalsIgnoreCase(queryExecutionMode);
+    }
+
+    /**
+     * @return the number of threads used for running database queries in executor and async mode
+     */
+    public int getQueryThreads() {
+        return queryThreads;
+    }
+
+    /**
+     * @return the maximum number of requests that can wait for a query thread in executor and async mode
+     */
+    public int getQueryQueueSize() {
+        return queryQueueSize;
+    }
+
+    /**
+     * @return the maximum number of database queries that may be in progress at the same time (0 means no limit)
+     */
+    public int getMaxInflightQueries() {
+        return maxInflightQueries;
+    }
+
+    /**
+     * @return how long (in ms) a query waits for another query to finish, when the maximum number of queries in
+     * progress is reached
+     */
+    public long getMaxInflightWaitMs() {
+        return maxInflightWaitMs;
+    }
+
+    /**
+     * @return true if AnnoPages pre-rendered by the loader should be used (when available) for JSON-LD responses
+     */
+    public boolean isPrerenderedEnabled() {
+        return prerenderedEnabled;
+    }
+
+    /**
+     * @return true if pre-rendered AnnoPages should be kept in a memory-mapped store on local disk
+     */
+    public boolean isLocalStoreEnabled() {
+        return localStoreEnabled;
+    }
+
+    /**
+     * @return directory where the local page store keeps its segment files
+     */
+    public String getLocalStoreDirectory() {
+        return localStoreDirectory;
+    }
+
+    /**
+     * @return size (in bytes) of a local page store segment file
+     */
+    public int getLocalStoreSegmentBytes() {
+        return localStoreSegmentBytes;
+    }
+
+    /**
+     * @return maximum number of local page store segment files
+     */
+    public int getLocalStoreMaxSegments() {
+        return localStoreMaxSegments;
+    }
+
+    /**
+     * @return comma-separated list of datasets that are exported to the local page store at startup
+     */
+    public String getLocalStorePreloadDatasets() {
+        return localStorePreloadDatasets;
+    }
+
+    /**
+     * @return true if slow requests should be recorded
+     */
+    public boolean isSlowRequestsEnabled() {
+        return slowRequestsEnabled;
+    }
+
+    /**
+     * @return minimum duration (in ms) of a request for it to be recorded as slow request
+     */
+    public long getSlowRequestsThresholdMs() {
+        return slowRequestsThresholdMs;
+    }
+
+    /**
+     * @return maximum number of slow requests that are kept, older ones are overwritten
+     */
+    public int getSlowRequestsBufferSize() {
+        return slowRequestsBufferSize;
+    }
+
+    /**
+     * @return true if AnnoPages should be cached in off-heap memory
+     */
+    public boolean isAnnoPageCacheEnabled() {
+        return annoPageCacheEnabled;
+    }
+
+    /**
+     * @return amount of off-heap memory (in bytes) that is allocated for the AnnoPage cache
+     */
+    public long getAnnoPageCacheMaxBytes() {
+        return annoPageCacheMaxBytes;
+    }
+
+    /**
+     * @return size (in bytes) of the blocks in which the AnnoPage cache stores pages
+     */
+    public int getAnnoPageCacheBlockSize() {
+        return annoPageCacheBlockSize;
+    }
+
+    /**
+     * @return number of independently locked parts the AnnoPage cache memory is divided in
+     */
+    public int getAnnoPageCacheStripes() {
+        return annoPageCacheStripes;
+    }
+
+    /**
+     * @return maximum number of AnnoPages for which the spatial and char range indexes (used for region and char
+     * range requests) are kept in memory
+     */
+    public int getPageIndexCacheSize() {
+        return pageIndexCacheSize;
+    }
+
+    /**
+     * @return true if the in-memory AnnoPage existence filter should be used in front of the database
+     */
+    public boolean isExistenceFilterEnabled() {
+        return existenceFilterEnabled;
+    }
+
+    /**
+     * @return the maximum amount of memory (in bytes) that the AnnoPage existence filter may use
+     */
+    public long getExistenceFilterMaxBytes() {
+        return existenceFilterMaxBytes;
+    }
+
+    /**
+     * @return the desired false positive probability of the AnnoPage existence filter
+     */
+    public double getExistenceFilterFpp() {
+        return existenceFilterFpp;
+    }
+
+    /**
+     * @return interval (in ms) of the check for AnnoPages that were inserted after the existence filter was built
+     */
+    public long getExistenceFilterInsertCheckMs() {
+        return existenceFilterInsertCheckMs;
+    }
+
 }
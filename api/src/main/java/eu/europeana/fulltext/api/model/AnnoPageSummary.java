@@ -0,0 +1,42 @@
+package eu.europeana.fulltext.api.model;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.io.Serializable;
+
+/**
+ * Short description of an available annotation page, used when listing all pages of a record
+ */
+@JsonPropertyOrder({"id", "pageId", "modified", "nrAnnotations"})
+public class AnnoPageSummary implements Serializable {
+
+    private static final long serialVersionUID = -3148720394723520198L;
+
+    private String  id;
+    private String  pageId;
+    private String  modified;
+    private Integer nrAnnotations;
+
+    public AnnoPageSummary(String id, String pageId, String modified, Integer nrAnnotations) {
+        this.id = id;
+        this.pageId = pageId;
+        this.modified = modified;
+        this.nrAnnotations = nrAnnotations;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getPageId() {
+        return pageId;
+    }
+
+    public String getModified() {
+        return modified;
+    }
+
+    public Integer getNrAnnotations() {
+        return nrAnnotations;
+    }
+}
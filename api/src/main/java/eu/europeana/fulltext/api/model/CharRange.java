@@ -0,0 +1,54 @@
+package eu.europeana.fulltext.api.model;
+
+/**
+ * Range of characters of a page's text, as used in char selectors (start offset inclusive, end offset exclusive)
+ */
+public final class CharRange {
+
+    private final int from;
+    private final int to;
+
+    public CharRange(int from, int to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Parse a char range, e.g. "120,135"
+     * @param range from,to where from can't be negative and to should be larger than from
+     * @return CharRange
+     * @throws IllegalArgumentException when the value is not a valid char range
+     */
+    public static CharRange parse(String range) {
+        String[] values = range.split(",");
+        if (values.length == 2) {
+            try {
+                CharRange charRange = new CharRange(Integer.parseInt(values[0].trim()),
+                                                    Integer.parseInt(values[1].trim()));
+                if (charRange.from >= 0 && charRange.to > charRange.from) {
+                    return charRange;
+                }
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+        }
+        throw new IllegalArgumentException("Invalid char range '" + range + "'; expected from,to with from >= 0 and "
+                                           + "to > from");
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    /**
+     * @return the range in from,to format
+     */
+    @Override
+    public String toString() {
+        return from + "," + to;
+    }
+}
@@ -0,0 +1,66 @@
+package eu.europeana.fulltext.api.model;
+
+/**
+ * Rectangular region of a canvas, as used in IIIF xywh selectors (x,y,width,height in pixels)
+ */
+public final class Region {
+
+    private final int x;
+    private final int y;
+    private final int w;
+    private final int h;
+
+    public Region(int x, int y, int w, int h) {
+        this.x = x;
+        this.y = y;
+        this.w = w;
+        this.h = h;
+    }
+
+    /**
+     * Parse a region in the IIIF xywh format, e.g. "100,200,800,600"
+     * @param xywh x,y,width,height, where x and y can't be negative and the width and height should be positive
+     * @return Region
+     * @throws IllegalArgumentException when the value is not a valid region
+     */
+    public static Region parse(String xywh) {
+        String[] values = xywh.split(",");
+        if (values.length == 4) {
+            try {
+                Region region = new Region(Integer.parseInt(values[0].trim()), Integer.parseInt(values[1].trim()),
+                                           Integer.parseInt(values[2].trim()), Integer.parseInt(values[3].trim()));
+                if (region.x >= 0 && region.y >= 0 && region.w > 0 && region.h > 0) {
+                    return region;
+                }
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+        }
+        throw new IllegalArgumentException("Invalid xywh '" + xywh + "'; expected x,y,width,height with x and y >= 0 "
+                                           + "and width and height > 0");
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getW() {
+        return w;
+    }
+
+    public int getH() {
+        return h;
+    }
+
+    /**
+     * @return the region in xywh format
+     */
+    @Override
+    public String toString() {
+        return x + "," + y + "," + w + "," + h;
+    }
+}
@@ -0,0 +1,93 @@
+package eu.europeana.fulltext.api.model;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Details of a request that took longer than the slow request threshold, used in the slowrequests actuator endpoint
+ */
+@JsonPropertyOrder({"timestamp", "endpoint", "datasetId", "localId", "id", "version", "durationMs", "nrAnnotations",
+                    "responseBytes", "stagesMs"})
+public class SlowRequest implements Serializable {
+
+    private static final long serialVersionUID = 6028264377715389421L;
+
+    private String              timestamp;
+    private String              endpoint;
+    private String              datasetId;
+    private String              localId;
+    private String              id;
+    private String              version;
+    private double              durationMs;
+    private Integer             nrAnnotations;
+    private Long                responseBytes;
+    private Map<String, Double> stagesMs;
+
+    public SlowRequest(String timestamp, String endpoint, String datasetId, String localId, String id, String version,
+                       double durationMs, Integer nrAnnotations, Long responseBytes, Map<String, Double> stagesMs) {
+        this.timestamp = timestamp;
+        this.endpoint = endpoint;
+        this.datasetId = datasetId;
+        this.localId = localId;
+        this.id = id;
+        this.version = version;
+        this.durationMs = durationMs;
+        this.nrAnnotations = nrAnnotations;
+        this.responseBytes = responseBytes;
+        this.stagesMs = stagesMs;
+    }
+
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getDatasetId() {
+        return datasetId;
+    }
+
+    public String getLocalId() {
+        return localId;
+    }
+
+    /**
+     * @return the pageId, annotationId or resourceId of the request (depending on the endpoint)
+     */
+    public String getId() {
+        return id;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public double getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return number of annotations of the requested AnnoPage, or null if the AnnoPage wasn't loaded
+     */
+    public Integer getNrAnnotations() {
+        return nrAnnotations;
+    }
+
+    /**
+     * @return size of the response body, or null if no body was generated
+     */
+    public Long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * @return time spent per stage (existence check, fetch, mapping, serialization, ...) in milliseconds
+     */
+    public Map<String, Double> getStagesMs() {
+        return stagesMs;
+    }
+}
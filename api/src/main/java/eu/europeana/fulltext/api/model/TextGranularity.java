@@ -0,0 +1,51 @@
+package eu.europeana.fulltext.api.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Granularity levels of annotations that clients can request, and the dcType code under which they are stored
+ */
+public enum TextGranularity {
+
+    PAGE('P'),
+    BLOCK('B'),
+    LINE('L'),
+    WORD('W');
+
+    private final char dcType;
+
+    TextGranularity(char dcType) {
+        this.dcType = dcType;
+    }
+
+    public char getDcType() {
+        return dcType;
+    }
+
+    /**
+     * Convert a comma-separated list of granularity levels (e.g. "line,block") to the dcType codes that are stored in
+     * the database. The result is sorted and doesn't contain duplicates, so it can be used in cache keys
+     * @param textGranularity comma-separated list of granularity levels, case-insensitive
+     * @return sorted list of dcType codes
+     * @throws IllegalArgumentException when one of the values is not a known granularity level
+     */
+    public static List<String> toDcTypes(String textGranularity) {
+        SortedSet<String> dcTypes = new TreeSet<>();
+        for (String value : textGranularity.split(",")) {
+            String name = value.trim().toUpperCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                try {
+                    dcTypes.add(String.valueOf(TextGranularity.valueOf(name).dcType));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown textGranularity '" + value.trim()
+                                                       + "'; supported values are page, block, line and word", e);
+                }
+            }
+        }
+        return new ArrayList<>(dcTypes);
+    }
+}
@@ -0,0 +1,47 @@
+package eu.europeana.fulltext.api.model.v2;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.io.Serializable;
+
+/**
+ * IIIF Content Search (version 1) hit: the annotation(s) that matched, with the matching text and the text before
+ * and after it
+ */
+@JsonPropertyOrder({"type", "annotations", "match", "before", "after"})
+public class SearchHitV2 implements Serializable {
+
+    private static final long serialVersionUID = -1563429843326428937L;
+
+    @JsonProperty("@type")
+    private String type = "search:Hit";
+
+    private String[] annotations;
+    private String   match;
+    private String   before;
+    private String   after;
+
+    public SearchHitV2(String[] annotations, String match, String before, String after) {
+        this.annotations = annotations;
+        this.match = match;
+        this.before = before;
+        this.after = after;
+    }
+
+    public String[] getAnnotations() {
+        return annotations;
+    }
+
+    public String getMatch() {
+        return match;
+    }
+
+    public String getBefore() {
+        return before;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+}
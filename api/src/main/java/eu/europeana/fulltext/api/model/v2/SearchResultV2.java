@@ -0,0 +1,87 @@
+package eu.europeana.fulltext.api.model.v2;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.io.Serializable;
+
+import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_IIIF_SEARCH_V1;
+import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_IIIF_V2;
+
+/**
+ * IIIF Content Search (version 1) response: an AnnotationList with the matching word annotations and one hit per
+ * annotation with the matching text and the text around it
+ */
+@JsonPropertyOrder({"context", "id", "type", "within", "resources", "hits"})
+public class SearchResultV2 extends JsonLdId implements Serializable {
+
+    private static final long serialVersionUID = -3203717045151327645L;
+
+    @JsonProperty("@context")
+    private String[] context = new String[]{MEDIA_TYPE_IIIF_V2, MEDIA_TYPE_IIIF_SEARCH_V1};
+
+    @JsonProperty("@type")
+    private String type = "sc:AnnotationList";
+
+    private Within         within;
+    private AnnotationV2[] resources;
+    private SearchHitV2[]  hits;
+
+    /**
+     * Information about the complete result, of which the resources and hits may only be the first part
+     */
+    @JsonPropertyOrder({"type", "total"})
+    public static class Within implements Serializable {
+
+        private static final long serialVersionUID = 2436009516563862541L;
+
+        @JsonProperty("@type")
+        private String type = "sc:Layer";
+
+        private int total;
+
+        public Within(int total) {
+            this.total = total;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    public SearchResultV2(String id) {
+        super(id);
+    }
+
+    public String[] getContext() {
+        return context;
+    }
+
+    public void setContext(String[] context) {
+        this.context = context;
+    }
+
+    public Within getWithin() {
+        return within;
+    }
+
+    public void setWithin(Within within) {
+        this.within = within;
+    }
+
+    public AnnotationV2[] getResources() {
+        return resources;
+    }
+
+    public void setResources(AnnotationV2[] resources) {
+        this.resources = resources;
+    }
+
+    public SearchHitV2[] getHits() {
+        return hits;
+    }
+
+    public void setHits(SearchHitV2[] hits) {
+        this.hits = hits;
+    }
+}
@@ -0,0 +1,135 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import org.mongodb.morphia.query.MorphiaIterator;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over multiple AnnoPages of a record in the requested order, skipping pages that don't exist.
+ * The pageIds are queried in chunks of {@link #CHUNK_SIZE}, one chunk after the other, and the pages of a chunk are
+ * returned as soon as they arrive from the database cursor. Pages that arrive before the pages requested ahead of them
+ * are kept until it's their turn, so at most one chunk of pages is in memory at a time.
+ * Iterators should be closed when done, to close the database cursor of the current chunk.
+ * Opening a cursor and reading from it (which may fetch the next batch from the database) each count as one query
+ * for the QueryLimiter, so no permit is held while a page is mapped or written.
+ */
+public class AnnoPageBatchIterator implements Iterator<AnnoPage>, Closeable {
+
+    static final int CHUNK_SIZE = 10;
+
+    private final AnnoPageRepositoryImpl annoPageRepositoryImpl;
+    private final QueryLimiter           queryLimiter;
+    private final FTMetrics              metrics;
+    private final String                 datasetId;
+    private final String                 localId;
+    private final List<String>           pageIds;
+
+    // pages of the current chunk that arrived before it was their turn
+    private final Map<String, AnnoPage> arrived = new HashMap<>();
+
+    private MorphiaIterator<AnnoPage, AnnoPage> cursor;
+    private int                                 chunkEnd;
+    private int                                 position;
+    private AnnoPage                            next;
+    private long                                fetchNanos;
+
+    AnnoPageBatchIterator(AnnoPageRepositoryImpl annoPageRepositoryImpl, QueryLimiter queryLimiter, FTMetrics metrics,
+                          String datasetId, String localId, List<String> pageIds) {
+        this.annoPageRepositoryImpl = annoPageRepositoryImpl;
+        this.queryLimiter = queryLimiter;
+        this.metrics = metrics;
+        this.datasetId = datasetId;
+        this.localId = localId;
+        this.pageIds = pageIds;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = findNext();
+        }
+        return next != null;
+    }
+
+    @Override
+    public AnnoPage next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        AnnoPage result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * @return the next requested page that exists, or null if there are no more pages
+     */
+    private AnnoPage findNext() {
+        while (position < pageIds.size()) {
+            if (position == chunkEnd) {
+                startChunk();
+            }
+            AnnoPage annoPage = arrived.remove(pageIds.get(position));
+            if (annoPage == null && readFromCursor()) {
+                // not here yet, so we read on
+                continue;
+            }
+            // either it's the requested page, or it doesn't exist
+            position++;
+            if (annoPage != null) {
+                return annoPage;
+            }
+        }
+        close();
+        return null;
+    }
+
+    private void startChunk() {
+        close();
+        chunkEnd = Math.min(position + CHUNK_SIZE, pageIds.size());
+        long start = System.nanoTime();
+        List<String> chunk = pageIds.subList(position, chunkEnd);
+        cursor = queryLimiter.query(() -> annoPageRepositoryImpl.iterateByDatasetLocalPageIds(datasetId, localId,
+                                                                                              chunk));
+        fetchNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Read the next page of the current chunk from the database cursor
+     * @return false if there are no more pages in the current chunk
+     */
+    private boolean readFromCursor() {
+        long start = System.nanoTime();
+        try {
+            if (!queryLimiter.query(cursor::hasNext)) {
+                return false;
+            }
+            AnnoPage annoPage = cursor.next();
+            arrived.putIfAbsent(annoPage.getPgId(), annoPage);
+            return true;
+        } finally {
+            fetchNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Close the database cursor of the current chunk (if any), recording the time spent reading it
+     */
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+            metrics.record(FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_ANNOPAGES, FTMetrics.NO_VERSION, fetchNanos);
+            fetchNanos = 0;
+        }
+        arrived.clear();
+    }
+}
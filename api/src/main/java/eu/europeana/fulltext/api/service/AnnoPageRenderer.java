@@ -0,0 +1,91 @@
+package eu.europeana.fulltext.api.service;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import eu.europeana.fulltext.entity.AnnoPage;
+import ioinformarics.oss.jackson.module.jsonld.JsonldModule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Renders AnnoPages to gzipped IIIF JSON-LD. This is used by the loader to pre-render AnnoPages at load time; the
+ * output is identical to what the API generates for a JSON-LD annopage request.
+ */
+public final class AnnoPageRenderer {
+
+    private static final ObjectMapper MAPPER = createJsonMapper();
+
+    private AnnoPageRenderer() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * @return new ObjectMapper configured for serializing IIIF output
+     */
+    public static ObjectMapper createJsonMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        mapper.registerModule(new JsonldModule());
+        return mapper;
+    }
+
+    /**
+     * Render an AnnoPage to gzipped JSON-LD
+     * @param annoPage AnnoPage to render
+     * @param version IIIF version [2|3]
+     * @param baseUrls base urls and directories of the ids in the output
+     * @return gzipped JSON-LD (UTF-8)
+     * @throws IOException when there is a problem serializing the AnnoPage
+     */
+    public static byte[] renderGzipped(AnnoPage annoPage, String version, BaseUrls baseUrls) throws IOException {
+        Object annotationPage;
+        if ("3".equalsIgnoreCase(version)) {
+            annotationPage = EDM2IIIFMapping.getAnnotationPageV3(annoPage, baseUrls);
+        } else {
+            annotationPage = EDM2IIIFMapping.getAnnotationPageV2(annoPage, baseUrls);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            MAPPER.writerWithDefaultPrettyPrinter().writeValue(out, annotationPage);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompress gzipped data
+     * @param gzipped
+     * @return uncompressed data
+     * @throws IOException when the data is not valid gzip
+     */
+    public static byte[] gunzip(byte[] gzipped) throws IOException {
+        return gunzip(ByteBuffer.wrap(gzipped));
+    }
+
+    /**
+     * Decompress gzipped data, reading it directly from the provided buffer (which is not modified)
+     * @param gzipped
+     * @return uncompressed data
+     * @throws IOException when the data is not valid gzip
+     */
+    public static byte[] gunzip(ByteBuffer gzipped) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(gzipped.remaining() * 8);
+        try (InputStream in = new GZIPInputStream(new ByteBufferBackedInputStream(gzipped.duplicate()))) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
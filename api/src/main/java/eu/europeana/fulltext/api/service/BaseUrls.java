@@ -0,0 +1,44 @@
+package eu.europeana.fulltext.api.service;
+
+/**
+ * The base urls and directories from which the ids in the IIIF output are built. The API reads them from its
+ * FTSettings; the loader, which pre-renders AnnoPages without the API's configuration, passes its own (which should
+ * be the same as the API's, otherwise the pre-rendered output differs from what the API generates)
+ */
+public final class BaseUrls {
+
+    private final String annoPageBaseUrl;
+    private final String annoPageDirectory;
+    private final String annotationBaseUrl;
+    private final String annotationDirectory;
+    private final String resourceBaseUrl;
+
+    public BaseUrls(String annoPageBaseUrl, String annoPageDirectory, String annotationBaseUrl,
+                    String annotationDirectory, String resourceBaseUrl) {
+        this.annoPageBaseUrl = annoPageBaseUrl;
+        this.annoPageDirectory = annoPageDirectory;
+        this.annotationBaseUrl = annotationBaseUrl;
+        this.annotationDirectory = annotationDirectory;
+        this.resourceBaseUrl = resourceBaseUrl;
+    }
+
+    public String getAnnoPageBaseUrl() {
+        return annoPageBaseUrl;
+    }
+
+    public String getAnnoPageDirectory() {
+        return annoPageDirectory;
+    }
+
+    public String getAnnotationBaseUrl() {
+        return annotationBaseUrl;
+    }
+
+    public String getAnnotationDirectory() {
+        return annotationDirectory;
+    }
+
+    public String getResourceBaseUrl() {
+        return resourceBaseUrl;
+    }
+}
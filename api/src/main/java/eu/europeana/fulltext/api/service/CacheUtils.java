@@ -44,6 +44,8 @@ import java.util.Objects;
  */
 public class CacheUtils {
 
+    public static final String SURROGATEKEY = "Surrogate-Key";
+
     private static final Logger  LOG             = LogManager.getLogger(CacheUtils.class);
     private static final String  IFNONEMATCH     = "If-None-Match";
     private static final String  IFMATCH         = "If-Match";
@@ -55,26 +57,128 @@ public class CacheUtils {
     private static final String  CACHECONTROL    = "no-cache";
     private static final String  ACCEPT          = "Accept";
 
+    private static final char[]  HEX_CHARS       = "0123456789abcdef".toCharArray();
+    private static final long    FNV_OFFSET      = 0xcbf29ce484222325L;
+    private static final long    FNV_PRIME       = 0x100000001b3L;
+
+    // MessageDigest isn't thread-safe, so each thread reuses its own. Calling digest() resets it for the next use
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    });
+
     private CacheUtils() {
         // empty constructor to prevent initialization
     }
 
+    /**
+     * The part of an id-based eTag that only depends on the app version and the IIIF version. As there are only a few
+     * of these, they are built once (see FTService.getETagSalt()) instead of for every eTag.
+     */
+    public static final class ETagSalt {
+
+        private final byte[] bytes;    // hashed by SHA-256 before the id
+        private final long   fnvState; // FNV-1a hash of the app version and IIIF version
+
+        public ETagSalt(String appVersion, String iiifVersion) {
+            this.bytes    = (appVersion + '/' + iiifVersion).getBytes(StandardCharsets.UTF_8);
+            this.fnvState = fnv1a(fnv1a(FNV_OFFSET, appVersion), iiifVersion);
+        }
+    }
+
     /**
      * Generates an eTag surrounded with double quotes
      * @param id            concatenated datasetID + localID + [pageID | annoId]
      * @param modified      modified ZonedDateTime contained within MongoDB document
-     * @param iiifVersion   requested IIIF version [2|3]
-     * @param appVersion    version of this API as defined in the pom.xml
+     * @param salt          app version and requested IIIF version, see FTService.getETagSalt()
      * @param weakETag      if true then the eTag will start with W/
+     * @param fastHash      if true then a (much cheaper) 64-bit non-cryptographic hash is used instead of SHA-256
      * @return
      */
-    public static String generateETag(String id, ZonedDateTime modified, String iiifVersion, String appVersion, boolean weakETag) {
-        String data = id + zonedDateTimeToString(modified) + iiifVersion + appVersion;
-        String eTag = "\"" + getSHA256Hash(data) + "\"";
+    public static String generateETag(String id, ZonedDateTime modified, ETagSalt salt, boolean weakETag,
+                                      boolean fastHash) {
+        long   modifiedSeconds = modified.toEpochSecond();
+        String hash;
+        if (fastHash) {
+            hash = getFastHash(id, modifiedSeconds, salt);
+        } else {
+            hash = getSHA256Hash(id, modifiedSeconds, salt);
+        }
+        StringBuilder eTag = new StringBuilder(hash.length() + 4);
         if (weakETag) {
-            return "W/" + eTag;
+            eTag.append("W/");
+        }
+        return eTag.append('"').append(hash).append('"').toString();
+    }
+
+    /**
+     * Generates a strong eTag from the content version that the loader stored with a document. This requires no
+     * hashing, and the eTag only changes when the content (or the output format) changes.
+     * @param contentVersion content version (hash) of the MongoDB document
+     * @param iiifVersion    requested IIIF version [2|3]
+     * @param json           true if plain JSON is returned, false if JSON-LD is returned
+     * @param appVersion     version of this API as defined in the pom.xml
+     * @return eTag surrounded with double quotes
+     */
+    public static String generateContentETag(String contentVersion, String iiifVersion, boolean json,
+                                             String appVersion) {
+        return new StringBuilder(contentVersion.length() + 32)
+                .append('"').append(contentVersion)
+                .append("-v").append(iiifVersion).append(json ? "j" : "l")
+                .append('-').append(appVersion)
+                .append('"').toString();
+    }
+
+    /**
+     * Generates the surrogate keys of a response, so CDN caches can be purged per dataset, record or page
+     * @param datasetId
+     * @param localId
+     * @param pageId    optional, if not null a key for the page is added
+     * @return space-separated surrogate keys
+     */
+    public static String generateSurrogateKeys(String datasetId, String localId, String pageId) {
+        StringBuilder keys = new StringBuilder(64)
+                .append(datasetSurrogateKey(datasetId)).append(' ')
+                .append(recordSurrogateKey(datasetId, localId));
+        if (pageId != null) {
+            keys.append(' ').append(pageSurrogateKey(datasetId, localId, pageId));
         }
-        return eTag;
+        return keys.toString();
+    }
+
+    /**
+     * @return surrogate key for all responses of a dataset
+     */
+    public static String datasetSurrogateKey(String datasetId) {
+        return "ds/" + datasetId;
+    }
+
+    /**
+     * @return surrogate key for all responses of a record
+     */
+    public static String recordSurrogateKey(String datasetId, String localId) {
+        return "rec/" + datasetId + "/" + localId;
+    }
+
+    /**
+     * @return surrogate key for all responses of a page
+     */
+    public static String pageSurrogateKey(String datasetId, String localId, String pageId) {
+        return "page/" + datasetId + "/" + localId + "/" + pageId;
+    }
+
+    /**
+     * @param request incoming HttpServletRequest
+     * @return true if the request contains an If-None-Match, If-Match or If-Modified-Since header
+     */
+    public static boolean isConditionalRequest(HttpServletRequest request) {
+        return StringUtils.isNotBlank(request.getHeader(IFNONEMATCH)) ||
+               StringUtils.isNotBlank(request.getHeader(IFMATCH)) ||
+               StringUtils.isNotBlank(request.getHeader(IFMODIFIEDSINCE));
     }
 
     /**
@@ -103,12 +207,27 @@ public class CacheUtils {
      * @return ResponseEntity with 304 or 312 status if requested object has not changed, otherwise null
      */
     public static ResponseEntity<String> checkCached(HttpServletRequest request, ZonedDateTime modified, String eTag) {
+        return checkCached(request, modified, eTag, null, null);
+    }
+
+    /**
+     * Should be RFC-7232 compliant, incl. ability to process multiple eTags for an If-*-Match header
+     * @param request       incoming HttpServletRequest
+     * @param modified      ZonedDateTime that indicates the lastModified date of the requested data
+     * @param eTag          String with the calculated eTag of the requested data
+     * @param cacheControl  optional, Cache-Control header value. If null then "no-cache" is used
+     * @param surrogateKeys optional, space-separated surrogate keys (for purging CDN caches)
+     * @return ResponseEntity with 304 or 312 status if requested object has not changed, otherwise null
+     */
+    public static ResponseEntity<String> checkCached(HttpServletRequest request, ZonedDateTime modified, String eTag,
+                                                     String cacheControl, String surrogateKeys) {
         HttpHeaders headers;
         // If If-None-Match is present: check if it contains a matching eTag OR == '*"
         // Yes: return HTTP 304 + cache headers. Ignore If-Modified-Since (RFC 7232)
         if (StringUtils.isNotBlank(request.getHeader(IFNONEMATCH))){
             if (doesAnyIfNoneMatch(request, eTag)) {
-                headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified));
+                headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified),
+                                                     cacheControl, surrogateKeys);
                 return new ResponseEntity<>(headers, HttpStatus.NOT_MODIFIED);
             }
             // If If-Match is present: check if it contains a matching eTag OR == '*"
@@ -133,6 +252,20 @@ public class CacheUtils {
      * @return HttpServletResponse
      */
     public static HttpHeaders generateHeaders(HttpServletRequest request, String eTag, String modified){
+        return generateHeaders(request, eTag, modified, null, null);
+    }
+
+    /**
+     * Generate the default headers for sending a response with caching
+     * @param request       required to determine whether the 'Origin' request header is set
+     * @param eTag          optional, if not null then an ETag header is added
+     * @param modified      optional, if not null then a Last-Modified header is added
+     * @param cacheControl  optional, Cache-Control header value. If null then "no-cache" is used
+     * @param surrogateKeys optional, if not null then a Surrogate-Key header is added (for purging CDN caches)
+     * @return HttpServletResponse
+     */
+    public static HttpHeaders generateHeaders(HttpServletRequest request, String eTag, String modified,
+                                              String cacheControl, String surrogateKeys){
         HttpHeaders headers = new HttpHeaders();
         if (StringUtils.isNotBlank(request.getHeader("Origin"))){
             headers.add("Access-Control-Allow-Methods", ALLOWED);
@@ -147,8 +280,11 @@ public class CacheUtils {
             headers.add("Last-Modified", modified);
         }
         headers.add("Allow", ALLOWED);
-        headers.add("Cache-Control", CACHECONTROL);
+        headers.add("Cache-Control", StringUtils.isNotBlank(cacheControl) ? cacheControl : CACHECONTROL);
         headers.add("Vary", ACCEPT);
+        if (StringUtils.isNotBlank(surrogateKeys)) {
+            headers.add(SURROGATEKEY, surrogateKeys);
+        }
         return headers;
     }
 
@@ -210,32 +346,52 @@ public class CacheUtils {
     }
 
     /**
-     * Calculates SHA256 hash of a particular data string
-     * @param  data String of data on which the hash is based
+     * Calculates SHA256 hash of the eTag data, using the digest of the current thread
      * @return SHA256Hash   String
      */
-    private static String getSHA256Hash(String data){
-        MessageDigest digest = null;
-        try {
-            digest = MessageDigest.getInstance("SHA-256");
-            byte[] encodedhash = digest.digest(data.getBytes(StandardCharsets.UTF_8));
-            return bytesToHex(encodedhash);
-        } catch (NoSuchAlgorithmException e) {
-            LogManager.getLogger(CacheUtils.class).error("Error generating SHA-265 hash from record timestamp_update", e);
+    private static String getSHA256Hash(String id, long modifiedSeconds, ETagSalt salt){
+        MessageDigest digest = SHA256_DIGEST.get();
+        digest.update(salt.bytes);
+        digest.update(id.getBytes(StandardCharsets.UTF_8));
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            digest.update((byte) (modifiedSeconds >>> shift));
         }
-        return null;
+        return bytesToHex(digest.digest());
     }
 
-    private static String bytesToHex(byte[] hash) {
-        StringBuilder hexString = new StringBuilder();
-        for (byte bt : hash) {
-            String hex = Integer.toHexString(0xff & bt);
-            if (hex.length() == 1) {
-                hexString.append('0');
+    /**
+     * Calculates a 64-bit FNV-1a hash of the eTag data. This is not a cryptographic hash, but it's good enough to
+     * detect changes of a document and a lot cheaper to compute.
+     */
+    private static String getFastHash(String id, long modifiedSeconds, ETagSalt salt) {
+        long hash = fnv1a(salt.fnvState, id);
+        hash = (hash ^ modifiedSeconds) * FNV_PRIME;
+        char[] hex = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            hex[i] = HEX_CHARS[(int) (hash & 0xf)];
+            hash >>>= 4;
+        }
+        return new String(hex);
+    }
+
+    private static long fnv1a(long hash, String data) {
+        long result = hash;
+        if (data != null) {
+            for (int i = 0; i < data.length(); i++) {
+                result = (result ^ data.charAt(i)) * FNV_PRIME;
             }
-            hexString.append(hex);
         }
-        return hexString.toString();
+        // separator, so "ab" + "c" and "a" + "bc" don't hash the same
+        return (result ^ 0xff) * FNV_PRIME;
+    }
+
+    private static String bytesToHex(byte[] hash) {
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2]     = HEX_CHARS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_CHARS[hash[i] & 0xf];
+        }
+        return new String(hex);
     }
     /**
      * Parses the given string into a ZonedDateTime object
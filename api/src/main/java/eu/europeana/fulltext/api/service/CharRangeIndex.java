@@ -0,0 +1,151 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Interval index over the character offsets (from, to) of the annotations of one AnnoPage, so the annotations that
+ * overlap a range of the page's text can be found with a binary search instead of checking all annotations.
+ * Annotations are grouped per dcType, because annotations of the same type (e.g. words) don't overlap each other:
+ * within a group the intervals are sorted on start offset, and with the running maximum of the end offsets a query
+ * only has to look at the annotations that are in or directly around the range.
+ * Annotations without (valid) offsets are not indexed. The index is immutable and refers to annotations by their
+ * position in the AnnoPage's list of annotations.
+ */
+public final class CharRangeIndex {
+
+    private final int     nrAnnotations;
+    private final Group[] groups;
+
+    private static final class Group {
+        private final int[] from;
+        private final int[] to;
+        private final int[] maxTo;     // maxTo[i] = the largest end offset of intervals 0..i
+        private final int[] position;  // position of the annotation in the AnnoPage
+
+        private Group(int size) {
+            this.from = new int[size];
+            this.to = new int[size];
+            this.maxTo = new int[size];
+            this.position = new int[size];
+        }
+    }
+
+    private CharRangeIndex(List<Annotation> annotations) {
+        this.nrAnnotations = annotations.size();
+
+        Map<Character, int[]> positionsByType = new TreeMap<>();
+        Map<Character, Integer> sizeByType = new TreeMap<>();
+        for (Annotation annotation : annotations) {
+            if (hasOffsets(annotation)) {
+                sizeByType.merge(annotation.getDcType(), 1, Integer::sum);
+            }
+        }
+        for (Map.Entry<Character, Integer> entry : sizeByType.entrySet()) {
+            positionsByType.put(entry.getKey(), new int[entry.getValue()]);
+        }
+        Map<Character, Integer> filled = new TreeMap<>();
+        for (int i = 0; i < nrAnnotations; i++) {
+            Annotation annotation = annotations.get(i);
+            if (hasOffsets(annotation)) {
+                int n = filled.merge(annotation.getDcType(), 1, Integer::sum) - 1;
+                positionsByType.get(annotation.getDcType())[n] = i;
+            }
+        }
+
+        this.groups = new Group[positionsByType.size()];
+        int g = 0;
+        for (int[] positions : positionsByType.values()) {
+            groups[g++] = createGroup(annotations, positions);
+        }
+    }
+
+    private static Group createGroup(List<Annotation> annotations, int[] positions) {
+        // sort on start offset (then on position), by sorting packed longs so we don't need boxed comparators
+        long[] sortKeys = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            sortKeys[i] = ((long) annotations.get(positions[i]).getFrom() << 32) | positions[i];
+        }
+        Arrays.sort(sortKeys);
+
+        Group group = new Group(positions.length);
+        int maxTo = Integer.MIN_VALUE;
+        for (int i = 0; i < sortKeys.length; i++) {
+            int        position   = (int) sortKeys[i];
+            Annotation annotation = annotations.get(position);
+            group.from[i] = annotation.getFrom();
+            group.to[i] = annotation.getTo();
+            group.position[i] = position;
+            maxTo = Math.max(maxTo, group.to[i]);
+            group.maxTo[i] = maxTo;
+        }
+        return group;
+    }
+
+    private static boolean hasOffsets(Annotation annotation) {
+        return annotation.getFrom() != null && annotation.getTo() != null
+               && annotation.getFrom() >= 0 && annotation.getFrom() <= annotation.getTo();
+    }
+
+    /**
+     * Create a char range index for the annotations of an AnnoPage
+     * @param annoPage
+     * @return CharRangeIndex
+     */
+    public static CharRangeIndex build(AnnoPage annoPage) {
+        return new CharRangeIndex(annoPage.getAns());
+    }
+
+    /**
+     * @return the number of annotations in the indexed AnnoPage
+     */
+    public int getNrAnnotations() {
+        return nrAnnotations;
+    }
+
+    /**
+     * Find the annotations whose text overlaps a range of the page's text
+     * @param from start offset of the range (inclusive)
+     * @param to   end offset of the range (exclusive)
+     * @return the positions of the overlapping annotations in the AnnoPage's list of annotations
+     */
+    public BitSet query(int from, int to) {
+        BitSet result = new BitSet(nrAnnotations);
+        for (Group group : groups) {
+            // candidates start before the end of the range, and the first candidate that can end after the start of
+            // the range is the first one with a larger running maximum
+            int end   = firstIndexAbove(group.from, to - 1);
+            int start = firstIndexAbove(group.maxTo, from);
+            for (int i = start; i < end; i++) {
+                if (group.to[i] > from) {
+                    result.set(group.position[i]);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the index of the first value in a sorted array that is larger than the given value, or the length of
+     * the array if there is no such value
+     */
+    private static int firstIndexAbove(int[] sorted, int value) {
+        int low  = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -19,20 +19,31 @@ package eu.europeana.fulltext.api.service;
 
 import eu.europeana.fulltext.api.config.FTSettings;
 import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
 import eu.europeana.fulltext.entity.Annotation;
 import eu.europeana.fulltext.entity.Resource;
 import eu.europeana.fulltext.entity.Target;
+import eu.europeana.fulltext.api.model.AnnoPageSummary;
 import eu.europeana.fulltext.api.model.FullTextResource;
 import eu.europeana.fulltext.api.model.v2.*;
 import eu.europeana.fulltext.api.model.v3.AnnotationPageV3;
 import eu.europeana.fulltext.api.model.v3.AnnotationV3;
 import eu.europeana.fulltext.api.model.v3.AnnotationBodyV3;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import javax.annotation.PreDestroy;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
 
 import static eu.europeana.fulltext.api.config.FTDefinitions.*;
 
@@ -44,47 +55,111 @@ import static eu.europeana.fulltext.api.config.FTDefinitions.*;
  * for now not displayed in the output. Instead, the values as specified in the EDM 2 IIIF mapping document are used;
  * they are for now hard-coded in this class for both the V2 and V3 version of the output JSON.
  *
+ * The annotations of AnnoPages with at least annopage.mapping.parallel.minannotations annotations are mapped in
+ * parallel chunks on a dedicated fork-join pool, so very large pages use idle cores instead of only the request
+ * thread.
+ *
+ * The parts of the annotation, resource and target ids that are the same for all annotations of a page are
+ * concatenated once per page (see PageUrls), so mapping an annotation only appends its own id, offsets and
+ * coordinates.
+ *
  * Created by luthien on 18/06/2018.
  */
 @Component
 public class EDM2IIIFMapping {
 
-    private static FTSettings fts;
+    private static final Logger LOG = LogManager.getLogger(EDM2IIIFMapping.class);
+
+    private static BaseUrls     baseUrls;
+    // null if annotations are always mapped on the calling thread
+    private static ForkJoinPool mappingPool;
+    private static int          parallelMinAnnotations;
 
     private static final String V2_MOTIVATION = "sc:painting";
     private static final String V3_MOTIVATION = "transcribing";
 
+    // number of characters before and after a search hit that are included in the hit
+    private static final int SEARCH_HIT_CONTEXT = 40;
+
+    // maximum length of the "#char=from,to" and "x,y,w,h" parts of a resource or target id
+    private static final int MAX_CHAR_LENGTH = 6 + 2 * 11 + 1;
+    private static final int MAX_XYWH_LENGTH = 4 * 11 + 3;
+
+    // maximum number of annotations that one fork-join task maps itself instead of splitting the work further
+    private static final int PARALLEL_CHUNK_SIZE = 512;
+
     @Autowired
     private EDM2IIIFMapping(FTSettings fts) {
-        EDM2IIIFMapping.fts = fts;
+        EDM2IIIFMapping.baseUrls = new BaseUrls(fts.getAnnoPageBaseUrl(), fts.getAnnoPageDirectory(),
+                                                fts.getAnnotationBaseUrl(), fts.getAnnotationDirectory(),
+                                                fts.getResourceBaseUrl());
+        EDM2IIIFMapping.parallelMinAnnotations = fts.getAnnoPageMappingParallelMinAnnotations();
+        if (parallelMinAnnotations > 0) {
+            int nrThreads = fts.getAnnoPageMappingParallelThreads() > 0 ? fts.getAnnoPageMappingParallelThreads()
+                                                                        : Runtime.getRuntime().availableProcessors();
+            LOG.info("Mapping AnnoPages with at least {} annotations on a pool of {} threads",
+                     parallelMinAnnotations, nrThreads);
+            EDM2IIIFMapping.mappingPool = new ForkJoinPool(nrThreads, EDM2IIIFMapping::newMappingThread, null, false);
+        } else {
+            EDM2IIIFMapping.mappingPool = null;
+        }
+    }
+
+    private static ForkJoinWorkerThread newMappingThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("ft-mapping-" + thread.getPoolIndex());
+        return thread;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (mappingPool != null) {
+            mappingPool.shutdown();
+        }
     }
 
     static AnnotationPageV2 getAnnotationPageV2(AnnoPage annoPage){
-        AnnotationPageV2 annPage = new AnnotationPageV2(getAnnoPageIdUrl(annoPage));
-        annPage.setResources(getAnnotationV2Array(annoPage));
+        return getAnnotationPageV2(annoPage, baseUrls);
+    }
+
+    static AnnotationPageV2 getAnnotationPageV2(AnnoPage annoPage, BaseUrls urls){
+        AnnotationPageV2 annPage = new AnnotationPageV2(getAnnoPageIdUrl(urls, annoPage));
+        annPage.setResources(getAnnotationV2Array(annoPage, urls));
         return annPage;
     }
 
-    private static AnnotationV2[] getAnnotationV2Array(AnnoPage annoPage){
-        ArrayList<AnnotationV2> annoArrayList = new ArrayList<>();
-        for (Annotation ftAnno : annoPage.getAns()){
-            annoArrayList.add(getAnnotationV2(annoPage, ftAnno, false));
-        }
-        return annoArrayList.toArray(new AnnotationV2[0]);
+    private static AnnotationV2[] getAnnotationV2Array(AnnoPage annoPage, BaseUrls baseUrls){
+        PageUrls       urls   = getPageUrls(baseUrls, annoPage);
+        AnnotationV2[] result = new AnnotationV2[annoPage.getAns().size()];
+        mapAnnotations(annoPage, result, ftAnno -> getAnnotationV2(urls, ftAnno, false));
+        return result;
+    }
+
+    /**
+     * @return AnnotationPage without annotations, used when annotations are mapped and written one at a time
+     */
+    static AnnotationPageV2 getEmptyAnnotationPageV2(AnnoPage annoPage){
+        AnnotationPageV2 annPage = new AnnotationPageV2(getAnnoPageIdUrl(baseUrls, annoPage));
+        annPage.setResources(new AnnotationV2[0]);
+        return annPage;
+    }
+
+    static AnnotationV2 getAnnotationV2(AnnoPage annoPage, Annotation annotation, boolean includeContext){
+        return getAnnotationV2(getPageUrls(annoPage), annotation, includeContext);
     }
 
-    private static AnnotationV2 getAnnotationV2(AnnoPage annoPage, Annotation annotation, boolean includeContext){
-        String       resourceIdUrl  = getResourceIdUrl(annoPage, annotation);
-        AnnotationV2 ann            = new AnnotationV2(getAnnotationIdUrl(annoPage, annotation));
+    static AnnotationV2 getAnnotationV2(PageUrls urls, Annotation annotation, boolean includeContext){
+        String       resourceIdUrl  = getResourceIdUrl(urls, annotation);
+        AnnotationV2 ann            = new AnnotationV2(getAnnotationIdUrl(urls, annotation));
         if (includeContext){
             ann.setContext(new String[]{MEDIA_TYPE_IIIF_V2, MEDIA_TYPE_EDM_JSONLD});
         }
         ann.setMotivation(StringUtils.isNotBlank(annotation.getMotiv()) ? annotation.getMotiv() : V2_MOTIVATION);
         ann.setDcType(expandDCType(annotation.getDcType()));
-        ann.setOn(getFTTargetArray(annoPage, annotation));
+        ann.setOn(getFTTargetArray(urls, annotation));
         if (StringUtils.isNotBlank(annotation.getLang())){
             AnnotationFullBodyV2 anb = new AnnotationFullBodyV2(resourceIdUrl);
-            anb.setFull(getResourceIdBaseUrl(annoPage));
+            anb.setFull(urls.resourceIdBaseUrl);
             anb.setLanguage(annotation.getLang());
             ann.setResource(anb);
         } else {
@@ -95,22 +170,87 @@ public class EDM2IIIFMapping {
     }
 
     static AnnotationPageV3 getAnnotationPageV3(AnnoPage annoPage){
-        AnnotationPageV3 annPage = new AnnotationPageV3(getAnnoPageIdUrl(annoPage));
-        annPage.setItems(getAnnotationV3Array(annoPage));
+        return getAnnotationPageV3(annoPage, baseUrls);
+    }
+
+    static AnnotationPageV3 getAnnotationPageV3(AnnoPage annoPage, BaseUrls urls){
+        AnnotationPageV3 annPage = new AnnotationPageV3(getAnnoPageIdUrl(urls, annoPage));
+        annPage.setItems(getAnnotationV3Array(annoPage, urls));
         return annPage;
     }
 
-    private static AnnotationV3[] getAnnotationV3Array(AnnoPage annoPage){
-        ArrayList<AnnotationV3> annoArrayList = new ArrayList<>();
-        for (Annotation ftAnno : annoPage.getAns()){
-            annoArrayList.add(getAnnotationV3(annoPage, ftAnno, false));
+    private static AnnotationV3[] getAnnotationV3Array(AnnoPage annoPage, BaseUrls baseUrls){
+        PageUrls       urls   = getPageUrls(baseUrls, annoPage);
+        AnnotationV3[] result = new AnnotationV3[annoPage.getAns().size()];
+        mapAnnotations(annoPage, result, ftAnno -> getAnnotationV3(urls, ftAnno, false));
+        return result;
+    }
+
+    /**
+     * Map all annotations of an AnnoPage into a pre-sized array, in parallel if the page is large enough
+     */
+    private static <T> void mapAnnotations(AnnoPage annoPage, T[] result, Function<Annotation, T> mapper){
+        if (mappingPool == null || result.length < parallelMinAnnotations) {
+            int i = 0;
+            for (Annotation ftAnno : annoPage.getAns()){
+                result[i++] = mapper.apply(ftAnno);
+            }
+        } else {
+            Annotation[] annotations = annoPage.getAns().toArray(new Annotation[0]);
+            mappingPool.invoke(new MappingTask<>(annotations, result, mapper, 0, annotations.length));
+        }
+    }
+
+    /**
+     * Maps a range of annotations, splitting it in two halves until the range is small enough
+     */
+    private static final class MappingTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Annotation[]            annotations;
+        private final transient T[]                     result;
+        private final transient Function<Annotation, T> mapper;
+        private final int                               from;
+        private final int                               to;
+
+        private MappingTask(Annotation[] annotations, T[] result, Function<Annotation, T> mapper, int from, int to) {
+            this.annotations = annotations;
+            this.result = result;
+            this.mapper = mapper;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_CHUNK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    result[i] = mapper.apply(annotations[i]);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MappingTask<>(annotations, result, mapper, from, mid),
+                          new MappingTask<>(annotations, result, mapper, mid, to));
+            }
         }
-        return annoArrayList.toArray(new AnnotationV3[0]);
     }
 
-    private static AnnotationV3 getAnnotationV3(AnnoPage annoPage, Annotation annotation, boolean includeContext){
-        String       body = getResourceIdUrl(annoPage, annotation);
-        AnnotationV3 ann  = new AnnotationV3(getAnnotationIdUrl(annoPage, annotation));
+    /**
+     * @return AnnotationPage without annotations, used when annotations are mapped and written one at a time
+     */
+    static AnnotationPageV3 getEmptyAnnotationPageV3(AnnoPage annoPage){
+        AnnotationPageV3 annPage = new AnnotationPageV3(getAnnoPageIdUrl(baseUrls, annoPage));
+        annPage.setItems(new AnnotationV3[0]);
+        return annPage;
+    }
+
+    static AnnotationV3 getAnnotationV3(AnnoPage annoPage, Annotation annotation, boolean includeContext){
+        return getAnnotationV3(getPageUrls(annoPage), annotation, includeContext);
+    }
+
+    static AnnotationV3 getAnnotationV3(PageUrls urls, Annotation annotation, boolean includeContext){
+        String       body = getResourceIdUrl(urls, annotation);
+        AnnotationV3 ann  = new AnnotationV3(getAnnotationIdUrl(urls, annotation));
         AnnotationBodyV3 anb;
         if (includeContext) {
             ann.setContext(new String[]{MEDIA_TYPE_IIIF_V3, MEDIA_TYPE_EDM_JSONLD});
@@ -120,13 +260,13 @@ public class EDM2IIIFMapping {
         ann.setDcType(expandDCType(annotation.getDcType()));
         if (StringUtils.isNotBlank(annotation.getLang())){
             anb = new AnnotationBodyV3(body, V3_ANNO_BODY_TYPE);
-            anb.setSource(getResourceIdBaseUrl(annoPage));
+            anb.setSource(urls.resourceIdBaseUrl);
             anb.setLanguage(annotation.getLang());
         } else {
             anb = new AnnotationBodyV3(body);
         }
         ann.setBody(anb);
-        ann.setTarget(getFTTargetArray(annoPage, annotation));
+        ann.setTarget(getFTTargetArray(urls, annotation));
         return ann;
     }
 
@@ -142,23 +282,63 @@ public class EDM2IIIFMapping {
         return maybe.map(annotation1 -> getAnnotationV2(annoPage, annotation1, true)).orElse(null);
     }
 
-    private static String[] getFTTargetArray(AnnoPage annoPage, Annotation annotation){
-        ArrayList<String> ftTargetURLList = new ArrayList<>();
+    /**
+     * @return Content Search hit for a matching word annotation
+     */
+    static SearchHitV2 getSearchHitV2(AnnoPage annoPage, PageUrls urls, Annotation annotation){
+        String[] annotations = new String[]{getAnnotationIdUrl(urls, annotation)};
+        String   text        = annoPage.getRes() == null ? null : annoPage.getRes().getValue();
+        String   match       = text == null ? null : SearchTerms.getText(text, annotation);
+        if (match == null) {
+            return new SearchHitV2(annotations, null, null, null);
+        }
+        int from = annotation.getFrom();
+        int to   = annotation.getTo();
+        return new SearchHitV2(annotations, match,
+                               text.substring(Math.max(0, from - SEARCH_HIT_CONTEXT), from),
+                               text.substring(to, Math.min(text.length(), to + SEARCH_HIT_CONTEXT)));
+    }
+
+    static String getSearchIdUrl(String datasetId, String localId, String query){
+        try {
+            return baseUrls.getAnnoPageBaseUrl() + datasetId + "/" + localId + "/search?q="
+                   + URLEncoder.encode(query, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported", e);
+        }
+    }
+
+    private static String[] getFTTargetArray(PageUrls urls, Annotation annotation){
         if (annotation.getTgs() != null) {
+            String[]      ftTargetURLs = new String[annotation.getTgs().size()];
+            StringBuilder s            = new StringBuilder(urls.targetIdPrefix.length() + MAX_XYWH_LENGTH);
+            int i = 0;
             for (Target target : annotation.getTgs()) {
-                ftTargetURLList.add(annoPage.getTgtId() + "#xywh="
-                        + target.getX() + ","
-                        + target.getY() + ","
-                        + target.getW() + ","
-                        + target.getH());
+                s.setLength(0);
+                s.append(urls.targetIdPrefix)
+                 .append(target.getX()).append(',')
+                 .append(target.getY()).append(',')
+                 .append(target.getW()).append(',')
+                 .append(target.getH());
+                ftTargetURLs[i++] = s.toString();
             }
-            return ftTargetURLList.toArray(new String[0]);
+            return ftTargetURLs;
         }
         return null;
     }
 
+    static AnnoPageSummary getAnnoPageSummary(String datasetId, String localId, AnnoPageInfo annoPageInfo){
+        return new AnnoPageSummary(baseUrls.getAnnoPageBaseUrl() + datasetId + "/" + localId
+                                   + baseUrls.getAnnoPageDirectory() + annoPageInfo.getPgId(),
+                                   annoPageInfo.getPgId(),
+                                   annoPageInfo.getModified() == null ? null :
+                                           CacheUtils.zonedDateTimeToString(
+                                                   CacheUtils.dateToZonedUTC(annoPageInfo.getModified())),
+                                   annoPageInfo.getNrAnnotations());
+    }
+
     static FullTextResource getFullTextResource(Resource resource){
-        return new FullTextResource(fts.getResourceBaseUrl()
+        return new FullTextResource(baseUrls.getResourceBaseUrl()
                                     + resource.getDsId() + "/"
                                     + resource.getLcId() + "/"
                                     + resource.getId(),
@@ -166,28 +346,55 @@ public class EDM2IIIFMapping {
                                     resource.getValue());
     }
 
-    private static String getResourceIdUrl(AnnoPage annoPage, Annotation annotation){
-        StringBuilder s = new StringBuilder(getResourceIdBaseUrl(annoPage));
-        if (annotation.getFrom() != null || annotation.getTo() != null) {
-            s.append("#char=");
-            s.append(annotation.getFrom());
-            s.append(",");
-            s.append(annotation.getTo());
+    private static String getResourceIdUrl(PageUrls urls, Annotation annotation){
+        if (annotation.getFrom() == null && annotation.getTo() == null) {
+            return urls.resourceIdBaseUrl;
         }
-        return s.toString();
+        return new StringBuilder(urls.resourceIdBaseUrl.length() + MAX_CHAR_LENGTH)
+                .append(urls.resourceIdBaseUrl)
+                .append("#char=")
+                .append(annotation.getFrom())
+                .append(',')
+                .append(annotation.getTo())
+                .toString();
+    }
+
+    private static String getResourceIdBaseUrl(BaseUrls urls, AnnoPage annoPage){
+        return urls.getResourceBaseUrl() + annoPage.getDsId() + "/" + annoPage.getLcId() + "/"
+               + annoPage.getRes().getId();
+    }
+
+    private static String getAnnoPageIdUrl(BaseUrls urls, AnnoPage annoPage){
+        return urls.getAnnoPageBaseUrl() + annoPage.getDsId() + "/" +
+               annoPage.getLcId() + urls.getAnnoPageDirectory() + annoPage.getPgId();
     }
 
-    private static String getResourceIdBaseUrl(AnnoPage annoPage){
-        return fts.getResourceBaseUrl() + annoPage.getDsId() + "/" + annoPage.getLcId() + "/" + annoPage.getRes().getId();
+    private static String getAnnotationIdUrl(PageUrls urls, Annotation annotation){
+        return urls.annotationIdPrefix + annotation.getAnId();
     }
 
-    private static String getAnnoPageIdUrl(AnnoPage annoPage){
-        return fts.getAnnoPageBaseUrl() + annoPage.getDsId() + "/" +
-               annoPage.getLcId() + fts.getAnnoPageDirectory() + annoPage.getPgId();
+    static PageUrls getPageUrls(AnnoPage annoPage){
+        return getPageUrls(baseUrls, annoPage);
     }
 
-    private static String getAnnotationIdUrl(AnnoPage annoPage, Annotation annotation){
-        return fts.getAnnotationBaseUrl() + annoPage.getDsId() + "/" + annoPage.getLcId() + fts.getAnnotationDirectory() + annotation.getAnId();
+    private static PageUrls getPageUrls(BaseUrls urls, AnnoPage annoPage){
+        return new PageUrls(urls, annoPage);
+    }
+
+    /**
+     * The parts of the annotation, resource and target ids that are the same for all annotations of an AnnoPage
+     */
+    static final class PageUrls {
+        private final String annotationIdPrefix;
+        private final String resourceIdBaseUrl;
+        private final String targetIdPrefix;
+
+        private PageUrls(BaseUrls urls, AnnoPage annoPage) {
+            this.annotationIdPrefix = urls.getAnnotationBaseUrl() + annoPage.getDsId() + "/" + annoPage.getLcId()
+                                      + urls.getAnnotationDirectory();
+            this.resourceIdBaseUrl = annoPage.getRes() == null ? null : getResourceIdBaseUrl(urls, annoPage);
+            this.targetIdPrefix = annoPage.getTgtId() + "#xywh=";
+        }
     }
 
     private static String expandDCType(char dcTypeCode){
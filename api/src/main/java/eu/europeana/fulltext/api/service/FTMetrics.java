@@ -0,0 +1,223 @@
+package eu.europeana.fulltext.api.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer metrics for the stages of the request pipeline. All meters are tagged with the endpoint and the
+ * requested IIIF version, so we can see where the time of a particular type of request goes:
+ * <ul>
+ *     <li>fulltext.request.stage - timer per stage (existence check, database fetch, mapping, serialization, ...)</li>
+ *     <li>fulltext.request.conditional - counter of conditional request outcomes (HTTP status 200, 304 or 412)</li>
+ *     <li>fulltext.response.size - distribution of response body sizes in bytes</li>
+ * </ul>
+ * Stage durations and response sizes are also reported to the {@link SlowRequestRecorder}.
+ * Meters are registered the first time a combination of tags is used and cached per tag combination after that, so
+ * recording a value doesn't go through a meter builder and the registry's lookup on every request.
+ */
+@Component
+public class FTMetrics {
+
+    public static final String ENDPOINT_ANNOPAGE   = "annopage";
+    public static final String ENDPOINT_ANNOPAGES  = "annopages";
+    public static final String ENDPOINT_ANNOTATION = "annotation";
+    public static final String ENDPOINT_RESOURCE   = "resource";
+    public static final String ENDPOINT_SEARCH     = "search";
+
+    public static final String STAGE_EXISTENCE     = "existence";
+    public static final String STAGE_FETCH_INFO    = "fetch_info";
+    public static final String STAGE_FETCH         = "fetch";
+    public static final String STAGE_SELECTION     = "selection";
+    public static final String STAGE_MAPPING       = "mapping";
+    public static final String STAGE_SERIALIZATION = "serialization";
+    public static final String STAGE_ETAG          = "etag";
+
+    /** Version tag for stages that don't depend on the requested IIIF version */
+    public static final String NO_VERSION = "none";
+
+    private static final String TIMER_NAME        = "fulltext.request.stage";
+    private static final String CONDITIONAL_NAME  = "fulltext.request.conditional";
+    private static final String RESPONSE_SIZE     = "fulltext.response.size";
+
+    private final MeterRegistry       meterRegistry;
+    private final SlowRequestRecorder slowRequestRecorder;
+
+    private final ConcurrentMap<String, Timer>               stageTimers   = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter>             conditionals  = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> responseSizes = new ConcurrentHashMap<>();
+
+    public FTMetrics(MeterRegistry meterRegistry, SlowRequestRecorder slowRequestRecorder) {
+        this.meterRegistry = meterRegistry;
+        this.slowRequestRecorder = slowRequestRecorder;
+    }
+
+    /**
+     * @return sample that should be passed to {@link #stop(Timer.Sample, String, String, String)} when the stage
+     * is finished
+     */
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * Record the duration of a stage
+     * @param sample   sample returned by {@link #start()}
+     * @param stage    one of the STAGE constants
+     * @param endpoint one of the ENDPOINT constants
+     * @param version  requested IIIF version (or {@link #NO_VERSION})
+     * @return the duration of the stage in nanoseconds
+     */
+    public long stop(Timer.Sample sample, String stage, String endpoint, String version) {
+        long nanos = sample.stop(stageTimer(stage, endpoint, version));
+        slowRequestRecorder.stage(stage, nanos);
+        return nanos;
+    }
+
+    /**
+     * Record the duration of a stage that finished on another thread than the one that traces the request, e.g. in a
+     * callback of the async driver
+     * @param sample   sample returned by {@link #start()}
+     * @param trace    trace returned by {@link #currentTrace()} when the stage started, may be null
+     * @param stage    one of the STAGE constants
+     * @param endpoint one of the ENDPOINT constants
+     * @param version  requested IIIF version (or {@link #NO_VERSION})
+     * @return the duration of the stage in nanoseconds
+     */
+    public long stop(Timer.Sample sample, SlowRequestRecorder.Trace trace, String stage, String endpoint,
+                     String version) {
+        long nanos = sample.stop(stageTimer(stage, endpoint, version));
+        slowRequestRecorder.stage(trace, stage, nanos);
+        return nanos;
+    }
+
+    /**
+     * Record the duration of a stage that wasn't timed with a single sample (e.g. because it's interleaved with
+     * another stage)
+     * @param stage    one of the STAGE constants
+     * @param endpoint one of the ENDPOINT constants
+     * @param version  requested IIIF version (or {@link #NO_VERSION})
+     * @param nanos    duration of the stage in nanoseconds
+     */
+    public void record(String stage, String endpoint, String version, long nanos) {
+        stageTimer(stage, endpoint, version).record(nanos, TimeUnit.NANOSECONDS);
+        slowRequestRecorder.stage(stage, nanos);
+    }
+
+    /**
+     * @return the slow request trace of the current thread (which keeps it), null if the current request isn't traced
+     */
+    public SlowRequestRecorder.Trace currentTrace() {
+        return slowRequestRecorder.current();
+    }
+
+    private Timer stageTimer(String stage, String endpoint, String version) {
+        String versionTag = versionTag(version);
+        return cached(stageTimers, stage + '/' + endpoint + '/' + versionTag,
+                      () -> Timer.builder(TIMER_NAME)
+                                 .tag("stage", stage)
+                                 .tag("endpoint", endpoint)
+                                 .tag("version", versionTag)
+                                 .publishPercentileHistogram()
+                                 .register(meterRegistry));
+    }
+
+    /**
+     * Record the outcome of a conditional request
+     * @param endpoint one of the ENDPOINT constants
+     * @param version  requested IIIF version
+     * @param status   HTTP status code of the response (200, 304 or 412)
+     */
+    public void conditional(String endpoint, String version, int status) {
+        String versionTag = versionTag(version);
+        cached(conditionals, endpoint + '/' + versionTag + '/' + status,
+               () -> Counter.builder(CONDITIONAL_NAME)
+                            .tag("endpoint", endpoint)
+                            .tag("version", versionTag)
+                            .tag("status", String.valueOf(status))
+                            .register(meterRegistry))
+                .increment();
+    }
+
+    /**
+     * Record the size of a response body
+     * @param endpoint one of the ENDPOINT constants
+     * @param version  requested IIIF version
+     * @param bytes    size of the response body in bytes
+     */
+    public void responseSize(String endpoint, String version, long bytes) {
+        String versionTag = versionTag(version);
+        cached(responseSizes, endpoint + '/' + versionTag,
+               () -> DistributionSummary.builder(RESPONSE_SIZE)
+                                        .baseUnit("bytes")
+                                        .tag("endpoint", endpoint)
+                                        .tag("version", versionTag)
+                                        .register(meterRegistry))
+                .record(bytes);
+        slowRequestRecorder.responseBytes(bytes);
+    }
+
+    /**
+     * @return the meter registered for the key, registering it first if this is the first time the key is used
+     */
+    private static <M> M cached(ConcurrentMap<String, M> meters, String key, Supplier<M> register) {
+        M meter = meters.get(key);
+        if (meter == null) {
+            meter = meters.computeIfAbsent(key, k -> register.get());
+        }
+        return meter;
+    }
+
+    /**
+     * @return the number of bytes needed to encode the provided text in UTF-8, without actually encoding it
+     */
+    public static long utf8Length(CharSequence text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * The version is user input (format parameter), so we only allow a fixed set of tag values
+     */
+    private static String versionTag(String version) {
+        if (version == null) {
+            return NO_VERSION;
+        }
+        switch (version) {
+            case "2":
+            case "3":
+            case "edm":
+            case NO_VERSION:
+                return version;
+            default:
+                return "other";
+        }
+    }
+
+    /**
+     * @return the duration in milliseconds of the provided duration in nanoseconds
+     */
+    public static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
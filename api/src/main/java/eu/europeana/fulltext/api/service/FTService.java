@@ -1,8 +1,7 @@
 package eu.europeana.fulltext.api.service;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.Option;
 import com.jayway.jsonpath.spi.json.JacksonJsonNodeJsonProvider;
@@ -11,23 +10,45 @@ import com.jayway.jsonpath.spi.mapper.JacksonMappingProvider;
 import com.jayway.jsonpath.spi.mapper.MappingProvider;
 import eu.europeana.fulltext.api.config.FTSettings;
 import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.PageTerm;
+import eu.europeana.fulltext.entity.PageTerms;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
 import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.ResourceInfo;
+import eu.europeana.fulltext.api.model.AnnoPageSummary;
+import eu.europeana.fulltext.api.model.AnnotationWrapper;
+import eu.europeana.fulltext.api.model.CharRange;
 import eu.europeana.fulltext.api.model.FullTextResource;
+import eu.europeana.fulltext.api.model.Region;
 import eu.europeana.fulltext.api.model.v2.AnnotationPageV2;
 import eu.europeana.fulltext.api.model.v2.AnnotationV2;
+import eu.europeana.fulltext.api.model.v2.SearchHitV2;
+import eu.europeana.fulltext.api.model.v2.SearchResultV2;
 import eu.europeana.fulltext.api.model.v3.AnnotationPageV3;
 import eu.europeana.fulltext.api.model.v3.AnnotationV3;
 import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.AsyncInfoRepository;
+import eu.europeana.fulltext.repository.impl.PageTermsRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.RenderedAnnoPageRepositoryImpl;
 import eu.europeana.fulltext.repository.impl.ResourceRepositoryImpl;
+import eu.europeana.fulltext.api.service.cache.AnnoPageCache;
+import eu.europeana.fulltext.api.service.cache.AnnoPageExistenceFilter;
+import eu.europeana.fulltext.api.service.cache.LocalPageStore;
+import eu.europeana.fulltext.api.service.cache.PageIndexCache;
 import eu.europeana.fulltext.api.service.exception.*;
+import io.micrometer.core.instrument.Timer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
-import ioinformarics.oss.jackson.module.jsonld.JsonldModule;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *
@@ -46,13 +67,50 @@ public class FTService {
     @Autowired
     AnnoPageRepositoryImpl annoPageRepositoryImpl;
 
+    @Autowired
+    RenderedAnnoPageRepositoryImpl renderedAnnoPageRepositoryImpl;
+
+    @Autowired
+    PageTermsRepositoryImpl pageTermsRepositoryImpl;
+
+    @Autowired
+    AnnoPageExistenceFilter annoPageExistenceFilter;
+
+    @Autowired
+    LocalPageStore localPageStore;
+
+    @Autowired
+    AnnoPageCache annoPageCache;
+
+    @Autowired
+    PageIndexCache pageIndexCache;
+
+    @Autowired
+    QueryLimiter queryLimiter;
+
+    // only available in the "async" query execution mode
+    @Autowired(required = false)
+    AsyncInfoRepository asyncInfoRepository;
+
+    @Autowired
+    FTMetrics metrics;
+
 
     // create a single objectMapper for efficiency purposes (see https://github.com/FasterXML/jackson-docs/wiki/Presentation:-Jackson-Performance)
-    private static ObjectMapper mapper = new ObjectMapper();
+    private static ObjectMapper mapper = AnnoPageRenderer.createJsonMapper();
 
     @Autowired
     private FTSettings ftSettings;
 
+    // salts of id-based eTags per IIIF version ("edm" for resources), built once as they only depend on the app
+    // version. The requested version is user input (format parameter), so other versions share one salt
+    private final Map<String, CacheUtils.ETagSalt> eTagSalts = new HashMap<>();
+    private CacheUtils.ETagSalt                    otherETagSalt;
+
+    // concurrent requests for the same AnnoPage share one database fetch and one rendering
+    private final SingleFlight<String, AnnoPage> annoPageLoads   = new SingleFlight<>();
+    private final SingleFlight<String, String>   annoPageRenders = new SingleFlight<>();
+
     public FTService() {
 
         // configure jsonpath: we use jsonpath in combination with Jackson because that makes it easier to know what
@@ -82,11 +140,22 @@ public class FTService {
                 }
             }
         });
+    }
 
-        // configure Jackson serialization
-        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
-        mapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-        mapper.registerModule(new JsonldModule());
+    @PostConstruct
+    private void initETagSalts() {
+        for (String version : new String[]{"2", "3", "edm"}) {
+            eTagSalts.put(version, new CacheUtils.ETagSalt(ftSettings.getAppVersion(), version));
+        }
+        otherETagSalt = new CacheUtils.ETagSalt(ftSettings.getAppVersion(), "other");
+    }
+
+    /**
+     * @param iiifVersion requested IIIF version [2|3], or "edm" for resources
+     * @return the salt for id-based eTags of that version, which also contains the app version
+     */
+    public CacheUtils.ETagSalt getETagSalt(String iiifVersion) {
+        return eTagSalts.getOrDefault(iiifVersion, otherETagSalt);
     }
 
     protected ObjectMapper getJsonMapper() {
@@ -104,31 +173,423 @@ public class FTService {
 
     public FullTextResource getFullTextResource(String datasetId, String localId, String resId)
             throws ResourceDoesNotExistException {
-        if (doesResourceExist(datasetId, localId, resId)){
-            return generateFullTextResource(
-                    resourceRepositoryImpl.findByDatasetLocalResId(datasetId, localId, resId));
-        } else {
+        return generateFullTextResource(fetchResource(datasetId, localId, resId));
+    }
+
+    /**
+     * Fetch a Resource (so we can check its modified date and content version before generating the output)
+     * @param datasetId
+     * @param localId
+     * @param resId
+     * @return Resource
+     * @throws ResourceDoesNotExistException when the Resource doesn't exist
+     */
+    public Resource fetchResource(String datasetId, String localId, String resId)
+            throws ResourceDoesNotExistException {
+        Timer.Sample sample = metrics.start();
+        Resource resource = queryLimiter.query(() -> resourceRepositoryImpl.findByDatasetLocalResId(datasetId, localId,
+                                                                                                   resId));
+        metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_RESOURCE, FTMetrics.NO_VERSION);
+        if (resource == null) {
             throw new ResourceDoesNotExistException("No Fulltext Resource with resourceId: " + resId
                       + " was found that is associated with datasetId: " + datasetId + " and localId: " + localId );
         }
+        return resource;
+    }
+
+    /**
+     * Fetch only the modified date and content version of a Resource. This is a lot cheaper than fetching the entire
+     * Resource, so we use it to answer conditional requests
+     * @param datasetId
+     * @param localId
+     * @param resId
+     * @return ResourceInfo, or null if the Resource doesn't exist
+     */
+    public ResourceInfo fetchResourceInfo(String datasetId, String localId, String resId) {
+        Timer.Sample sample = metrics.start();
+        ResourceInfo resourceInfo = queryLimiter.query(() -> resourceRepositoryImpl.findInfoByDatasetLocalResId(
+                datasetId, localId, resId));
+        metrics.stop(sample, FTMetrics.STAGE_FETCH_INFO, FTMetrics.ENDPOINT_RESOURCE, FTMetrics.NO_VERSION);
+        return resourceInfo;
+    }
+
+    /**
+     * Same as {@link #fetchResourceInfo(String, String, String)}, but the query runs on the async driver so no thread
+     * waits for it. Only available in the "async" query execution mode
+     * @param datasetId
+     * @param localId
+     * @param resId
+     * @return future that completes with the ResourceInfo, or with null if the Resource doesn't exist
+     */
+    public CompletableFuture<ResourceInfo> fetchResourceInfoAsync(String datasetId, String localId, String resId) {
+        Timer.Sample              sample = metrics.start();
+        SlowRequestRecorder.Trace trace  = metrics.currentTrace();
+        return queryLimiter.queryAsync(() -> asyncRepository().findInfoByDatasetLocalResId(datasetId, localId, resId))
+                           .thenApply(resourceInfo -> {
+                               metrics.stop(sample, trace, FTMetrics.STAGE_FETCH_INFO, FTMetrics.ENDPOINT_RESOURCE,
+                                            FTMetrics.NO_VERSION);
+                               return resourceInfo;
+                           });
     }
 
     // = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
 
+    /**
+     * Fetch an AnnoPage. If the same AnnoPage is already being fetched by another thread, we wait for that fetch to
+     * finish instead of querying the database again. Note that this means the returned AnnoPage may be shared with
+     * other threads, so it shouldn't be modified.
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return AnnoPage
+     * @throws AnnoPageDoesNotExistException when the AnnoPage doesn't exist
+     */
     public AnnoPage fetchAnnoPage(String datasetId, String localId, String pageId)
             throws AnnoPageDoesNotExistException {
+        return annoPageLoads.load(datasetId + '/' + localId + '/' + pageId,
+                                  () -> loadAnnoPage(datasetId, localId, pageId));
+    }
+
+    /**
+     * @return the number of AnnoPage fetches that waited for the same fetch by another request
+     */
+    public long getNrSharedAnnoPageLoads() {
+        return annoPageLoads.getNrShared();
+    }
+
+    /**
+     * Fetch an AnnoPage with only the annotations of the requested granularity. The annotations are filtered by the
+     * database, so this is a lot cheaper than fetching the entire AnnoPage when only lines or blocks are needed.
+     * Note that filtered AnnoPages are not cached
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @param dcTypes dcType codes of the annotations to return (see TextGranularity), if null or empty then all
+     *                annotations are returned
+     * @return AnnoPage
+     * @throws AnnoPageDoesNotExistException when the AnnoPage doesn't exist
+     */
+    public AnnoPage fetchAnnoPage(String datasetId, String localId, String pageId, List<String> dcTypes)
+            throws AnnoPageDoesNotExistException {
+        if (dcTypes == null || dcTypes.isEmpty()) {
+            return fetchAnnoPage(datasetId, localId, pageId);
+        }
+        return annoPageLoads.load(datasetId + '/' + localId + '/' + pageId + '/' + String.join("", dcTypes),
+                                  () -> loadFilteredAnnoPage(datasetId, localId, pageId, dcTypes));
+    }
+
+    /**
+     * Fetch an AnnoPage with only the annotations that intersect a region of the canvas and/or overlap a range of the
+     * page's text, optionally also filtered on granularity. The entire AnnoPage is fetched (or taken from the cache)
+     * and the selected annotations are looked up in the page's spatial and char range indexes, which are kept in
+     * memory for subsequent requests for the same page
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @param region    region of the canvas, null if annotations shouldn't be selected on region
+     * @param charRange range of the page's text, null if annotations shouldn't be selected on text range
+     * @param dcTypes   dcType codes of the annotations to return (see TextGranularity), if null or empty then all
+     *                  selected annotations are returned
+     * @return a copy of the AnnoPage with only the selected annotations
+     * @throws AnnoPageDoesNotExistException when the AnnoPage doesn't exist
+     */
+    public AnnoPage fetchAnnoPageSelection(String datasetId, String localId, String pageId, Region region,
+                                           CharRange charRange, List<String> dcTypes)
+            throws AnnoPageDoesNotExistException {
+        AnnoPage     annoPage = fetchAnnoPage(datasetId, localId, pageId);
+        Timer.Sample sample   = metrics.start();
+        BitSet selected = new BitSet(annoPage.getAns().size());
+        selected.set(0, annoPage.getAns().size());
+        if (region != null) {
+            selected.and(pageIndexCache.getSpatialIndex(annoPage)
+                                       .query(region.getX(), region.getY(), region.getW(), region.getH()));
+        }
+        if (charRange != null) {
+            selected.and(pageIndexCache.getCharRangeIndex(annoPage).query(charRange.getFrom(), charRange.getTo()));
+        }
+        List<Annotation> annotations = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            Annotation annotation = annoPage.getAns().get(i);
+            if (dcTypes == null || dcTypes.isEmpty() || dcTypes.contains(String.valueOf(annotation.getDcType()))) {
+                annotations.add(annotation);
+            }
+        }
+        metrics.stop(sample, FTMetrics.STAGE_SELECTION, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+
+        AnnoPage result = new AnnoPage(annoPage.getDsId(), annoPage.getLcId(), annoPage.getPgId(),
+                                       annoPage.getTgtId(), annoPage.getRes());
+        result.setModified(annoPage.getModified());
+        result.setCv(annoPage.getCv());
+        result.setAns(annotations);
+        return result;
+    }
+
+    private AnnoPage loadFilteredAnnoPage(String datasetId, String localId, String pageId, List<String> dcTypes)
+            throws AnnoPageDoesNotExistException {
+        AnnoPageExistenceFilter.Lookup lookup = annoPageExistenceFilter.lookup(datasetId, localId, pageId);
+        if (lookup == AnnoPageExistenceFilter.Lookup.ABSENT) {
+            throw annoPageDoesNotExist(datasetId, localId, pageId);
+        }
+        Timer.Sample sample = metrics.start();
+        AnnoPage annoPage = queryLimiter.query(() -> annoPageRepositoryImpl.findByDatasetLocalPageId(datasetId, localId,
+                                                                                                     pageId, dcTypes));
+        metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+        if (annoPage == null) {
+            annoPageExistenceFilter.reportNotFound(lookup);
+            throw annoPageDoesNotExist(datasetId, localId, pageId);
+        }
+        return annoPage;
+    }
+
+    private AnnoPage loadAnnoPage(String datasetId, String localId, String pageId)
+            throws AnnoPageDoesNotExistException {
+        if (annoPageCache.isEnabled()) {
+            return fetchAnnoPageCached(datasetId, localId, pageId);
+        }
         if (doesAnnoPageExistByLimitOne(datasetId, localId, pageId)){
-            return annoPageRepositoryImpl.findByDatasetLocalPageId(datasetId, localId, pageId);
+            Timer.Sample sample = metrics.start();
+            AnnoPage annoPage = queryLimiter.query(() -> annoPageRepositoryImpl.findByDatasetLocalPageId(
+                    datasetId, localId, pageId));
+            metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+            return annoPage;
         } else {
-            throw new AnnoPageDoesNotExistException("No AnnoPage with datasetId: " + datasetId + ", localId: "
-                      + localId + " and pageId: " + pageId + " could be found");
+            throw annoPageDoesNotExist(datasetId, localId, pageId);
+        }
+    }
+
+    /**
+     * Fetch an AnnoPage via the AnnoPage cache. Instead of the existence check we fetch the AnnoPage info, which tells
+     * us both if the page exists and if the cached page (if any) is still up to date
+     */
+    private AnnoPage fetchAnnoPageCached(String datasetId, String localId, String pageId)
+            throws AnnoPageDoesNotExistException {
+        AnnoPageInfo annoPageInfo = fetchAnnoPageInfo(datasetId, localId, pageId);
+        if (annoPageInfo == null) {
+            throw annoPageDoesNotExist(datasetId, localId, pageId);
+        }
+        AnnoPage annoPage = annoPageCache.get(annoPageInfo, datasetId, localId);
+        if (annoPage == null) {
+            Timer.Sample sample = metrics.start();
+            annoPage = queryLimiter.query(() -> annoPageRepositoryImpl.findByDatasetLocalPageId(datasetId, localId,
+                                                                                                pageId));
+            metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+            if (annoPage == null) {
+                // deleted in the meantime
+                throw annoPageDoesNotExist(datasetId, localId, pageId);
+            }
+            annoPageCache.put(annoPage);
+        }
+        return annoPage;
+    }
+
+    private static AnnoPageDoesNotExistException annoPageDoesNotExist(String datasetId, String localId,
+                                                                      String pageId) {
+        return new AnnoPageDoesNotExistException("No AnnoPage with datasetId: " + datasetId + ", localId: "
+                                                 + localId + " and pageId: " + pageId + " could be found");
+    }
+
+    /**
+     * Fetch only the modified date and content version of an AnnoPage. This is a lot cheaper than fetching the entire
+     * AnnoPage, so we use it to answer conditional requests
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return AnnoPageInfo, or null if the AnnoPage doesn't exist
+     */
+    public AnnoPageInfo fetchAnnoPageInfo(String datasetId, String localId, String pageId) {
+        AnnoPageExistenceFilter.Lookup lookup = annoPageExistenceFilter.lookup(datasetId, localId, pageId);
+        if (lookup == AnnoPageExistenceFilter.Lookup.ABSENT) {
+            return null;
         }
+        Timer.Sample sample = metrics.start();
+        AnnoPageInfo annoPageInfo = queryLimiter.query(() -> annoPageRepositoryImpl.findInfoByDatasetLocalPageId(
+                datasetId, localId, pageId));
+        metrics.stop(sample, FTMetrics.STAGE_FETCH_INFO, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+        if (annoPageInfo == null) {
+            annoPageExistenceFilter.reportNotFound(lookup);
+        }
+        return annoPageInfo;
+    }
+
+    /**
+     * Same as {@link #fetchAnnoPageInfo(String, String, String)}, but the query runs on the async driver so no thread
+     * waits for it. Only available in the "async" query execution mode
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return future that completes with the AnnoPageInfo, or with null if the AnnoPage doesn't exist
+     */
+    public CompletableFuture<AnnoPageInfo> fetchAnnoPageInfoAsync(String datasetId, String localId, String pageId) {
+        AnnoPageExistenceFilter.Lookup lookup = annoPageExistenceFilter.lookup(datasetId, localId, pageId);
+        if (lookup == AnnoPageExistenceFilter.Lookup.ABSENT) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Timer.Sample              sample = metrics.start();
+        SlowRequestRecorder.Trace trace  = metrics.currentTrace();
+        return queryLimiter.queryAsync(() -> asyncRepository().findInfoByDatasetLocalPageId(datasetId, localId, pageId))
+                           .thenApply(annoPageInfo -> {
+                               metrics.stop(sample, trace, FTMetrics.STAGE_FETCH_INFO, FTMetrics.ENDPOINT_ANNOPAGE,
+                                            FTMetrics.NO_VERSION);
+                               if (annoPageInfo == null) {
+                                   annoPageExistenceFilter.reportNotFound(lookup);
+                               }
+                               return annoPageInfo;
+                           });
+    }
+
+    /**
+     * Fetch the output of an AnnoPage that was pre-rendered by the loader, from the local page store if possible.
+     * Note that the local store only saves fetching the (large) output itself; the caller still fetches the small,
+     * projected AnnoPageInfo from Mongo first, because its content version is the only way to tell if a locally
+     * stored page is still up to date.
+     * @param annoPageInfo info of the AnnoPage, used to check if the pre-rendered output is up to date
+     * @param datasetId
+     * @param localId
+     * @param version IIIF version [2|3]
+     * @return RenderedAnnoPage, or null if there is no (up-to-date) pre-rendered output
+     */
+    public RenderedAnnoPage fetchRenderedAnnoPage(AnnoPageInfo annoPageInfo, String datasetId, String localId,
+                                                  String version) {
+        if (annoPageInfo.getCv() == null) {
+            return null;
+        }
+        RenderedAnnoPage rendered = localPageStore.get(datasetId, localId, annoPageInfo.getPgId(), version);
+        if (rendered != null && annoPageInfo.getCv().equals(rendered.getCv())) {
+            return rendered;
+        }
+        rendered = queryLimiter.query(() -> renderedAnnoPageRepositoryImpl.findByDatasetLocalPageId(datasetId, localId,
+                annoPageInfo.getPgId(), version));
+        if (rendered == null || !annoPageInfo.getCv().equals(rendered.getCv())) {
+            LOG.debug("No up-to-date pre-rendered output for {}/{}/{} version {}", datasetId, localId,
+                      annoPageInfo.getPgId(), version);
+            return null;
+        }
+        localPageStore.put(rendered);
+        return rendered;
+    }
+
+    /**
+     * Fetch multiple AnnoPages of a record. AnnoPages that do not exist are skipped. The AnnoPages are read from the
+     * database while iterating, a few pages at a time, so they can be written as they arrive
+     * @param datasetId
+     * @param localId
+     * @param pageIds
+     * @return iterator over the AnnoPages, in the same order as the provided pageIds. This should be closed when done
+     * @throws AnnoPageDoesNotExistException when none of the requested AnnoPages exist
+     */
+    public AnnoPageBatchIterator fetchAnnoPages(String datasetId, String localId, List<String> pageIds)
+            throws AnnoPageDoesNotExistException {
+        AnnoPageBatchIterator annoPages = new AnnoPageBatchIterator(annoPageRepositoryImpl, queryLimiter, metrics,
+                                                                    datasetId, localId, pageIds);
+        if (!annoPages.hasNext()) {
+            annoPages.close();
+            throw new AnnoPageDoesNotExistException("No AnnoPages with datasetId: " + datasetId + ", localId: "
+                      + localId + " and pageIds: " + pageIds + " could be found");
+        }
+        return annoPages;
+    }
+
+    /**
+     * List all available AnnoPages of a record
+     * @param datasetId
+     * @param localId
+     * @param includeNrAnnotations if true then the number of annotations of each page is included. Note that this
+     *                             is a lot more expensive, as it can't be answered from an index only
+     * @return array of AnnoPageSummary objects, sorted by pageId
+     * @throws AnnoPageDoesNotExistException when the record has no AnnoPages
+     */
+    public AnnoPageSummary[] listAnnoPages(String datasetId, String localId, boolean includeNrAnnotations)
+            throws AnnoPageDoesNotExistException {
+        List<AnnoPageInfo> annoPageInfos = queryLimiter.query(() -> annoPageRepositoryImpl.listByDatasetLocalId(
+                datasetId, localId, includeNrAnnotations));
+        if (annoPageInfos.isEmpty()) {
+            throw new AnnoPageDoesNotExistException("No AnnoPages with datasetId: " + datasetId + " and localId: "
+                      + localId + " could be found");
+        }
+        AnnoPageSummary[] result = new AnnoPageSummary[annoPageInfos.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = EDM2IIIFMapping.getAnnoPageSummary(datasetId, localId, annoPageInfos.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Search the words of all pages of a record, using the search index created by the loader. Every word annotation
+     * that matches one of the query terms is a hit. Only the pages with hits are fetched, to look up the targets and
+     * text of the matching annotations.
+     * @param datasetId
+     * @param localId
+     * @param query one or more words separated by whitespace
+     * @return IIIF Content Search result with at most the configured maximum number of hits, sorted by pageId and
+     * then in page order
+     * @throws IllegalArgumentException when the query doesn't contain any words
+     */
+    public SearchResultV2 search(String datasetId, String localId, String query) {
+        List<String> terms = SearchTerms.queryTerms(query);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("Query '" + query + "' doesn't contain any words to search for");
+        }
+        Timer.Sample sample = metrics.start();
+        List<PageTerms> matchingPages = queryLimiter.query(() -> pageTermsRepositoryImpl.findByTerms(datasetId, localId,
+                                                                                                     terms));
+        metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_SEARCH, FTMetrics.NO_VERSION);
+
+        // the total number of hits is known from the index alone, but we only fetch the pages of the hits we return
+        int maxHits = ftSettings.getSearchMaxHits();
+        int total = 0;
+        Map<String, Set<String>> hitsByPage = new LinkedHashMap<>();
+        for (PageTerms page : matchingPages) {
+            Set<String> annotationIds = new HashSet<>();
+            for (PageTerm term : page.getTms()) {
+                annotationIds.addAll(term.getAns());
+            }
+            if (total < maxHits) {
+                hitsByPage.put(page.getPgId(), annotationIds);
+            }
+            total += annotationIds.size();
+        }
+
+        List<AnnotationV2> resources = new ArrayList<>();
+        List<SearchHitV2>  hits      = new ArrayList<>();
+        if (!hitsByPage.isEmpty()) {
+            try (AnnoPageBatchIterator annoPages = fetchAnnoPages(datasetId, localId,
+                                                                 new ArrayList<>(hitsByPage.keySet()))) {
+                // pages are read from the database while we map them, the iterator records the fetch time itself
+                long mappingNanos = 0;
+                while (annoPages.hasNext()) {
+                    AnnoPage annoPage = annoPages.next();
+                    long     start    = System.nanoTime();
+                    Set<String>              annotationIds = hitsByPage.get(annoPage.getPgId());
+                    EDM2IIIFMapping.PageUrls urls          = EDM2IIIFMapping.getPageUrls(annoPage);
+                    for (Annotation annotation : annoPage.getAns()) {
+                        if (hits.size() < maxHits && annotationIds.contains(annotation.getAnId())) {
+                            resources.add(EDM2IIIFMapping.getAnnotationV2(urls, annotation, false));
+                            hits.add(EDM2IIIFMapping.getSearchHitV2(annoPage, urls, annotation));
+                        }
+                    }
+                    mappingNanos += System.nanoTime() - start;
+                }
+                metrics.record(FTMetrics.STAGE_MAPPING, FTMetrics.ENDPOINT_SEARCH, "2", mappingNanos);
+            } catch (AnnoPageDoesNotExistException e) {
+                LOG.warn("Search index of {}/{} refers to AnnoPages that don't exist", datasetId, localId);
+            }
+        }
+
+        SearchResultV2 result = new SearchResultV2(EDM2IIIFMapping.getSearchIdUrl(datasetId, localId, query));
+        result.setWithin(new SearchResultV2.Within(total));
+        result.setResources(resources.toArray(new AnnotationV2[0]));
+        result.setHits(hits.toArray(new SearchHitV2[0]));
+        return result;
     }
 
     public AnnoPage fetchAPAnnotation(String datasetId, String localId, String annoId)
             throws AnnoPageDoesNotExistException {
         if (doesAnnotationExist(datasetId, localId, annoId)){
-            return annoPageRepositoryImpl.findByDatasetLocalAnnoId(datasetId, localId, annoId);
+            Timer.Sample sample = metrics.start();
+            AnnoPage annoPage = queryLimiter.query(() -> annoPageRepositoryImpl.findByDatasetLocalAnnoId(
+                    datasetId, localId, annoId));
+            metrics.stop(sample, FTMetrics.STAGE_FETCH, FTMetrics.ENDPOINT_ANNOTATION, FTMetrics.NO_VERSION);
+            return annoPage;
         } else {
             throw new AnnoPageDoesNotExistException("No AnnoPage with datasetId: " + datasetId + " and localId: "
                        + localId + " could be found that contains an Annotation with annotationId: " + annoId);
@@ -139,24 +600,58 @@ public class FTService {
     // = = [ check Document existence ]= = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
 
     /**
-     * Check if a particular annotation page with the provided ids exists or not
+     * Check if a particular annotation page with the provided ids exists or not. If the existence filter is enabled,
+     * pages that certainly don't exist are filtered out without querying the database
      * @param datasetId
      * @param localId
      * @param pageId
      * @return true if it exists, otherwise false
      */
     public boolean doesAnnoPageExistByLimitOne(String datasetId, String localId, String pageId){
-        return annoPageRepositoryImpl.existsByLimitOne(datasetId, localId, pageId);
+        AnnoPageExistenceFilter.Lookup lookup = annoPageExistenceFilter.lookup(datasetId, localId, pageId);
+        if (lookup == AnnoPageExistenceFilter.Lookup.ABSENT) {
+            return false;
+        }
+        Timer.Sample sample = metrics.start();
+        boolean exists = queryLimiter.query(() -> annoPageRepositoryImpl.existsByLimitOne(datasetId, localId, pageId));
+        metrics.stop(sample, FTMetrics.STAGE_EXISTENCE, FTMetrics.ENDPOINT_ANNOPAGE, FTMetrics.NO_VERSION);
+        if (!exists) {
+            annoPageExistenceFilter.reportNotFound(lookup);
+        }
+        return exists;
     }
 
-    @Deprecated // keeping this temporarily for testing speed (EA-1239)
-    public boolean doesAnnoPageExistsByFindOne(String datasetId, String localId, String pageId){
-        return annoPageRepositoryImpl.existsByFindOne(datasetId, localId, pageId);
+    /**
+     * Same as {@link #doesAnnoPageExistByLimitOne(String, String, String)}, but the query runs on the async driver so
+     * no thread waits for it. Only available in the "async" query execution mode
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return future that completes with true if the AnnoPage exists, otherwise with false
+     */
+    public CompletableFuture<Boolean> doesAnnoPageExistAsync(String datasetId, String localId, String pageId) {
+        AnnoPageExistenceFilter.Lookup lookup = annoPageExistenceFilter.lookup(datasetId, localId, pageId);
+        if (lookup == AnnoPageExistenceFilter.Lookup.ABSENT) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Timer.Sample              sample = metrics.start();
+        SlowRequestRecorder.Trace trace  = metrics.currentTrace();
+        return queryLimiter.queryAsync(() -> asyncRepository().existsByLimitOne(datasetId, localId, pageId))
+                           .thenApply(exists -> {
+                               metrics.stop(sample, trace, FTMetrics.STAGE_EXISTENCE, FTMetrics.ENDPOINT_ANNOPAGE,
+                                            FTMetrics.NO_VERSION);
+                               if (!exists) {
+                                   annoPageExistenceFilter.reportNotFound(lookup);
+                               }
+                               return exists;
+                           });
     }
 
-    @Deprecated // keeping this temporarily for testing speed (EA-1239)
-    public boolean doesAnnoPageExistByCount(String datasetId, String localId, String pageId){
-        return annoPageRepositoryImpl.existsByCount(datasetId, localId, pageId);
+    private AsyncInfoRepository asyncRepository() {
+        if (asyncInfoRepository == null) {
+            throw new IllegalStateException("The async driver is only used in the async query execution mode");
+        }
+        return asyncInfoRepository;
     }
 
     /**
@@ -167,64 +662,121 @@ public class FTService {
      * @return true if it exists, otherwise false
      */
     private boolean doesAnnotationExist(String datasetId, String localId, String annoId){
-        return annoPageRepositoryImpl.existsWithAnnoId(datasetId, localId, annoId);
+        Timer.Sample sample = metrics.start();
+        boolean exists = queryLimiter.query(() -> annoPageRepositoryImpl.existsWithAnnoId(datasetId, localId, annoId));
+        metrics.stop(sample, FTMetrics.STAGE_EXISTENCE, FTMetrics.ENDPOINT_ANNOTATION, FTMetrics.NO_VERSION);
+        return exists;
     }
 
+
+    // = = [ generate JSON objects ] = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+
     /**
-     * Check if a particular resource with the provided ids exists or not
-     * @param datasetId
-     * @param localId
-     * @param resId
-     * @return true if it exists, otherwise false
+     * Generate and serialize an AnnotationPage with all its annotations
+     * @see #renderAnnoPage(AnnoPage, String, boolean, String)
      */
-    private boolean doesResourceExist(String datasetId, String localId, String resId){
-        return resourceRepositoryImpl.existsByLimitOne(datasetId, localId, resId);
+    public String renderAnnoPage(AnnoPage annoPage, String version, boolean includeContext)
+            throws SerializationException {
+        return renderAnnoPage(annoPage, version, includeContext, null);
     }
 
+    /**
+     * Generate and serialize an AnnotationPage. Concurrent requests for the same page (with the same content version
+     * or modified date), IIIF version, format and filter share one rendering.
+     * @param annoPage       AnnoPage to render
+     * @param version        requested IIIF version [2|3]
+     * @param includeContext if false then the @context is removed from the output
+     * @param filter         description of the filter (granularity, region) with which the annotations of the AnnoPage
+     *                       were selected, null if the AnnoPage contains all its annotations
+     * @return serialized AnnotationPage
+     * @throws SerializationException when there is a problem serializing
+     */
+    public String renderAnnoPage(AnnoPage annoPage, String version, boolean includeContext, String filter)
+            throws SerializationException {
+        String key = annoPage.getDsId() + '/' + annoPage.getLcId() + '/' + annoPage.getPgId() + '/'
+                     + (annoPage.getCv() != null ? annoPage.getCv() : String.valueOf(annoPage.getModified()))
+                     + '/' + version + '/' + includeContext
+                     + (filter == null ? "" : '/' + filter);
+        return annoPageRenders.load(key, () -> {
+            AnnotationWrapper annotationPage = generateAnnoPage(annoPage, version, includeContext,
+                                                                FTMetrics.ENDPOINT_ANNOPAGE);
+            Timer.Sample sample = metrics.start();
+            String result = serializeResource(annotationPage);
+            metrics.stop(sample, FTMetrics.STAGE_SERIALIZATION, FTMetrics.ENDPOINT_ANNOPAGE, version);
+            return result;
+        });
+    }
 
-    // = = [ generate JSON objects ] = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = = =
+    /**
+     * Create an AnnotationPage that maps and writes its annotations one at a time when it's serialized. This uses a
+     * lot less memory than {@link #renderAnnoPage(AnnoPage, String, boolean)} for pages with many annotations.
+     * The mapping and serialization time are recorded when it's written, on the writing thread.
+     * @param annoPage       AnnoPage to write
+     * @param version        requested IIIF version [2|3]
+     * @param includeContext if false then the @context is left out
+     * @return AnnotationPage that can be serialized by any Jackson ObjectMapper
+     */
+    public StreamingAnnotationPage streamAnnoPage(AnnoPage annoPage, String version, boolean includeContext) {
+        return new StreamingAnnotationPage(mapper, annoPage, version, includeContext,
+                (mappingNanos, serializationNanos) -> {
+                    metrics.record(FTMetrics.STAGE_MAPPING, FTMetrics.ENDPOINT_ANNOPAGE, version, mappingNanos);
+                    metrics.record(FTMetrics.STAGE_SERIALIZATION, FTMetrics.ENDPOINT_ANNOPAGE, version,
+                                   serializationNanos);
+                });
+    }
+
+    /**
+     * Write an AnnotationPage while its annotations are mapped (see {@link #streamAnnoPage(AnnoPage, String,
+     * boolean)}), pretty-printed in the same way as {@link #renderAnnoPage(AnnoPage, String, boolean)}
+     * @param out            stream to write to, it's flushed but not closed
+     * @param annoPage       AnnoPage to write
+     * @param version        requested IIIF version [2|3]
+     * @param includeContext if false then the @context is left out
+     * @throws IOException when there is a problem writing the AnnotationPage
+     */
+    public void writeAnnoPage(OutputStream out, AnnoPage annoPage, String version, boolean includeContext)
+            throws IOException {
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.useDefaultPrettyPrinter();
+        mapper.writeValue(generator, streamAnnoPage(annoPage, version, includeContext));
+        generator.flush();
+    }
 
     public AnnotationPageV3 generateAnnoPageV3(AnnoPage annoPage){
-        long start = System.currentTimeMillis();
-        AnnotationPageV3 result = EDM2IIIFMapping.getAnnotationPageV3(annoPage);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Generated in {} ms ", System.currentTimeMillis() - start);
-        }
-        return result;
+        return (AnnotationPageV3) mapAnnoPage(annoPage, "3", FTMetrics.ENDPOINT_ANNOPAGE);
     }
 
     public AnnotationPageV2 generateAnnoPageV2(AnnoPage annoPage){
-        long start = System.currentTimeMillis();
-        AnnotationPageV2 result = EDM2IIIFMapping.getAnnotationPageV2(annoPage);
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Generated in {} ms ", System.currentTimeMillis() - start);
-        }
-        return result;
+        return (AnnotationPageV2) mapAnnoPage(annoPage, "2", FTMetrics.ENDPOINT_ANNOPAGE);
     }
 
     public AnnotationV3 generateAnnotationV3(AnnoPage annoPage, String annoId){
-        long start = System.currentTimeMillis();
+        Timer.Sample sample = metrics.start();
         AnnotationV3 result = EDM2IIIFMapping.getSingleAnnotationV3(annoPage, annoId);
+        long duration = metrics.stop(sample, FTMetrics.STAGE_MAPPING, FTMetrics.ENDPOINT_ANNOTATION, "3");
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Generated in {} ms ", System.currentTimeMillis() - start);
+            LOG.debug("Generated in {} ms ", FTMetrics.toMillis(duration));
         }
         return result;
     }
 
     public AnnotationV2 generateAnnotationV2(AnnoPage annoPage, String annoId){
-        long start = System.currentTimeMillis();
+        Timer.Sample sample = metrics.start();
         AnnotationV2 result = EDM2IIIFMapping.getSingleAnnotationV2(annoPage, annoId);
+        long duration = metrics.stop(sample, FTMetrics.STAGE_MAPPING, FTMetrics.ENDPOINT_ANNOTATION, "2");
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Generated in {} ms ", System.currentTimeMillis() - start);
+            LOG.debug("Generated in {} ms ", FTMetrics.toMillis(duration));
         }
         return result;
     }
 
-    private FullTextResource generateFullTextResource(Resource resource){
-        long start = System.currentTimeMillis();
+    public FullTextResource generateFullTextResource(Resource resource){
+        Timer.Sample sample = metrics.start();
         FullTextResource result = EDM2IIIFMapping.getFullTextResource(resource);
+        long duration = metrics.stop(sample, FTMetrics.STAGE_MAPPING, FTMetrics.ENDPOINT_RESOURCE,
+                                     FTMetrics.NO_VERSION);
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Generated in {} ms ", System.currentTimeMillis() - start);
+            LOG.debug("Generated in {} ms ", FTMetrics.toMillis(duration));
         }
         return result;
     }
@@ -244,4 +796,66 @@ public class FTService {
         }
     }
 
+    /**
+     * Generate and write multiple AnnoPages to the provided output stream, one page at a time so we never have to
+     * keep all generated pages in memory. The output is either a JSON array or newline-delimited JSON (one page per
+     * line)
+     * @param out            stream to write to
+     * @param annoPages      AnnoPages to write, these can be read from the database while they are written
+     * @param version        requested IIIF version [2|3]
+     * @param includeContext if false then the @context is removed from each page
+     * @param ndjson         if true we output newline-delimited JSON, otherwise a JSON array
+     * @throws IOException when there is a problem serializing or writing data
+     */
+    public void writeAnnoPages(OutputStream out, Iterator<AnnoPage> annoPages, String version,
+                               boolean includeContext, boolean ndjson) throws IOException {
+        if (ndjson) {
+            while (annoPages.hasNext()) {
+                out.write(mapper.writeValueAsBytes(generateAnnoPage(annoPages.next(), version, includeContext,
+                                                                FTMetrics.ENDPOINT_ANNOPAGES)));
+                out.write('\n');
+                out.flush();
+            }
+        } else {
+            JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            while (annoPages.hasNext()) {
+                mapper.writeValue(generator, generateAnnoPage(annoPages.next(), version, includeContext,
+                                                             FTMetrics.ENDPOINT_ANNOPAGES));
+                generator.flush();
+            }
+            generator.writeEndArray();
+            generator.flush();
+        }
+    }
+
+    private AnnotationWrapper generateAnnoPage(AnnoPage annoPage, String version, boolean includeContext,
+                                               String endpoint) {
+        AnnotationWrapper result = mapAnnoPage(annoPage, version, endpoint);
+        if (!includeContext) {
+            result.setContext(null);
+        }
+        return result;
+    }
+
+    /**
+     * Map an AnnoPage to a IIIF AnnotationPage of the requested version, recording the mapping time for the provided
+     * endpoint
+     */
+    private AnnotationWrapper mapAnnoPage(AnnoPage annoPage, String version, String endpoint) {
+        Timer.Sample sample = metrics.start();
+        AnnotationWrapper result;
+        if ("3".equalsIgnoreCase(version)) {
+            result = EDM2IIIFMapping.getAnnotationPageV3(annoPage);
+        } else {
+            result = EDM2IIIFMapping.getAnnotationPageV2(annoPage);
+        }
+        long duration = metrics.stop(sample, FTMetrics.STAGE_MAPPING, endpoint, version);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Generated in {} ms ", FTMetrics.toMillis(duration));
+        }
+        return result;
+    }
+
 }
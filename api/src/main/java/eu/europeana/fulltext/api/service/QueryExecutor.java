@@ -0,0 +1,139 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.exception.ServiceBusyException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the (blocking) database work of a request.
+ * In "blocking" mode (the default) tasks are run directly on the calling servlet thread and their result is returned
+ * as-is, so the request is handled synchronously. In "executor" mode tasks are run on a dedicated, bounded thread
+ * pool and a CompletableFuture is returned, so the controller can hand the request over to Spring's async request
+ * processing and free the servlet thread. When the pool and its queue are full, requests are rejected straight away
+ * instead of piling up.
+ * Note that executor mode does not make the database I/O itself non-blocking: the repositories still use the blocking
+ * (legacy) driver API through Morphia, so every query in progress occupies a pool thread. It only moves that waiting
+ * from the servlet threads to a pool of a size that we control.
+ * In "async" mode the controller first does the small lookups of the hot path (existence checks, and the info needed to
+ * answer conditional requests) on the async driver, see FTService's async methods. Only the work that needs the
+ * blocking driver after that is submitted to this pool.
+ * The number of queries in progress is limited separately, per query, by the QueryLimiter.
+ */
+@Component
+public class QueryExecutor {
+
+    private static final Logger LOG = LogManager.getLogger(QueryExecutor.class);
+
+    /**
+     * A unit of work that may query the database
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    public interface QueryTask<T> {
+        T call() throws Exception;
+    }
+
+    // null if tasks should run on the calling thread
+    private final ExecutorService executor;
+
+    @Autowired
+    public QueryExecutor(FTSettings ftSettings) {
+        if (ftSettings.isQueryExecutorMode() || ftSettings.isQueryAsyncMode()) {
+            int nrThreads = Math.max(1, ftSettings.getQueryThreads());
+            int queueSize = Math.max(1, ftSettings.getQueryQueueSize());
+            LOG.info("Running database queries on a pool of {} threads (queue size {})", nrThreads, queueSize);
+            this.executor = new ThreadPoolExecutor(nrThreads, nrThreads, 0L, TimeUnit.MILLISECONDS,
+                                                   new ArrayBlockingQueue<>(queueSize), new QueryThreadFactory());
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Run the task of a request handler, on the calling thread in blocking mode or on the query thread pool in executor
+     * mode. Request handlers can return the result directly, Spring handles it either way.
+     * @param task
+     * @return the result of the task in blocking mode, or a CompletableFuture of that result in executor mode
+     * @throws Exception in blocking mode, the exception thrown by the task
+     */
+    public Object execute(QueryTask<?> task) throws Exception {
+        if (executor == null) {
+            return task.call();
+        }
+        return submit(task);
+    }
+
+    /**
+     * Run a task on the query thread pool (or on the calling thread if there is no pool)
+     * @param task
+     * @param <T> result type
+     * @return CompletableFuture that completes with the result of the task, or with the exception it threw. If the
+     * task couldn't be started because the service is too busy, it completes with a ServiceBusyException
+     */
+    public <T> CompletableFuture<T> submit(QueryTask<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (executor == null) {
+            run(task, result);
+        } else {
+            try {
+                executor.execute(() -> run(task, result));
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(new ServiceBusyException("Too many requests waiting to be processed"));
+            }
+        }
+        return result;
+    }
+
+    private <T> void run(QueryTask<T> task, CompletableFuture<T> result) {
+        try {
+            result.complete(task.call());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private static class QueryThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNr = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ft-query-" + threadNr.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
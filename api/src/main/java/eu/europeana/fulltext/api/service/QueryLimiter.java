@@ -0,0 +1,98 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.exception.ServiceBusyException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of database queries in flight. Every repository call is run through query() (or queryAsync() for
+ * the async driver), which holds a permit only while that one query runs, so mapping, rendering and writing the
+ * response don't count towards the limit. When no permit becomes available within the configured wait time the query
+ * is rejected with a ServiceBusyException (503) instead of piling up on the database.
+ * Permits are not reentrant: a query must not start another query.
+ */
+@Component
+public class QueryLimiter {
+
+    private static final Logger LOG = LogManager.getLogger(QueryLimiter.class);
+
+    // null if the number of queries in flight is not limited
+    private final Semaphore permits;
+    private final long      waitMs;
+
+    @Autowired
+    public QueryLimiter(FTSettings ftSettings) {
+        int maxInflight = ftSettings.getMaxInflightQueries();
+        if (maxInflight > 0) {
+            LOG.info("Limiting database queries in flight to {}", maxInflight);
+            this.permits = new Semaphore(maxInflight, true);
+        } else {
+            this.permits = null;
+        }
+        this.waitMs = Math.max(0L, ftSettings.getMaxInflightWaitMs());
+    }
+
+    /**
+     * Run a database query, waiting for a permit if the maximum number of queries in flight is reached
+     * @param query
+     * @param <T> result type
+     * @return the result of the query
+     * @throws ServiceBusyException if no permit became available in time
+     */
+    public <T> T query(Supplier<T> query) {
+        if (permits == null) {
+            return query.get();
+        }
+        acquire();
+        try {
+            return query.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Start an asynchronous database query, holding a permit until it completes. As the caller mustn't wait, the query
+     * is rejected straight away (not after the configured wait time) if the maximum number of queries in flight is
+     * reached
+     * @param query starts the query and returns a future of its result
+     * @param <T> result type
+     * @return the future of the query, or a future that completes with a ServiceBusyException if no permit was
+     * available
+     */
+    public <T> CompletableFuture<T> queryAsync(Supplier<CompletableFuture<T>> query) {
+        if (permits == null) {
+            return query.get();
+        }
+        if (!permits.tryAcquire()) {
+            CompletableFuture<T> busy = new CompletableFuture<>();
+            busy.completeExceptionally(new ServiceBusyException("Too many database queries in progress"));
+            return busy;
+        }
+        try {
+            return query.get().whenComplete((result, e) -> permits.release());
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquire() {
+        try {
+            if (!permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                throw new ServiceBusyException("Too many database queries in progress");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceBusyException("Interrupted while waiting to start a database query");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.PageTerm;
+import eu.europeana.fulltext.entity.PageTerms;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the search index of AnnoPages and the search terms of queries. This is used by the loader to index
+ * AnnoPages at load time and by the API to search them, so both normalise words in exactly the same way: words are
+ * lowercased, accents are removed and everything that is not a letter or digit is dropped.
+ */
+public final class SearchTerms {
+
+    private static final Pattern NON_WORD_CHARS = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Pattern ACCENTS        = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE     = Pattern.compile("\\s+");
+
+    private static final char WORD = 'W';
+
+    private SearchTerms() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * Normalise a word for indexing or searching
+     * @param word
+     * @return normalised word, an empty String if the word has no letters or digits
+     */
+    public static String normalize(String word) {
+        String decomposed = Normalizer.normalize(word, Normalizer.Form.NFD);
+        String stripped   = NON_WORD_CHARS.matcher(ACCENTS.matcher(decomposed).replaceAll("")).replaceAll("");
+        return stripped.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Split a query into normalised search terms
+     * @param query one or more words separated by whitespace
+     * @return list of distinct search terms, in query order (empty if the query has no words)
+     */
+    public static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : WHITESPACE.split(query.trim())) {
+            String term = normalize(word);
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    /**
+     * Create the search index of an AnnoPage from the text of its word annotations
+     * @param annoPage AnnoPage (with content version set) including its Resource
+     * @return PageTerms, without terms if the AnnoPage has no Resource text or word annotations
+     */
+    public static PageTerms index(AnnoPage annoPage) {
+        Map<String, List<String>> annotationsByTerm = new TreeMap<>();
+        String text = annoPage.getRes() == null ? null : annoPage.getRes().getValue();
+        if (text != null && annoPage.getAns() != null) {
+            for (Annotation annotation : annoPage.getAns()) {
+                String word = getText(text, annotation);
+                if (word != null && Character.toUpperCase(annotation.getDcType()) == WORD) {
+                    String term = normalize(word);
+                    if (!term.isEmpty()) {
+                        annotationsByTerm.computeIfAbsent(term, t -> new ArrayList<>()).add(annotation.getAnId());
+                    }
+                }
+            }
+        }
+        List<PageTerm> terms = new ArrayList<>(annotationsByTerm.size());
+        for (Map.Entry<String, List<String>> entry : annotationsByTerm.entrySet()) {
+            terms.add(new PageTerm(entry.getKey(), entry.getValue()));
+        }
+        return new PageTerms(annoPage.getDsId(), annoPage.getLcId(), annoPage.getPgId(), annoPage.getCv(), terms);
+    }
+
+    /**
+     * @return the part of the text that an annotation refers to, or null if the annotation has no (valid) offsets
+     */
+    public static String getText(String text, Annotation annotation) {
+        Integer from = annotation.getFrom();
+        Integer to   = annotation.getTo();
+        if (from == null || to == null || from < 0 || to > text.length() || from > to) {
+            return null;
+        }
+        return text.substring(from, to);
+    }
+}
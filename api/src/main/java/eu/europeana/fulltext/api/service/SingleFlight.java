@@ -0,0 +1,78 @@
+package eu.europeana.fulltext.api.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collapses concurrent loads of the same key into one. The first caller for a key does the actual loading, callers
+ * that arrive while that load is in progress wait for it and get the same result (or exception). Nothing is cached:
+ * as soon as a load is finished the next caller for that key starts a new load.
+ * @param <K> key type
+ * @param <V> value type, values are shared between callers so they should not be modified
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads a value, possibly throwing a checked exception
+     * @param <V> value type
+     * @param <E> exception type
+     */
+    @FunctionalInterface
+    public interface Loader<V, E extends Exception> {
+        V load() throws E;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder                              shared   = new LongAdder();
+
+    /**
+     * Load the value for a key, or wait for the load that is already in progress for that key
+     * @param key    key of the value
+     * @param loader loads the value if no load for this key is in progress
+     * @param <E>    type of checked exception thrown by the loader
+     * @return the loaded value
+     * @throws E when the loader threw an exception (also for callers that waited for the load)
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Exception> V load(K key, Loader<V, E> loader) throws E {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing == null) {
+            try {
+                V value = loader.load();
+                future.complete(value);
+                return value;
+            } catch (Exception | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }
+
+        shared.increment();
+        try {
+            return existing.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            // the loader can only throw E or unchecked exceptions
+            throw (E) cause;
+        }
+    }
+
+    /**
+     * @return the number of loads that were shared with a load that was already in progress
+     */
+    public long getNrShared() {
+        return shared.sum();
+    }
+}
@@ -0,0 +1,206 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.model.SlowRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the details of the last slow requests (requests that took longer than a configurable threshold) in a ring
+ * buffer, so we can find out which pages cause high tail latencies without having to enable debug logging.
+ * A request is traced from {@link #start(String, String, String, String, String)} until {@link #finish()}, which
+ * should both be called on the thread that handles the request. In between, the time spent per stage is reported by
+ * {@link FTMetrics}. Note that when a load is shared with another request (see {@link SingleFlight}), the time spent
+ * waiting for it is not attributed to any stage.
+ * A response that is written after the request handler returns (e.g. a very large AnnotationPage) can take
+ * over the trace with {@link #suspend()} and continue it on the writing thread with {@link #resume(Trace)}. Requests
+ * that are handled asynchronously hand over their trace in the same way, a stage that completes in a callback of the
+ * async driver is added with {@link #stage(Trace, String, long)}.
+ */
+@Component
+public class SlowRequestRecorder {
+
+    private static final Logger LOG = LogManager.getLogger(SlowRequestRecorder.class);
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final long    thresholdNanos;
+
+    private final SlowRequest[] buffer;
+    private int                 next;
+
+    /**
+     * Trace of a request, only used as a handle to continue a suspended trace
+     */
+    public static final class Trace {
+        private final String endpoint;
+        private final String datasetId;
+        private final String localId;
+        private final String id;
+        private final String version;
+        private final long   start = System.nanoTime();
+        private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+        private Integer nrAnnotations;
+        private Long    responseBytes;
+
+        private Trace(String endpoint, String datasetId, String localId, String id, String version) {
+            this.endpoint = endpoint;
+            this.datasetId = datasetId;
+            this.localId = localId;
+            this.id = id;
+            this.version = version;
+        }
+    }
+
+    @Autowired
+    public SlowRequestRecorder(FTSettings ftSettings) {
+        this.enabled = ftSettings.isSlowRequestsEnabled() && ftSettings.getSlowRequestsBufferSize() > 0;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(ftSettings.getSlowRequestsThresholdMs());
+        this.buffer = new SlowRequest[enabled ? ftSettings.getSlowRequestsBufferSize() : 0];
+        if (enabled) {
+            LOG.info("Recording requests that take longer than {} ms", ftSettings.getSlowRequestsThresholdMs());
+        }
+    }
+
+    /**
+     * Start tracing a request on the current thread
+     * @param endpoint  one of the FTMetrics ENDPOINT constants
+     * @param datasetId
+     * @param localId
+     * @param id        pageId, annotationId or resourceId
+     * @param version   requested IIIF version
+     */
+    public void start(String endpoint, String datasetId, String localId, String id, String version) {
+        if (enabled) {
+            CURRENT.set(new Trace(endpoint, datasetId, localId, id, version));
+        }
+    }
+
+    /**
+     * Stop tracing the request on the current thread without recording it yet, so it can be continued later with
+     * {@link #resume(Trace)}
+     * @return the trace of the current thread, or null if no request is traced
+     */
+    public Trace suspend() {
+        Trace trace = CURRENT.get();
+        CURRENT.remove();
+        return trace;
+    }
+
+    /**
+     * Continue tracing a suspended request on the current thread, {@link #finish()} should be called when it's done
+     * @param trace trace returned by {@link #suspend()}, if null nothing is traced
+     */
+    public void resume(Trace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    /**
+     * @return the trace of the current thread (which keeps tracing it), or null if no request is traced
+     */
+    public Trace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Add the duration of a stage to the request traced on the current thread (if any)
+     * @param stage one of the FTMetrics STAGE constants
+     * @param nanos duration of the stage
+     */
+    public void stage(String stage, long nanos) {
+        stage(CURRENT.get(), stage, nanos);
+    }
+
+    /**
+     * Add the duration of a stage to a trace, from a thread that doesn't trace the request itself. The thread that
+     * does trace it should not add stages in the meantime
+     * @param trace trace returned by {@link #current()}, if null nothing is traced
+     * @param stage one of the FTMetrics STAGE constants
+     * @param nanos duration of the stage
+     */
+    public void stage(Trace trace, String stage, long nanos) {
+        if (trace != null) {
+            trace.stageNanos.merge(stage, nanos, Long::sum);
+        }
+    }
+
+    /**
+     * Set the number of annotations of the AnnoPage that is used for the request traced on the current thread
+     * @param nrAnnotations
+     */
+    public void annotations(int nrAnnotations) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.nrAnnotations = nrAnnotations;
+        }
+    }
+
+    /**
+     * Set the size of the response body of the request traced on the current thread
+     * @param bytes
+     */
+    public void responseBytes(long bytes) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            trace.responseBytes = bytes;
+        }
+    }
+
+    /**
+     * Stop tracing the request on the current thread and record it if it took longer than the threshold
+     */
+    public void finish() {
+        Trace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+        long duration = System.nanoTime() - trace.start;
+        if (duration >= thresholdNanos) {
+            Map<String, Double> stagesMs = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> stage : trace.stageNanos.entrySet()) {
+                stagesMs.put(stage.getKey(), toMs(stage.getValue()));
+            }
+            add(new SlowRequest(Instant.now().toString(), trace.endpoint, trace.datasetId, trace.localId, trace.id,
+                                trace.version, toMs(duration), trace.nrAnnotations, trace.responseBytes, stagesMs));
+        }
+    }
+
+    private synchronized void add(SlowRequest slowRequest) {
+        buffer[next] = slowRequest;
+        next = (next + 1) % buffer.length;
+    }
+
+    /**
+     * @return the recorded slow requests, most recent first
+     */
+    public synchronized List<SlowRequest> getSlowRequests() {
+        List<SlowRequest> result = new ArrayList<>(buffer.length);
+        for (int i = 1; i <= buffer.length; i++) {
+            SlowRequest slowRequest = buffer[(next - i + buffer.length) % buffer.length];
+            if (slowRequest == null) {
+                break;
+            }
+            result.add(slowRequest);
+        }
+        return result;
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / 1_000_000d;
+    }
+}
@@ -0,0 +1,190 @@
+package eu.europeana.fulltext.api.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.Target;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Uniform grid over the targets (x,y,w,h) of the annotations of one AnnoPage, so the annotations that intersect a
+ * region can be found without checking all annotations of the page. Every grid cell lists the (positions of the)
+ * annotations with a target that overlaps the cell; these candidates are then checked against the exact targets.
+ * Annotations without targets apply to the entire canvas, so they intersect every region.
+ * The index is immutable and refers to annotations by their position in the AnnoPage's list of annotations.
+ */
+public final class SpatialIndex {
+
+    // aim for this number of annotations per cell on average
+    private static final int ANNOTATIONS_PER_CELL = 8;
+    private static final int MAX_CELLS_PER_AXIS   = 256;
+
+    private final int nrAnnotations;
+
+    // targets of annotation i are boxes[4 * targetStart[i]] until boxes[4 * targetStart[i + 1]], as x1,y1,x2,y2
+    private final int[] targetStart;
+    private final int[] boxes;
+
+    private final int cols;
+    private final int rows;
+    private final int cellWidth;
+    private final int cellHeight;
+
+    // annotations in cell c are cellEntries[cellStart[c]] until cellEntries[cellStart[c + 1]]
+    private final int[] cellStart;
+    private final int[] cellEntries;
+
+    private final BitSet withoutTargets;
+
+    private SpatialIndex(List<Annotation> annotations) {
+        this.nrAnnotations = annotations.size();
+        this.targetStart = new int[nrAnnotations + 1];
+        this.withoutTargets = new BitSet(nrAnnotations);
+
+        int nrTargets = 0;
+        for (int i = 0; i < nrAnnotations; i++) {
+            targetStart[i] = nrTargets;
+            List<Target> targets = annotations.get(i).getTgs();
+            if (targets == null || targets.isEmpty()) {
+                withoutTargets.set(i);
+            } else {
+                nrTargets += targets.size();
+            }
+        }
+        targetStart[nrAnnotations] = nrTargets;
+
+        this.boxes = new int[4 * nrTargets];
+        int maxX = 1;
+        int maxY = 1;
+        int b = 0;
+        for (Annotation annotation : annotations) {
+            if (annotation.getTgs() == null) {
+                continue;
+            }
+            for (Target target : annotation.getTgs()) {
+                int x = valueOf(target.getX());
+                int y = valueOf(target.getY());
+                boxes[b++] = x;
+                boxes[b++] = y;
+                boxes[b++] = x + valueOf(target.getW());
+                boxes[b++] = y + valueOf(target.getH());
+                maxX = Math.max(maxX, boxes[b - 2]);
+                maxY = Math.max(maxY, boxes[b - 1]);
+            }
+        }
+
+        int cellsPerAxis = (int) Math.ceil(Math.sqrt((double) nrAnnotations / ANNOTATIONS_PER_CELL));
+        this.cols = Math.max(1, Math.min(MAX_CELLS_PER_AXIS, cellsPerAxis));
+        this.rows = cols;
+        this.cellWidth = Math.max(1, (maxX + cols) / cols);
+        this.cellHeight = Math.max(1, (maxY + rows) / rows);
+
+        // first count the annotations per cell, then fill the cells. An annotation with several targets in the same
+        // cell is only added once, for that we keep track of the last annotation that was added to each cell
+        int[] cellCount = new int[cols * rows + 1];
+        int[] lastAdded = new int[cols * rows];
+        Arrays.fill(lastAdded, -1);
+        forEachCell((cell, annotation) -> cellCount[cell + 1]++, lastAdded);
+        for (int c = 1; c < cellCount.length; c++) {
+            cellCount[c] += cellCount[c - 1];
+        }
+        this.cellStart = cellCount;
+        this.cellEntries = new int[cellStart[cols * rows]];
+        int[] fill = Arrays.copyOf(cellStart, cols * rows);
+        Arrays.fill(lastAdded, -1);
+        forEachCell((cell, annotation) -> cellEntries[fill[cell]++] = annotation, lastAdded);
+    }
+
+    @FunctionalInterface
+    private interface CellConsumer {
+        void accept(int cell, int annotation);
+    }
+
+    private void forEachCell(CellConsumer consumer, int[] lastAdded) {
+        for (int i = 0; i < nrAnnotations; i++) {
+            for (int t = targetStart[i]; t < targetStart[i + 1]; t++) {
+                int b = 4 * t;
+                for (int row = row(boxes[b + 1]); row <= row(boxes[b + 3]); row++) {
+                    for (int col = col(boxes[b]); col <= col(boxes[b + 2]); col++) {
+                        int cell = row * cols + col;
+                        if (lastAdded[cell] != i) {
+                            lastAdded[cell] = i;
+                            consumer.accept(cell, i);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a spatial index for the annotations of an AnnoPage
+     * @param annoPage
+     * @return SpatialIndex
+     */
+    public static SpatialIndex build(AnnoPage annoPage) {
+        return new SpatialIndex(annoPage.getAns());
+    }
+
+    /**
+     * @return the number of annotations in the indexed AnnoPage
+     */
+    public int getNrAnnotations() {
+        return nrAnnotations;
+    }
+
+    /**
+     * Find the annotations that intersect a region. Targets that only touch the region's border also count as
+     * intersecting.
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     * @return the positions of the intersecting annotations in the AnnoPage's list of annotations
+     */
+    public BitSet query(int x, int y, int w, int h) {
+        int x2 = x + w;
+        int y2 = y + h;
+        BitSet result  = (BitSet) withoutTargets.clone();
+        BitSet checked = new BitSet(nrAnnotations);
+        for (int row = row(y); row <= row(y2); row++) {
+            for (int col = col(x); col <= col(x2); col++) {
+                int cell = row * cols + col;
+                for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                    int annotation = cellEntries[e];
+                    if (!checked.get(annotation)) {
+                        checked.set(annotation);
+                        if (intersects(annotation, x, y, x2, y2)) {
+                            result.set(annotation);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean intersects(int annotation, int x1, int y1, int x2, int y2) {
+        for (int t = targetStart[annotation]; t < targetStart[annotation + 1]; t++) {
+            int b = 4 * t;
+            if (boxes[b] <= x2 && x1 <= boxes[b + 2] && boxes[b + 1] <= y2 && y1 <= boxes[b + 3]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int col(int x) {
+        return Math.max(0, Math.min(cols - 1, x / cellWidth));
+    }
+
+    private int row(int y) {
+        return Math.max(0, Math.min(rows - 1, y / cellHeight));
+    }
+
+    private static int valueOf(Integer value) {
+        return value == null ? 0 : Math.max(0, value);
+    }
+}
@@ -0,0 +1,126 @@
+package eu.europeana.fulltext.api.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import eu.europeana.fulltext.api.model.AnnotationWrapper;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * IIIF AnnotationPage that maps and writes its annotations one at a time while it's being serialized, instead of
+ * mapping all annotations first and then serializing the entire page to a String. This is used for very large
+ * AnnoPages, so we never have all mapped annotations plus the complete output in memory at the same time.
+ * The page is written through the generator it's serialized with, so it can be part of a larger document and it's
+ * pretty-printed only if that generator is. Written by {@link FTService#writeAnnoPage}, the output is the same as
+ * that of a regular (pretty-printed) AnnotationPage.
+ * As mapping and serialization happen while the page is written, the time spent on each is reported to a
+ * {@link Listener} when it's done.
+ */
+public class StreamingAnnotationPage implements JsonSerializable {
+
+    private static final String V2_ANNOTATIONS_FIELD = "resources";
+    private static final String V3_ANNOTATIONS_FIELD = "items";
+
+    private final ObjectMapper mapper;
+    private final AnnoPage     annoPage;
+    private final boolean      v3;
+    private final boolean      includeContext;
+    private final Listener     listener;
+
+    /**
+     * Callback that is invoked when the page has been written
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param mappingNanos       time spent mapping the page and its annotations
+         * @param serializationNanos time spent serializing and writing
+         */
+        void written(long mappingNanos, long serializationNanos);
+    }
+
+    /**
+     * @param mapper         mapper used to serialize the AnnotationPage and its annotations
+     * @param annoPage       AnnoPage to write
+     * @param version        requested IIIF version [2|3]
+     * @param includeContext if false then the @context is left out
+     * @param listener       optional, notified when the page has been written
+     */
+    public StreamingAnnotationPage(ObjectMapper mapper, AnnoPage annoPage, String version, boolean includeContext,
+                                   Listener listener) {
+        this.mapper = mapper;
+        this.annoPage = annoPage;
+        this.v3 = "3".equalsIgnoreCase(version);
+        this.includeContext = includeContext;
+        this.listener = listener;
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        long start = System.nanoTime();
+
+        // we serialize the page without annotations with our own mapper, so all other fields are exactly the same as
+        // in the regular output, and write the annotations in their place
+        AnnotationWrapper emptyPage;
+        if (v3) {
+            emptyPage = EDM2IIIFMapping.getEmptyAnnotationPageV3(annoPage);
+        } else {
+            emptyPage = EDM2IIIFMapping.getEmptyAnnotationPageV2(annoPage);
+        }
+        if (!includeContext) {
+            emptyPage.setContext(null);
+        }
+        JsonNode     page   = mapper.valueToTree(emptyPage);
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        String annotationsField = (v3 ? V3_ANNOTATIONS_FIELD : V2_ANNOTATIONS_FIELD);
+        long mappingNanos = System.nanoTime() - start;
+
+        gen.writeStartObject();
+        Iterator<Map.Entry<String, JsonNode>> fields = page.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (annotationsField.equals(field.getKey())) {
+                gen.writeArrayFieldStart(annotationsField);
+                long mappingStart = System.nanoTime();
+                EDM2IIIFMapping.PageUrls urls = EDM2IIIFMapping.getPageUrls(annoPage);
+                for (Annotation annotation : annoPage.getAns()) {
+                    AnnotationWrapper mapped;
+                    if (v3) {
+                        mapped = EDM2IIIFMapping.getAnnotationV3(urls, annotation, false);
+                    } else {
+                        mapped = EDM2IIIFMapping.getAnnotationV2(urls, annotation, false);
+                    }
+                    mappingNanos += System.nanoTime() - mappingStart;
+                    writer.writeValue(gen, mapped);
+                    mappingStart = System.nanoTime();
+                }
+                gen.writeEndArray();
+            } else {
+                gen.writeFieldName(field.getKey());
+                writer.writeValue(gen, field.getValue());
+            }
+        }
+        gen.writeEndObject();
+
+        if (listener != null) {
+            long totalNanos = System.nanoTime() - start;
+            listener.written(mappingNanos, totalNanos - mappingNanos);
+        }
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer)
+            throws IOException {
+        serialize(gen, serializers);
+    }
+}
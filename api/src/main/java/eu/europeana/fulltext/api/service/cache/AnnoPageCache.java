@@ -0,0 +1,134 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+
+/**
+ * Second-level cache for AnnoPage entities. AnnoPages are kept in a compact binary encoding (see
+ * {@link AnnoPageCodec}) in off-heap memory, so caching many large pages doesn't increase the heap size or the
+ * garbage collection load. Cached pages are decoded again on every hit.
+ * A cached page is only returned if it has the same content version (or, for pages without content version, the
+ * same modified date) as the AnnoPage in the database, so callers have to provide the current AnnoPageInfo.
+ */
+@Component
+public class AnnoPageCache {
+
+    private static final Logger LOG = LogManager.getLogger(AnnoPageCache.class);
+
+    private static final String METRIC_NAME = "fulltext.annopage.cache";
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter stale;
+
+    // null if the cache is disabled
+    private final OffHeapLruCache cache;
+
+    @Autowired
+    public AnnoPageCache(FTSettings ftSettings, MeterRegistry meterRegistry) {
+        if (ftSettings.isAnnoPageCacheEnabled()) {
+            this.cache = new OffHeapLruCache(ftSettings.getAnnoPageCacheMaxBytes(),
+                                             ftSettings.getAnnoPageCacheBlockSize(),
+                                             ftSettings.getAnnoPageCacheStripes());
+            LOG.info("AnnoPage cache enabled, {} bytes off-heap memory allocated", cache.getCapacityBytes());
+        } else {
+            this.cache = null;
+        }
+        this.hits = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "hit");
+        this.misses = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "miss");
+        this.stale = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "stale");
+        FunctionCounter.builder(METRIC_NAME + ".evictions", this, c -> c.cache == null ? 0 : c.cache.getEvictions())
+                       .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".entries", this, c -> c.cache == null ? 0 : c.cache.getNrEntries())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".bytes", this, c -> c.cache == null ? 0 : c.cache.getUsedBytes())
+             .register(meterRegistry);
+    }
+
+    /**
+     * @return true if the cache is enabled, otherwise false
+     */
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Get an AnnoPage from the cache
+     * @param annoPageInfo current info of the requested AnnoPage, used to check if the cached page is up to date
+     * @param datasetId
+     * @param localId
+     * @return the cached AnnoPage, or null if it's not in the cache or outdated
+     */
+    public AnnoPage get(AnnoPageInfo annoPageInfo, String datasetId, String localId) {
+        if (cache == null) {
+            return null;
+        }
+        String key = createKey(datasetId, localId, annoPageInfo.getPgId());
+        byte[] data = cache.get(key);
+        if (data == null) {
+            misses.increment();
+            return null;
+        }
+        AnnoPage annoPage = AnnoPageCodec.decode(data);
+        if (!isUpToDate(annoPage, annoPageInfo)) {
+            stale.increment();
+            cache.remove(key);
+            return null;
+        }
+        hits.increment();
+        return annoPage;
+    }
+
+    /**
+     * Add an AnnoPage to the cache
+     * @param annoPage
+     */
+    public void put(AnnoPage annoPage) {
+        if (cache == null) {
+            return;
+        }
+        String key = createKey(annoPage.getDsId(), annoPage.getLcId(), annoPage.getPgId());
+        if (!cache.put(key, AnnoPageCodec.encode(annoPage))) {
+            LOG.debug("AnnoPage {} is too large to cache", key);
+        }
+    }
+
+    private static boolean isUpToDate(AnnoPage annoPage, AnnoPageInfo annoPageInfo) {
+        if (annoPageInfo.getCv() != null || annoPage.getCv() != null) {
+            return Objects.equals(annoPageInfo.getCv(), annoPage.getCv());
+        }
+        return Objects.equals(annoPageInfo.getModified(), annoPage.getModified());
+    }
+
+    private static String createKey(String datasetId, String localId, String pageId) {
+        return datasetId + '/' + localId + '/' + pageId;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.Target;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact binary encoding of an AnnoPage, including its Resource and all Annotations and Targets. Strings are written
+ * as an int length (-1 for null) plus UTF-8 bytes, nullable numbers are preceded by a boolean.
+ */
+public final class AnnoPageCodec {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private AnnoPageCodec() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * @param annoPage AnnoPage to encode
+     * @return the encoded AnnoPage
+     */
+    public static byte[] encode(AnnoPage annoPage) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimateSize(annoPage));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            writeString(out, annoPage.getDsId());
+            writeString(out, annoPage.getLcId());
+            writeString(out, annoPage.getPgId());
+            writeString(out, annoPage.getTgtId());
+            writeString(out, annoPage.getCv());
+            writeDate(out, annoPage.getModified());
+            writeResource(out, annoPage.getRes());
+            List<Annotation> annotations = annoPage.getAns();
+            out.writeInt(annotations == null ? -1 : annotations.size());
+            if (annotations != null) {
+                for (Annotation annotation : annotations) {
+                    writeAnnotation(out, annotation);
+                }
+            }
+        } catch (IOException e) {
+            // can't happen when writing to a byte array
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param data AnnoPage encoded with {@link #encode(AnnoPage)}
+     * @return the decoded AnnoPage
+     * @throws IllegalArgumentException when the data can't be decoded
+     */
+    public static AnnoPage decode(byte[] data) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            int formatVersion = in.readByte();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported AnnoPage encoding version " + formatVersion);
+            }
+            AnnoPage annoPage = new AnnoPage();
+            annoPage.setDsId(readString(in));
+            annoPage.setLcId(readString(in));
+            annoPage.setPgId(readString(in));
+            annoPage.setTgtId(readString(in));
+            annoPage.setCv(readString(in));
+            annoPage.setModified(readDate(in));
+            annoPage.setRes(readResource(in));
+            int nrAnnotations = in.readInt();
+            if (nrAnnotations >= 0) {
+                List<Annotation> annotations = new ArrayList<>(nrAnnotations);
+                for (int i = 0; i < nrAnnotations; i++) {
+                    annotations.add(readAnnotation(in));
+                }
+                annoPage.setAns(annotations);
+            }
+            return annoPage;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Error decoding AnnoPage", e);
+        }
+    }
+
+    private static int estimateSize(AnnoPage annoPage) {
+        int size = 256;
+        if (annoPage.getRes() != null && annoPage.getRes().getValue() != null) {
+            size += annoPage.getRes().getValue().length();
+        }
+        if (annoPage.getAns() != null) {
+            size += annoPage.getAns().size() * 48;
+        }
+        return size;
+    }
+
+    private static void writeResource(DataOutputStream out, Resource resource) throws IOException {
+        out.writeBoolean(resource != null);
+        if (resource != null) {
+            writeString(out, resource.getId());
+            writeString(out, resource.getDsId());
+            writeString(out, resource.getLcId());
+            writeString(out, resource.getLang());
+            writeString(out, resource.getValue());
+            writeString(out, resource.getCv());
+            writeDate(out, resource.getModified());
+        }
+    }
+
+    private static Resource readResource(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Resource resource = new Resource();
+        resource.setId(readString(in));
+        resource.setDsId(readString(in));
+        resource.setLcId(readString(in));
+        resource.setLang(readString(in));
+        resource.setValue(readString(in));
+        resource.setCv(readString(in));
+        resource.setModified(readDate(in));
+        return resource;
+    }
+
+    private static void writeAnnotation(DataOutputStream out, Annotation annotation) throws IOException {
+        writeString(out, annotation.getAnId());
+        out.writeChar(annotation.getDcType());
+        writeString(out, annotation.getMotiv());
+        writeString(out, annotation.getLang());
+        writeInteger(out, annotation.getFrom());
+        writeInteger(out, annotation.getTo());
+        List<Target> targets = annotation.getTgs();
+        out.writeInt(targets == null ? -1 : targets.size());
+        if (targets != null) {
+            for (Target target : targets) {
+                writeInteger(out, target.getX());
+                writeInteger(out, target.getY());
+                writeInteger(out, target.getW());
+                writeInteger(out, target.getH());
+            }
+        }
+    }
+
+    private static Annotation readAnnotation(DataInputStream in) throws IOException {
+        Annotation annotation = new Annotation();
+        annotation.setAnId(readString(in));
+        annotation.setDcType(in.readChar());
+        annotation.setMotiv(readString(in));
+        annotation.setLang(readString(in));
+        annotation.setFrom(readInteger(in));
+        annotation.setTo(readInteger(in));
+        int nrTargets = in.readInt();
+        if (nrTargets >= 0) {
+            List<Target> targets = new ArrayList<>(nrTargets);
+            for (int i = 0; i < nrTargets; i++) {
+                targets.add(new Target(readInteger(in), readInteger(in), readInteger(in), readInteger(in)));
+            }
+            annotation.setTgs(targets);
+        }
+        return annotation;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getTime());
+        }
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+}
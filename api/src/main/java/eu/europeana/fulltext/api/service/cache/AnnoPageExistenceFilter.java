@@ -0,0 +1,221 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.QueryLimiter;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/**
+ * In-memory Bloom filter over the (dsId, lcId, pgId) keys of all AnnoPages. If the filter says a page does not exist
+ * we can return a 404 without querying the database at all.
+ * The filter is built (in the background) when the application starts and is rebuilt periodically. Pages that are
+ * loaded after a rebuild are not in the filter, so we check on a timer if any AnnoPage was inserted since the filter
+ * was built. That check is a single covered query on the _id index (ObjectIds start with their creation time). As
+ * soon as it finds a newer page the filter is considered stale and is bypassed until the next rebuild. Until then a
+ * page that was loaded after the last check may be reported as absent, so new pages can take up to
+ * existence.filter.insertcheck.ms to become visible. If the check didn't succeed for twice that time, the filter is
+ * bypassed as well.
+ */
+@Component
+public class AnnoPageExistenceFilter {
+
+    private static final Logger LOG = LogManager.getLogger(AnnoPageExistenceFilter.class);
+
+    private static final String METRIC_NAME = "fulltext.existence.filter";
+
+    // ObjectIds are created by the loader, so we allow for some difference between the loader and database clocks
+    private static final long CLOCK_SKEW_MS = 60_000L;
+
+    /**
+     * Outcome of a lookup in the filter
+     */
+    public enum Lookup {
+        /** the AnnoPage certainly does not exist */
+        ABSENT,
+        /** the AnnoPage is in the filter, it may or may not exist */
+        MIGHT_EXIST,
+        /** the filter is disabled, not built yet, or stale, so it couldn't tell */
+        NOT_CHECKED
+    }
+
+    private final FTSettings             ftSettings;
+    private final AnnoPageRepositoryImpl annoPageRepositoryImpl;
+    private final QueryLimiter           queryLimiter;
+
+    private final Counter definiteMisses;
+    private final Counter maybePresent;
+    private final Counter falsePositives;
+    private final Counter staleLookups;
+
+    // null as long as the filter is disabled or not built yet
+    private volatile Snapshot snapshot;
+
+    @Autowired
+    public AnnoPageExistenceFilter(FTSettings ftSettings, AnnoPageRepositoryImpl annoPageRepositoryImpl,
+                                   QueryLimiter queryLimiter, MeterRegistry meterRegistry) {
+        this.ftSettings = ftSettings;
+        this.annoPageRepositoryImpl = annoPageRepositoryImpl;
+        this.queryLimiter = queryLimiter;
+        this.definiteMisses = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "definite_miss");
+        this.maybePresent = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "maybe_present");
+        this.falsePositives = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "false_positive");
+        this.staleLookups = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "stale");
+        Gauge.builder(METRIC_NAME + ".keys", this, f -> f.snapshot == null ? 0 : f.snapshot.filter.getNrKeys())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".bytes", this, f -> f.snapshot == null ? 0 : f.snapshot.filter.getSizeInBytes())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".expected.fpp", this,
+                      f -> f.snapshot == null ? 0 : f.snapshot.filter.getExpectedFalsePositiveRate())
+             .register(meterRegistry);
+    }
+
+    /**
+     * (Re)build the filter with the keys of all AnnoPages in the database. The new filter replaces the old one only
+     * when it's completely filled, so lookups can continue while a refresh is in progress.
+     */
+    @Scheduled(fixedDelayString = "${existence.filter.refresh.ms:900000}")
+    public void refresh() {
+        if (!ftSettings.isExistenceFilterEnabled()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            // size the new filter for some growth, so we don't exceed the false positive rate before the next refresh
+            long nrPages = annoPageRepositoryImpl.count();
+            long expectedKeys = nrPages + nrPages / 10;
+            BloomFilter newFilter = new BloomFilter(expectedKeys, ftSettings.getExistenceFilterFpp(),
+                                                    ftSettings.getExistenceFilterMaxBytes());
+            // pages inserted after the scan started may or may not be in the filter
+            Date builtFrom = new Date(start - CLOCK_SKEW_MS);
+            annoPageRepositoryImpl.scanPageKeys((datasetId, localId, pageId) ->
+                    newFilter.add(createKey(datasetId, localId, pageId)));
+            Snapshot newSnapshot = new Snapshot(newFilter, builtFrom);
+            checkForInserts(newSnapshot);
+            snapshot = newSnapshot;
+            LOG.info("Existence filter built with {} keys in {} ms ({} bytes, expected false positive rate {})",
+                     newFilter.getNrKeys(), System.currentTimeMillis() - start, newFilter.getSizeInBytes(),
+                     newFilter.getExpectedFalsePositiveRate());
+        } catch (RuntimeException e) {
+            // keep using the old filter (if any), we'll try again at the next refresh
+            LOG.error("Error building existence filter", e);
+        }
+    }
+
+    /**
+     * Check if any AnnoPage was inserted since the current filter was built, in which case it's bypassed until the
+     * next rebuild
+     */
+    @Scheduled(fixedDelayString = "${existence.filter.insertcheck.ms:10000}")
+    public void checkForInserts() {
+        Snapshot current = snapshot;
+        if (current == null || current.stale) {
+            return;
+        }
+        try {
+            checkForInserts(current);
+        } catch (RuntimeException e) {
+            // if this keeps failing the filter is bypassed, see isVerified()
+            LOG.error("Error checking for AnnoPages inserted since the existence filter was built", e);
+        }
+    }
+
+    private void checkForInserts(Snapshot current) {
+        long start = System.currentTimeMillis();
+        if (queryLimiter.query(() -> annoPageRepositoryImpl.existsInsertedSince(current.builtFrom))) {
+            LOG.info("AnnoPages were inserted since the existence filter was built, bypassing it until next refresh");
+            current.stale = true;
+        } else {
+            current.checkedAt = start;
+        }
+    }
+
+    /**
+     * Look up an AnnoPage in the filter. This never queries the database
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return ABSENT if the AnnoPage certainly does not exist, MIGHT_EXIST if it's in the filter, NOT_CHECKED if the
+     * filter isn't available or is stale
+     */
+    public Lookup lookup(String datasetId, String localId, String pageId) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return Lookup.NOT_CHECKED;
+        }
+        if (current.stale || !isVerified(current)) {
+            staleLookups.increment();
+            return Lookup.NOT_CHECKED;
+        }
+        if (current.filter.mightContain(createKey(datasetId, localId, pageId))) {
+            maybePresent.increment();
+            return Lookup.MIGHT_EXIST;
+        }
+        definiteMisses.increment();
+        return Lookup.ABSENT;
+    }
+
+    /**
+     * @return true if the last successful check for inserted pages is recent enough to trust the filter
+     */
+    private boolean isVerified(Snapshot current) {
+        return System.currentTimeMillis() - current.checkedAt <= 2 * ftSettings.getExistenceFilterInsertCheckMs();
+    }
+
+    /**
+     * Report that an AnnoPage was not found in the database after it was looked up in the filter. That's a false
+     * positive of the filter only if the filter said that it might exist
+     * @param lookup result of the lookup in the filter
+     */
+    public void reportNotFound(Lookup lookup) {
+        if (lookup == Lookup.MIGHT_EXIST) {
+            falsePositives.increment();
+        }
+    }
+
+    private static String createKey(String datasetId, String localId, String pageId) {
+        return datasetId + '/' + localId + '/' + pageId;
+    }
+
+    /**
+     * A built filter and the time from which AnnoPages may be missing from it
+     */
+    private static final class Snapshot {
+        private final BloomFilter filter;
+        private final Date        builtFrom;
+        // set when AnnoPages were inserted after the filter was built
+        private volatile boolean  stale;
+        // time of the start of the last check that found no inserted AnnoPages
+        private volatile long     checkedAt;
+
+        private Snapshot(BloomFilter filter, Date builtFrom) {
+            this.filter = filter;
+            this.builtFrom = builtFrom;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+/**
+ * Simple fixed-size Bloom filter for strings. A Bloom filter can tell with certainty that a key was never added, but
+ * can only tell that a key was 'probably' added (false positives are possible, false negatives are not).
+ * Keys are hashed with a 64-bit FNV-1a hash that is split in two independent hashes (Kirsch-Mitzenmacher double
+ * hashing), so we don't need to create any objects when adding or checking a key.
+ * Adding keys is not thread-safe, so a filter should be filled completely before it's shared between threads.
+ */
+public class BloomFilter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME  = 0x100000001b3L;
+    private static final double LN2      = Math.log(2);
+
+    private final long[] bits;
+    private final long   nrBits;
+    private final int    nrHashes;
+    private long         nrKeys;
+
+    /**
+     * Create a new Bloom filter sized for the expected number of keys and false positive probability
+     * @param expectedKeys      expected number of keys that will be added
+     * @param falsePositiveRate desired false positive probability (e.g. 0.01)
+     * @param maxBytes          maximum amount of memory the filter may use. If the optimal size is larger than this,
+     *                          the filter is capped at this size (and the false positive rate will be higher)
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate, long maxBytes) {
+        long n = Math.max(1L, expectedKeys);
+        long optimalBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (LN2 * LN2));
+        long maxBits = Math.max(64L, maxBytes * 8);
+        long m = Math.max(64L, Math.min(optimalBits, maxBits));
+        if (m / 64 > Integer.MAX_VALUE - 8) {
+            m = (Integer.MAX_VALUE - 8) * 64L;
+        }
+        this.bits     = new long[(int) ((m + 63) / 64)];
+        this.nrBits   = bits.length * 64L;
+        this.nrHashes = (int) Math.max(1, Math.min(16, Math.round((double) nrBits / n * LN2)));
+    }
+
+    /**
+     * Add a key to the filter
+     * @param key
+     */
+    public void add(String key) {
+        long hash = hash(key);
+        long h1 = (int) hash;
+        long h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= nrHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, nrBits);
+            bits[(int) (bit >>> 6)] |= (1L << bit);
+        }
+        nrKeys++;
+    }
+
+    /**
+     * @param key
+     * @return false if the key was definitely never added, true if it was probably added
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        long h1 = (int) hash;
+        long h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= nrHashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, nrBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of keys that were added
+     */
+    public long getNrKeys() {
+        return nrKeys;
+    }
+
+    /**
+     * @return the amount of memory used by the bit array, in bytes
+     */
+    public long getSizeInBytes() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * @return the number of hash functions used per key
+     */
+    public int getNrHashes() {
+        return nrHashes;
+    }
+
+    /**
+     * @return the expected false positive probability, given the current number of keys
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-nrHashes * (double) nrKeys / nrBits), nrHashes);
+    }
+
+    static long hash(String key) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= FNV_PRIME;
+        }
+        // extra mixing step (from SplitMix64) because FNV doesn't distribute the higher bits very well
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import eu.europeana.fulltext.repository.impl.RenderedAnnoPageRepositoryImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Local read tier for pre-rendered AnnoPages, in front of the RenderedAnnoPage collection in Mongo. Pages are kept
+ * in a memory-mapped {@link MappedPageStore} on local disk, so hot pages can be served without fetching the (large)
+ * rendered output over the network. The store is filled when a page is fetched from Mongo, and optionally by
+ * exporting all pre-rendered pages of a list of datasets at startup.
+ * Callers should check the content version of a returned page, as the store may contain outdated pages. This is
+ * why a lookup in the store does not replace the query for the AnnoPage's content version in Mongo; it only saves
+ * transferring the rendered output, which is returned as a view on the mapped file rather than a copy.
+ */
+@Component
+public class LocalPageStore {
+
+    private static final Logger LOG = LogManager.getLogger(LocalPageStore.class);
+
+    private static final String METRIC_NAME = "fulltext.localstore";
+
+    private final FTSettings                     ftSettings;
+    private final RenderedAnnoPageRepositoryImpl renderedAnnoPageRepositoryImpl;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    // null as long as the store is disabled or couldn't be opened
+    private volatile MappedPageStore store;
+
+    @Autowired
+    public LocalPageStore(FTSettings ftSettings, RenderedAnnoPageRepositoryImpl renderedAnnoPageRepositoryImpl,
+                          MeterRegistry meterRegistry) {
+        this.ftSettings = ftSettings;
+        this.renderedAnnoPageRepositoryImpl = renderedAnnoPageRepositoryImpl;
+        this.hits = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "hit");
+        this.misses = meterRegistry.counter(METRIC_NAME + ".lookups", "result", "miss");
+        Gauge.builder(METRIC_NAME + ".entries", this, s -> s.store == null ? 0 : s.store.getNrEntries())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".bytes", this, s -> s.store == null ? 0 : s.store.getSizeInBytes())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".index.bytes", this, s -> s.store == null ? 0 : s.store.getIndexSizeInBytes())
+             .register(meterRegistry);
+        Gauge.builder(METRIC_NAME + ".dropped.segments", this,
+                      s -> s.store == null ? 0 : s.store.getNrDroppedSegments())
+             .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!ftSettings.isLocalStoreEnabled()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            store = new MappedPageStore(Paths.get(ftSettings.getLocalStoreDirectory()),
+                                        ftSettings.getLocalStoreSegmentBytes(), ftSettings.getLocalStoreMaxSegments());
+            LOG.info("Local page store opened with {} pages in {} ms", store.getNrEntries(),
+                     System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            // we can do without, all pages will be fetched from Mongo
+            LOG.error("Error opening local page store in {}", ftSettings.getLocalStoreDirectory(), e);
+            return;
+        }
+        String[] datasets = StringUtils.split(ftSettings.getLocalStorePreloadDatasets(), ", ");
+        if (datasets != null && datasets.length > 0) {
+            Thread preload = new Thread(() -> preload(datasets), "ft-localstore-preload");
+            preload.setDaemon(true);
+            preload.start();
+        }
+    }
+
+    private void preload(String[] datasets) {
+        for (String datasetId : datasets) {
+            long start = System.currentTimeMillis();
+            try {
+                long nrPages = renderedAnnoPageRepositoryImpl.scanDataset(datasetId, this::put);
+                LOG.info("Exported {} pre-rendered pages of dataset {} to local page store in {} ms", nrPages,
+                         datasetId, System.currentTimeMillis() - start);
+            } catch (RuntimeException e) {
+                LOG.error("Error exporting dataset {} to local page store", datasetId, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the local store is available, otherwise false
+     */
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /**
+     * Get a pre-rendered page from the local store
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @param version IIIF version [2|3]
+     * @return RenderedAnnoPage, or null if the page isn't in the store
+     */
+    public RenderedAnnoPage get(String datasetId, String localId, String pageId, String version) {
+        MappedPageStore current = store;
+        if (current == null) {
+            return null;
+        }
+        RenderedAnnoPage result = current.get(datasetId, localId, pageId, version);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Add a pre-rendered page to the local store. When the store is full the oldest pages make room for it.
+     * Errors are logged but otherwise ignored.
+     * @param page
+     */
+    public void put(RenderedAnnoPage page) {
+        MappedPageStore current = store;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (!current.put(page)) {
+                LOG.debug("Page {}/{}/{} is too large for the local page store", page.getDsId(), page.getLcId(),
+                          page.getPgId());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Error adding page {}/{}/{} to local page store", page.getDsId(), page.getLcId(),
+                      page.getPgId(), e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only store for pre-rendered AnnoPages on local disk. Pages are written to fixed-size, memory-mapped segment
+ * files; an off-heap open-addressing hash table maps the (dsId, lcId, pgId, version) key of each page to the segment
+ * and offset of its latest record. Storing a page again appends a new record and points the index to it.
+ * <p>
+ * Space is reclaimed a segment at a time: once the maximum number of segments is reached and the last one is full,
+ * the oldest segment is dropped (together with the index entries pointing into it) and replaced by a new, empty
+ * segment file. So the store keeps the most recently stored pages, and pages that were dropped are simply fetched
+ * from Mongo again. Outdated records in the other segments are only reclaimed when their segment's turn comes.
+ * Segment files are numbered in the order they were created, so the index can be rebuilt in the right order.
+ * <p>
+ * Record layout: int record length (0 marks the end of the data in a segment), followed by dsId, lcId, pgId, version
+ * and content version (each as a short length plus UTF-8 bytes) and finally an int length plus the gzipped JSON.
+ * The record length is written last, so a record that was only partly written (e.g. after a crash) is ignored when the
+ * index is rebuilt at startup.
+ * <p>
+ * Reads can be done concurrently, writes are serialized. The JSON of a returned page is a read-only view on the
+ * mapped segment rather than a copy. Records are never overwritten: a dropped segment's file is deleted and a new
+ * file is mapped in its place, while the old mapping stays valid for as long as a view on it is in use. So such a
+ * view stays valid after the page is replaced by a newer version or its segment is dropped.
+ */
+public class MappedPageStore implements Closeable {
+
+    private static final String SEGMENT_PREFIX    = "segment-";
+    private static final String SEGMENT_SUFFIX    = ".dat";
+    private static final int    SLOT_BYTES        = 16; // long hash + long location
+    private static final int    INITIAL_SLOTS     = 1 << 16;
+    private static final double MAX_LOAD_FACTOR   = 0.7;
+
+    private final Path directory;
+    private final int  segmentBytes;
+    private final int  maxSegments;
+
+    // segments by their number in the index locations, and the number of the file of each segment
+    private final List<MappedByteBuffer> segments   = new ArrayList<>();
+    private final List<Integer>          segmentNrs = new ArrayList<>();
+    private final ReadWriteLock          lock       = new ReentrantReadWriteLock();
+
+    private ByteBuffer index;
+    private int        indexSlots;
+    private long       nrEntries;
+    private int        currentSegment = -1;
+    private int        writeOffset;
+    private int        nextSegmentNr;
+    private long       nrDroppedSegments;
+
+    /**
+     * Open a store, creating the directory if it doesn't exist yet. Existing segments are scanned to rebuild the index
+     * @param directory    directory with the segment files
+     * @param segmentBytes size of a segment file (max 2GB)
+     * @param maxSegments  maximum number of segments, once they are all full the oldest one is replaced by a new one
+     * @throws IOException when the segments can't be created or read
+     */
+    public MappedPageStore(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        this.directory    = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments  = maxSegments;
+        this.indexSlots   = INITIAL_SLOTS;
+        this.index        = ByteBuffer.allocateDirect(indexSlots * SLOT_BYTES);
+        Files.createDirectories(directory);
+        List<Integer> existing = existingSegmentNrs();
+        // only the newest segments are used, older ones may be left behind by a smaller maximum or a failed delete
+        int nrOld = Math.max(0, existing.size() - maxSegments);
+        for (int segmentNr : existing.subList(0, nrOld)) {
+            Files.deleteIfExists(segmentFile(segmentNr));
+        }
+        for (int segmentNr : existing.subList(nrOld, existing.size())) {
+            segments.add(map(segmentFile(segmentNr)));
+            segmentNrs.add(segmentNr);
+            currentSegment = segments.size() - 1;
+            writeOffset = scanSegment(currentSegment);
+            nextSegmentNr = segmentNr + 1;
+        }
+    }
+
+    /**
+     * @return pre-rendered page with the provided key (with its JSON backed by the mapped segment), or null if it's
+     * not in the store
+     */
+    public RenderedAnnoPage get(String datasetId, String localId, String pageId, String version) {
+        lock.readLock().lock();
+        try {
+            long location = find(hash(datasetId, localId, pageId, version), datasetId, localId, pageId, version);
+            if (location == -1) {
+                return null;
+            }
+            ByteBuffer record = recordAt(location);
+            return new RenderedAnnoPage(readString(record), readString(record), readString(record),
+                                        readString(record), readString(record), readSlice(record));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a pre-rendered page to the store, replacing any previously stored version of the page
+     * @param page page to store
+     * @return true if the page was stored, false if the page doesn't fit in a segment
+     * @throws IOException when a new segment couldn't be created
+     */
+    public boolean put(RenderedAnnoPage page) throws IOException {
+        byte[][] fields = { utf8(page.getDsId()), utf8(page.getLcId()), utf8(page.getPgId()), utf8(page.getVer()),
+                            utf8(page.getCv()) };
+        ByteBuffer json = page.getJsonBuffer();
+        int recordLength = 4 + 4 + json.remaining();
+        for (byte[] field : fields) {
+            recordLength += 2 + field.length;
+        }
+        // we always need room for the end-of-data marker after the record
+        if (recordLength + 4 > segmentBytes || maxSegments < 1) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (segments.isEmpty() || writeOffset + recordLength + 4 > segmentBytes) {
+                startSegment();
+            }
+            int segment = currentSegment;
+            ByteBuffer buffer = segments.get(segment).duplicate();
+            buffer.position(writeOffset + 4);
+            for (byte[] field : fields) {
+                buffer.putShort((short) field.length);
+                buffer.put(field);
+            }
+            buffer.putInt(json.remaining());
+            buffer.put(json);
+            buffer.putInt(writeOffset, recordLength);
+
+            index(location(segment, writeOffset), page.getDsId(), page.getLcId(), page.getPgId(), page.getVer());
+            writeOffset += recordLength;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Start writing to a new segment. If the maximum number of segments is reached, the new segment takes the place of
+     * the oldest one, and the pages in that segment are dropped from the index
+     */
+    private void startSegment() throws IOException {
+        MappedByteBuffer newSegment = map(segmentFile(nextSegmentNr));
+        if (segments.size() < maxSegments) {
+            segments.add(newSegment);
+            segmentNrs.add(nextSegmentNr);
+            currentSegment = segments.size() - 1;
+        } else {
+            // segments are filled in turn, so the next one is the oldest
+            int  oldest  = (currentSegment + 1) % segments.size();
+            Path oldFile = segmentFile(segmentNrs.get(oldest));
+            rehashIndex(indexSlots, oldest);
+            segments.set(oldest, newSegment);
+            segmentNrs.set(oldest, nextSegmentNr);
+            currentSegment = oldest;
+            nrDroppedSegments++;
+            try {
+                Files.deleteIfExists(oldFile);
+            } catch (IOException e) {
+                // not a problem, the file is removed when the store is opened again
+            }
+        }
+        nextSegmentNr++;
+        writeOffset = 0;
+    }
+
+    /**
+     * @return the number of distinct pages in the store
+     */
+    public long getNrEntries() {
+        return nrEntries;
+    }
+
+    /**
+     * @return the number of bytes used by segment files
+     */
+    public long getSizeInBytes() {
+        return (long) segments.size() * segmentBytes;
+    }
+
+    /**
+     * @return the number of segments that were dropped to make room for new pages since the store was opened
+     */
+    public long getNrDroppedSegments() {
+        return nrDroppedSegments;
+    }
+
+    /**
+     * @return the number of bytes used by the off-heap index
+     */
+    public long getIndexSizeInBytes() {
+        return (long) indexSlots * SLOT_BYTES;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Path segmentFile(int segmentNr) {
+        return directory.resolve(String.format("%s%05d%s", SEGMENT_PREFIX, segmentNr, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return the numbers of the segment files in the directory, oldest first
+     */
+    private List<Integer> existingSegmentNrs() throws IOException {
+        List<Integer> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                                                                    SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String nr   = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    result.add(Integer.valueOf(nr));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private MappedByteBuffer map(Path segmentFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            // a mapping stays valid after its channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    /**
+     * Add all records of a segment to the index
+     * @return the offset of the end of the data in the segment
+     */
+    private int scanSegment(int segment) {
+        ByteBuffer buffer = segments.get(segment).duplicate();
+        int offset = 0;
+        while (offset + 4 <= segmentBytes) {
+            int recordLength = buffer.getInt(offset);
+            if (recordLength <= 0 || offset + recordLength > segmentBytes) {
+                break;
+            }
+            ByteBuffer record = recordAt(location(segment, offset));
+            index(location(segment, offset), readString(record), readString(record), readString(record),
+                  readString(record));
+            offset += recordLength;
+        }
+        return offset;
+    }
+
+    private void index(long location, String datasetId, String localId, String pageId, String version) {
+        if (nrEntries + 1 > indexSlots * MAX_LOAD_FACTOR) {
+            rehashIndex(indexSlots * 2, -1);
+        }
+        long hash = hash(datasetId, localId, pageId, version);
+        int slot = slotFor(hash, indexSlots);
+        while (true) {
+            long slotHash = index.getLong(slot * SLOT_BYTES);
+            if (slotHash == 0) {
+                index.putLong(slot * SLOT_BYTES, hash);
+                index.putLong(slot * SLOT_BYTES + 8, location);
+                nrEntries++;
+                return;
+            }
+            if (slotHash == hash && keyMatches(index.getLong(slot * SLOT_BYTES + 8), datasetId, localId, pageId,
+                                               version)) {
+                index.putLong(slot * SLOT_BYTES + 8, location);
+                return;
+            }
+            slot = (slot + 1) & (indexSlots - 1);
+        }
+    }
+
+    private long find(long hash, String datasetId, String localId, String pageId, String version) {
+        int slot = slotFor(hash, indexSlots);
+        while (true) {
+            long slotHash = index.getLong(slot * SLOT_BYTES);
+            if (slotHash == 0) {
+                return -1;
+            }
+            if (slotHash == hash) {
+                long location = index.getLong(slot * SLOT_BYTES + 8);
+                if (keyMatches(location, datasetId, localId, pageId, version)) {
+                    return location;
+                }
+            }
+            slot = (slot + 1) & (indexSlots - 1);
+        }
+    }
+
+    /**
+     * Copy the index to a new table with the provided number of slots
+     * @param newSlots
+     * @param droppedSegment entries pointing to this segment are left out (-1 to keep all entries)
+     */
+    private void rehashIndex(int newSlots, int droppedSegment) {
+        ByteBuffer newIndex   = ByteBuffer.allocateDirect(newSlots * SLOT_BYTES);
+        long       newEntries = 0;
+        for (int slot = 0; slot < indexSlots; slot++) {
+            long hash     = index.getLong(slot * SLOT_BYTES);
+            long location = index.getLong(slot * SLOT_BYTES + 8);
+            if (hash != 0 && (int) (location >>> 32) != droppedSegment) {
+                int newSlot = slotFor(hash, newSlots);
+                while (newIndex.getLong(newSlot * SLOT_BYTES) != 0) {
+                    newSlot = (newSlot + 1) & (newSlots - 1);
+                }
+                newIndex.putLong(newSlot * SLOT_BYTES, hash);
+                newIndex.putLong(newSlot * SLOT_BYTES + 8, location);
+                newEntries++;
+            }
+        }
+        index = newIndex;
+        indexSlots = newSlots;
+        nrEntries = newEntries;
+    }
+
+    private boolean keyMatches(long location, String datasetId, String localId, String pageId, String version) {
+        ByteBuffer record = recordAt(location);
+        return datasetId.equals(readString(record)) && localId.equals(readString(record))
+               && pageId.equals(readString(record)) && version.equals(readString(record));
+    }
+
+    /**
+     * @return buffer positioned at the first field of the record at the provided location
+     */
+    private ByteBuffer recordAt(long location) {
+        ByteBuffer record = segments.get((int) (location >>> 32)).duplicate();
+        record.position((int) location + 4);
+        return record;
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int slotFor(long hash, int nrSlots) {
+        return (int) (hash & (nrSlots - 1));
+    }
+
+    private static long hash(String datasetId, String localId, String pageId, String version) {
+        long hash = BloomFilter.hash(datasetId + '/' + localId + '/' + pageId + '/' + version);
+        // 0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static byte[] utf8(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return read-only view of the int length-prefixed data at the position of the buffer
+     */
+    private static ByteBuffer readSlice(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        return slice.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of byte arrays that are kept off-heap. A fixed amount of direct memory is allocated up
+ * front and divided into equal-sized blocks; each value is stored in as many (not necessarily adjacent) blocks as it
+ * needs. Only the keys and block numbers of the values are kept on the heap.
+ * The cache is split into stripes by key hash, each with its own share of the memory, its own lock and its own LRU
+ * order, so concurrent requests for different keys rarely wait for each other while values are copied in and out of
+ * direct memory. When a stripe doesn't have enough free blocks for a new value, the least recently used values of
+ * that stripe are evicted.
+ * <p>
+ * This is plain LRU on purpose, not a frequency-aware policy such as W-TinyLFU: every new value is admitted and
+ * recency is all that counts. The known downside is that a scan (e.g. a harvester requesting every page of a large
+ * record once) evicts the hot set, which then has to be fetched from Mongo again. We accept that to keep the
+ * bookkeeping per stripe to one LinkedHashMap; an admission filter would be the place to start if scans turn out to
+ * hurt the hit rate (see the fulltext.annopage.cache metrics).
+ */
+public class OffHeapLruCache {
+
+    private static final int MAX_ARENA_BYTES = 1 << 30;
+
+    private final int      blockSize;
+    private final Stripe[] stripes;
+
+    /**
+     * @param maxBytes  amount of direct memory to allocate
+     * @param blockSize size of a block, values use a multiple of this size
+     * @param nrStripes number of independently locked parts the memory is divided in, values can't be larger than
+     *                  the memory of one stripe
+     */
+    public OffHeapLruCache(long maxBytes, int blockSize, int nrStripes) {
+        this.blockSize = blockSize;
+        int  blocksPerArena  = MAX_ARENA_BYTES / blockSize;
+        long blocksPerStripe = Math.max(1L, maxBytes / blockSize / Math.max(1, nrStripes));
+        if (blocksPerStripe > Integer.MAX_VALUE - 8) {
+            blocksPerStripe = Integer.MAX_VALUE - 8L;
+        }
+        this.stripes = new Stripe[Math.max(1, nrStripes)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe((int) blocksPerStripe, blocksPerArena);
+        }
+    }
+
+    /**
+     * @param key
+     * @return a copy of the value stored for the key, or null if the key is not in the cache
+     */
+    public byte[] get(String key) {
+        return stripe(key).get(key);
+    }
+
+    /**
+     * Store a value, evicting least recently used values if necessary
+     * @param key
+     * @param value
+     * @return true if the value was stored, false if it's larger than the memory of a stripe
+     */
+    public boolean put(String key, byte[] value) {
+        return stripe(key).put(key, value);
+    }
+
+    /**
+     * Remove a value from the cache
+     * @param key
+     */
+    public void remove(String key) {
+        stripe(key).remove(key);
+    }
+
+    /**
+     * @return the number of values in the cache
+     */
+    public int getNrEntries() {
+        int nrEntries = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                nrEntries += stripe.entries.size();
+            }
+        }
+        return nrEntries;
+    }
+
+    /**
+     * @return the total size of all values in the cache
+     */
+    public long getUsedBytes() {
+        long usedBytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                usedBytes += stripe.usedBytes;
+            }
+        }
+        return usedBytes;
+    }
+
+    /**
+     * @return the amount of direct memory allocated by the cache
+     */
+    public long getCapacityBytes() {
+        return (long) stripes.length * stripes[0].nrBlocks * blockSize;
+    }
+
+    /**
+     * @return the number of values that were evicted to make room for new values
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                evictions += stripe.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    private Stripe stripe(String key) {
+        int hash = key.hashCode();
+        // spread the higher bits, as String hashes of similar keys mostly differ in the lower bits
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    private static final class Entry {
+        private final int[] blocks;
+        private final int   length;
+
+        private Entry(int[] blocks, int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Part of the cache with its own memory and LRU order. All methods are synchronized on the stripe.
+     */
+    private final class Stripe {
+
+        private final int              nrBlocks;
+        private final int              blocksPerArena;
+        private final List<ByteBuffer> arenas = new ArrayList<>();
+
+        private final int[] freeBlocks;
+        private int         nrFreeBlocks;
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long usedBytes;
+        private long evictions;
+
+        private Stripe(int nrBlocks, int blocksPerArena) {
+            this.nrBlocks       = nrBlocks;
+            this.blocksPerArena = blocksPerArena;
+            this.freeBlocks     = new int[nrBlocks];
+            for (int block = nrBlocks - 1; block >= 0; block--) {
+                freeBlocks[nrFreeBlocks++] = block;
+            }
+            int remaining = nrBlocks;
+            while (remaining > 0) {
+                int arenaBlocks = Math.min(remaining, blocksPerArena);
+                arenas.add(ByteBuffer.allocateDirect(arenaBlocks * blockSize));
+                remaining -= arenaBlocks;
+            }
+        }
+
+        private synchronized byte[] get(String key) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            byte[] value = new byte[entry.length];
+            int offset = 0;
+            for (int block : entry.blocks) {
+                int length = Math.min(blockSize, entry.length - offset);
+                blockBuffer(block).get(value, offset, length);
+                offset += length;
+            }
+            return value;
+        }
+
+        private synchronized boolean put(String key, byte[] value) {
+            int blocksNeeded = Math.max(1, (value.length + blockSize - 1) / blockSize);
+            if (blocksNeeded > nrBlocks) {
+                return false;
+            }
+            remove(key);
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (nrFreeBlocks < blocksNeeded && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                release(evicted);
+                evictions++;
+            }
+
+            int[] blocks = new int[blocksNeeded];
+            int offset = 0;
+            for (int i = 0; i < blocksNeeded; i++) {
+                blocks[i] = freeBlocks[--nrFreeBlocks];
+                int length = Math.min(blockSize, value.length - offset);
+                blockBuffer(blocks[i]).put(value, offset, length);
+                offset += length;
+            }
+            entries.put(key, new Entry(blocks, value.length));
+            usedBytes += value.length;
+            return true;
+        }
+
+        private synchronized void remove(String key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                release(entry);
+            }
+        }
+
+        private void release(Entry entry) {
+            for (int block : entry.blocks) {
+                freeBlocks[nrFreeBlocks++] = block;
+            }
+            usedBytes -= entry.length;
+        }
+
+        private ByteBuffer blockBuffer(int block) {
+            ByteBuffer buffer = arenas.get(block / blocksPerArena).duplicate();
+            buffer.position((block % blocksPerArena) * blockSize);
+            return buffer;
+        }
+    }
+}
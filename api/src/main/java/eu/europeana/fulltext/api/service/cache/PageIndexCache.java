@@ -0,0 +1,145 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.api.service.cache;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.CharRangeIndex;
+import eu.europeana.fulltext.api.service.SpatialIndex;
+import eu.europeana.fulltext.entity.AnnoPage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the indexes (spatial and char range) of the most recently queried AnnoPages in memory, so requests for parts
+ * of the same page (e.g. a viewer panning over a page, or a user selecting text) only have to build an index once.
+ * Indexes are built on first use. They are only returned if they were built for the same content version (or, for
+ * pages without content version, the same modified date) as the given AnnoPage.
+ */
+@Component
+public class PageIndexCache {
+
+    private static final String METRIC_NAME = "fulltext.pageindex.cache";
+
+    private final int maxEntries;
+
+    private final Counter spatialHits;
+    private final Counter spatialMisses;
+    private final Counter charRangeHits;
+    private final Counter charRangeMisses;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private static final class Entry {
+        private final String version;
+        private final int    nrAnnotations;
+        // built on first use; if two requests build the same index at the same time, the last one wins
+        private volatile SpatialIndex   spatialIndex;
+        private volatile CharRangeIndex charRangeIndex;
+
+        private Entry(String version, int nrAnnotations) {
+            this.version = version;
+            this.nrAnnotations = nrAnnotations;
+        }
+    }
+
+    @Autowired
+    public PageIndexCache(FTSettings ftSettings, MeterRegistry meterRegistry) {
+        this.maxEntries = ftSettings.getPageIndexCacheSize();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 4265083317463371263L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.spatialHits = meterRegistry.counter(METRIC_NAME + ".lookups", "index", "spatial", "result", "hit");
+        this.spatialMisses = meterRegistry.counter(METRIC_NAME + ".lookups", "index", "spatial", "result", "miss");
+        this.charRangeHits = meterRegistry.counter(METRIC_NAME + ".lookups", "index", "charrange", "result", "hit");
+        this.charRangeMisses = meterRegistry.counter(METRIC_NAME + ".lookups", "index", "charrange", "result", "miss");
+        Gauge.builder(METRIC_NAME + ".entries", this, PageIndexCache::getNrEntries).register(meterRegistry);
+    }
+
+    /**
+     * Get the spatial index of an AnnoPage, building it if it isn't in the cache yet or if it's outdated
+     * @param annoPage
+     * @return SpatialIndex
+     */
+    public SpatialIndex getSpatialIndex(AnnoPage annoPage) {
+        Entry entry = getEntry(annoPage);
+        SpatialIndex index = entry.spatialIndex;
+        if (index != null) {
+            spatialHits.increment();
+            return index;
+        }
+        spatialMisses.increment();
+        index = SpatialIndex.build(annoPage);
+        entry.spatialIndex = index;
+        return index;
+    }
+
+    /**
+     * Get the char range index of an AnnoPage, building it if it isn't in the cache yet or if it's outdated
+     * @param annoPage
+     * @return CharRangeIndex
+     */
+    public CharRangeIndex getCharRangeIndex(AnnoPage annoPage) {
+        Entry entry = getEntry(annoPage);
+        CharRangeIndex index = entry.charRangeIndex;
+        if (index != null) {
+            charRangeHits.increment();
+            return index;
+        }
+        charRangeMisses.increment();
+        index = CharRangeIndex.build(annoPage);
+        entry.charRangeIndex = index;
+        return index;
+    }
+
+    /**
+     * @return the cache entry of an AnnoPage, a new (empty) entry if there is no up-to-date entry yet
+     */
+    private Entry getEntry(AnnoPage annoPage) {
+        String key     = annoPage.getDsId() + '/' + annoPage.getLcId() + '/' + annoPage.getPgId();
+        String version = annoPage.getCv() != null ? annoPage.getCv() : String.valueOf(annoPage.getModified());
+        int    nrAnnotations = annoPage.getAns().size();
+        if (maxEntries <= 0) {
+            return new Entry(version, nrAnnotations);
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || !entry.version.equals(version) || entry.nrAnnotations != nrAnnotations) {
+                entry = new Entry(version, nrAnnotations);
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private int getNrEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -7,7 +7,8 @@ package eu.europeana.fulltext.api.service.exception;
  */
 public enum ErrorCode {
 
-    ID_DOES_NOT_EXIST("idDoesNotExist");
+    ID_DOES_NOT_EXIST("idDoesNotExist"),
+    SERVICE_BUSY("serviceBusy");
 
     private final String code;
 
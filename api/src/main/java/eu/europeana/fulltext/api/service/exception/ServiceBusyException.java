@@ -0,0 +1,25 @@
+package eu.europeana.fulltext.api.service.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Error that is thrown when a request can't be processed because the maximum number of queued requests or database
+ * queries in flight is reached. Unlike the FTExceptions this is unchecked, because the QueryLimiter throws it from
+ * inside repository calls, including the cursor reads of AnnoPageBatchIterator.hasNext()
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = -2745119308724420553L;
+
+    private final ErrorCode errorCode = ErrorCode.SERVICE_BUSY;
+
+    public ServiceBusyException(String msg) {
+        super(msg);
+    }
+
+    public ErrorCode getErrorCode() {
+        return errorCode;
+    }
+}
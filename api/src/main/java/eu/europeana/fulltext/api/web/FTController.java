@@ -1,14 +1,30 @@
 package eu.europeana.fulltext.api.web;
 
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.model.AnnoPageSummary;
 import eu.europeana.fulltext.api.model.AnnotationWrapper;
+import eu.europeana.fulltext.api.model.CharRange;
 import eu.europeana.fulltext.api.model.FullTextResource;
 import eu.europeana.fulltext.api.model.JsonErrorResponse;
+import eu.europeana.fulltext.api.model.Region;
+import eu.europeana.fulltext.api.model.TextGranularity;
+import eu.europeana.fulltext.api.model.v2.SearchResultV2;
+import eu.europeana.fulltext.api.service.AnnoPageBatchIterator;
+import eu.europeana.fulltext.api.service.AnnoPageRenderer;
 import eu.europeana.fulltext.api.service.CacheUtils;
+import eu.europeana.fulltext.api.service.FTMetrics;
 import eu.europeana.fulltext.api.service.FTService;
+import eu.europeana.fulltext.api.service.QueryExecutor;
+import eu.europeana.fulltext.api.service.SlowRequestRecorder;
 import eu.europeana.fulltext.api.service.exception.AnnoPageDoesNotExistException;
 import eu.europeana.fulltext.api.service.exception.ResourceDoesNotExistException;
 import eu.europeana.fulltext.api.service.exception.SerializationException;
 import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.ResourceInfo;
+import io.micrometer.core.instrument.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,22 +33,32 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static eu.europeana.fulltext.api.config.FTDefinitions.*;
-import static eu.europeana.fulltext.api.service.CacheUtils.generateETag;
-import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 
 /**
  * Rest controller that handles incoming fulltext requests
  * @author Lúthien
  * Created on 27-02-2018
- * Note that the eTag for the Fulltext response is created from a concatenation of:
+ * Note that if the loader stored a content version with the fetched document, the eTag is created from that content
+ * version, the requested IIIF version, the output format and the API version. Otherwise the eTag is created from
+ * a hash of:
  * - datasetId + recordId + pageId / AnnoId;
  * - modified date (toString()) of the fetched document;
  * - the requested IIIF version (2 or 3); and the
@@ -46,70 +72,693 @@ public class FTController {
     private static final Logger LOG = LogManager.getLogger(FTController.class);
     private static final String ACCEPT = "Accept";
     private static final String CONTENTTYPE = "Content-Type";
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String GZIP = "gzip";
+    // fulltext resources don't have a IIIF version, but their format is used in the eTag in the same way
+    private static final String RESOURCE_ETAG_VERSION = "edm";
+    // paths of record level endpoints, which are also valid Fulltext Resource ids
+    private static final String LIST_PATH   = "annopage";
+    private static final String SEARCH_PATH = "search";
 
     /* for parsing accept headers */
     private static final Pattern acceptProfilePattern = Pattern.compile("profile=\"(.*?)\"");
 
     private FTService fts;
 
-    public  FTController(FTService ftService) {
+    private QueryExecutor queryExecutor;
+
+    private FTMetrics metrics;
+
+    private SlowRequestRecorder slowRequests;
+
+    public  FTController(FTService ftService, QueryExecutor queryExecutor, FTMetrics metrics,
+                         SlowRequestRecorder slowRequests) {
         this.fts = ftService;
+        this.queryExecutor = queryExecutor;
+        this.metrics = metrics;
+        this.slowRequests = slowRequests;
     }
 
     /**
-     * Handles fetching a page (resource) with all its annotations
-     * @return ResponseEntity
+     * Handles fetching a page (resource) with all its annotations, or only the annotations of the requested
+     * granularity levels (textGranularity parameter, e.g. "line" or "block,line") and/or the annotations that
+     * intersect a region of the canvas (xywh parameter, e.g. "0,0,800,600") and/or the annotations that overlap a
+     * range of the page's text (char parameter, e.g. "120,135")
+     * @return ResponseEntity, or a CompletableFuture of it when queries run on a thread pool
      */
     @GetMapping(value    = "/{datasetId}/{recordId}/annopage/{pageId}")
-    public ResponseEntity<String> annopage(@PathVariable String datasetId,
+    public Object annopage(@PathVariable String datasetId,
                            @PathVariable String recordId,
                            @PathVariable String pageId,
                            @RequestParam(value = "format", required = false) String version,
-                           HttpServletRequest request) throws SerializationException {
+                           @RequestParam(value = "textGranularity", required = false) String textGranularity,
+                           @RequestParam(value = "xywh", required = false) String xywh,
+                           @RequestParam(value = "char", required = false) String chars,
+                           HttpServletRequest request) throws Exception {
+        if (fts.getSettings().isQueryAsyncMode()) {
+            return annopageAsync(datasetId, recordId, pageId, version, textGranularity, xywh, chars, request);
+        }
+        return queryExecutor.execute(() -> traced(FTMetrics.ENDPOINT_ANNOPAGE, datasetId, recordId, pageId, version,
+                () -> annopageResponse(datasetId, recordId, pageId, version, textGranularity, xywh, chars,
+                                       request)));
+    }
+
+    /**
+     * The parameters of an annopage request, which are parsed before anything is fetched
+     */
+    private static final class AnnoPageRequest {
+        private String            datasetId;
+        private String            recordId;
+        private String            pageId;
+        private String            version;
+        private List<String>      dcTypes;
+        private Region            region;
+        private CharRange         charRange;
+        private String            filter;
+        private String            eTagId;
+        private String            cacheControl;
+        private String            surrogateKeys;
+        private boolean           usePrerendered;
+        // set when the request is invalid
+        private ResponseEntity<?> error;
+
+        /**
+         * @return true if the AnnoPageInfo is needed before the AnnoPage itself is fetched
+         */
+        private boolean needsInfo(HttpServletRequest request) {
+            return usePrerendered || CacheUtils.isConditionalRequest(request);
+        }
+    }
+
+    private AnnoPageRequest parseAnnoPageRequest(String datasetId, String recordId, String pageId, String version,
+                                                 String textGranularity, String xywh, String chars,
+                                                 HttpServletRequest request) throws SerializationException {
         LOG.debug("Retrieve Annopage: " + datasetId + "/" + recordId + "/" + pageId);
+        AnnoPageRequest result = new AnnoPageRequest();
+        result.datasetId = datasetId;
+        result.recordId = recordId;
+        result.pageId = pageId;
         String acceptHeaderStatus = processAcceptHeader(request, version);
         if (StringUtils.equalsIgnoreCase(acceptHeaderStatus, "X")){
-            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+            result.error = new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+            return result;
         } else {
-            version = acceptHeaderStatus;
+            result.version = acceptHeaderStatus;
+        }
+
+        try {
+            if (StringUtils.isNotBlank(textGranularity)) {
+                result.dcTypes = TextGranularity.toDcTypes(textGranularity);
+            }
+            if (StringUtils.isNotBlank(xywh)) {
+                result.region = Region.parse(xywh);
+            }
+            if (StringUtils.isNotBlank(chars)) {
+                result.charRange = CharRange.parse(chars);
+            }
+        } catch (IllegalArgumentException e) {
+            result.error = new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse(e.getMessage())),
+                                                HttpStatus.BAD_REQUEST);
+            return result;
+        }
+        result.filter = filterKey(result.dcTypes, result.region, result.charRange);
+        result.eTagId = withFilter(datasetId + recordId + pageId, result.filter);
+        result.cacheControl  = fts.getSettings().getCacheControl(FTSettings.CACHE_ANNOPAGE);
+        result.surrogateKeys = surrogateKeys(datasetId, recordId, pageId);
+        // JSON-LD output of entire pages may have been pre-rendered by the loader, in which case we return that as-is
+        result.usePrerendered = fts.getSettings().isPrerenderedEnabled() && result.filter == null
+                                && !StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON");
+        return result;
+    }
+
+    private ResponseEntity<?> annopageResponse(String datasetId, String recordId, String pageId, String version,
+                                               String textGranularity, String xywh, String chars,
+                                               HttpServletRequest request) throws SerializationException {
+        AnnoPageRequest annoPageRequest = parseAnnoPageRequest(datasetId, recordId, pageId, version, textGranularity,
+                                                               xywh, chars, request);
+        if (annoPageRequest.error != null) {
+            return annoPageRequest.error;
+        }
+        AnnoPageInfo annoPageInfo = null;
+        if (annoPageRequest.needsInfo(request)) {
+            annoPageInfo = fts.fetchAnnoPageInfo(datasetId, recordId, pageId);
         }
+        return annopageResponse(annoPageRequest, annoPageInfo, request);
+    }
 
-        AnnotationWrapper annotationPage;
+    /**
+     * Handle an annopage request in the "async" query execution mode. The AnnoPageInfo is looked up on the async
+     * driver and conditional requests for pages that didn't change are answered straight from its callback. Only if
+     * the page itself is needed, the request continues on the query thread pool.
+     */
+    private CompletableFuture<ResponseEntity<?>> annopageAsync(String datasetId, String recordId, String pageId,
+                                                               String version, String textGranularity, String xywh,
+                                                               String chars, HttpServletRequest request)
+            throws SerializationException {
+        AnnoPageRequest annoPageRequest = parseAnnoPageRequest(datasetId, recordId, pageId, version, textGranularity,
+                                                               xywh, chars, request);
+        if (annoPageRequest.error != null) {
+            return CompletableFuture.completedFuture(annoPageRequest.error);
+        }
+        if (!annoPageRequest.needsInfo(request)) {
+            return queryExecutor.submit(() -> traced(FTMetrics.ENDPOINT_ANNOPAGE, datasetId, recordId, pageId,
+                    annoPageRequest.version, () -> annopageResponse(annoPageRequest, null, request)));
+        }
+        slowRequests.start(FTMetrics.ENDPOINT_ANNOPAGE, datasetId, recordId, pageId, annoPageRequest.version);
+        CompletableFuture<AnnoPageInfo> info  = fts.fetchAnnoPageInfoAsync(datasetId, recordId, pageId);
+        SlowRequestRecorder.Trace       trace = slowRequests.suspend();
+        return info.thenCompose(annoPageInfo -> continueAsync(trace,
+                () -> checkAnnoPageInfo(annoPageRequest, annoPageInfo, request),
+                () -> annopageResponse(annoPageRequest, annoPageInfo, request)));
+    }
+
+    /**
+     * @param annoPageInfo info of the page, null if it wasn't fetched (see AnnoPageRequest.needsInfo()) or if the
+     *                     page doesn't exist
+     */
+    private ResponseEntity<?> annopageResponse(AnnoPageRequest annoPageRequest, AnnoPageInfo annoPageInfo,
+                                               HttpServletRequest request) throws SerializationException {
+        String       datasetId      = annoPageRequest.datasetId;
+        String       recordId       = annoPageRequest.recordId;
+        String       pageId         = annoPageRequest.pageId;
+        String       version        = annoPageRequest.version;
+        List<String> dcTypes        = annoPageRequest.dcTypes;
+        Region       region         = annoPageRequest.region;
+        CharRange    charRange      = annoPageRequest.charRange;
+        String       filter         = annoPageRequest.filter;
+        String       eTagId         = annoPageRequest.eTagId;
+        String       cacheControl   = annoPageRequest.cacheControl;
+        String       surrogateKeys  = annoPageRequest.surrogateKeys;
+        boolean      usePrerendered = annoPageRequest.usePrerendered;
+
+        // for conditional requests we first check if the page has changed, without loading the entire page
+        ResponseEntity<String> notChanged = checkAnnoPageInfo(annoPageRequest, annoPageInfo, request);
+        if (notChanged != null) {
+            return notChanged;
+        }
+
+        if (usePrerendered) {
+            RenderedAnnoPage rendered = (annoPageInfo == null ? null :
+                                         fts.fetchRenderedAnnoPage(annoPageInfo, datasetId, recordId, version));
+            if (rendered != null) {
+                return renderedAnnoPageResponse(rendered, annoPageInfo, version, cacheControl, surrogateKeys,
+                                                request);
+            }
+        }
+
+        AnnoPage    annoPage;
         HttpHeaders headers;
         try {
-            AnnoPage                annoPage = fts.fetchAnnoPage(datasetId, recordId, pageId);
+            if (region == null && charRange == null) {
+                annoPage = fts.fetchAnnoPage(datasetId, recordId, pageId, dcTypes);
+            } else {
+                annoPage = fts.fetchAnnoPageSelection(datasetId, recordId, pageId, region, charRange, dcTypes);
+            }
+            slowRequests.annotations(nrAnnotations(annoPage));
             ZonedDateTime           modified = CacheUtils.dateToZonedUTC(annoPage.getModified());
-            String                  eTag     = generateETag(datasetId + recordId + pageId,
-                                                            modified,
-                                                            version,
-                                                            fts.getSettings().getAppVersion(),
-                                                            true);
-            ResponseEntity<String>  cached   = CacheUtils.checkCached(request, modified, eTag);
+            String                  eTag     = generateETag(eTagId, withFilter(annoPage.getCv(), filter),
+                                                            modified, version, request, FTMetrics.ENDPOINT_ANNOPAGE);
+            ResponseEntity<String>  cached   = CacheUtils.checkCached(request, modified, eTag, cacheControl,
+                                                                      surrogateKeys);
+            recordConditional(request, FTMetrics.ENDPOINT_ANNOPAGE, version, cached);
             if (null != cached){
-                return cached;
+                return usePrerendered ? varyOnEncoding(cached) : cached;
             }
 
-            headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified));
+            headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified),
+                                                 cacheControl, surrogateKeys);
             headers = addContentTypeToResponseHeader(headers, request, version);
-            if ("3".equalsIgnoreCase(version)) {
-                annotationPage = fts.generateAnnoPageV3(annoPage);
+            if (usePrerendered) {
+                // this page has no (up-to-date) pre-rendered output, but other responses for it may be gzipped
+                headers.add("Vary", ACCEPT_ENCODING);
+            }
+
+        } catch (AnnoPageDoesNotExistException e) {
+            LOG.warn(e.getMessage());
+            return new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse(e.getMessage())),
+                                        HttpStatus.NOT_FOUND);
+        }
+        boolean includeContext = !StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON");
+        // very large pages are written while they are mapped, so they don't take up a lot of memory
+        int streamMinAnnotations = fts.getSettings().getAnnoPageStreamMinAnnotations();
+        if (streamMinAnnotations > 0 && nrAnnotations(annoPage) >= streamMinAnnotations) {
+            return new ResponseEntity<>(streamedAnnoPage(annoPage, version, includeContext), headers,
+                                        HttpStatus.OK);
+        }
+        return okResponse(fts.renderAnnoPage(annoPage, version, includeContext, filter), headers,
+                          FTMetrics.ENDPOINT_ANNOPAGE, version);
+    }
+
+    /**
+     * For conditional requests, check if the page has changed using only its AnnoPageInfo
+     * @return the 304 or 412 response, or null if the request isn't conditional or the page did change
+     */
+    private ResponseEntity<String> checkAnnoPageInfo(AnnoPageRequest annoPageRequest, AnnoPageInfo annoPageInfo,
+                                                     HttpServletRequest request) {
+        if (annoPageInfo == null || !CacheUtils.isConditionalRequest(request)) {
+            return null;
+        }
+        String                 version  = annoPageRequest.version;
+        ZonedDateTime          modified = CacheUtils.dateToZonedUTC(annoPageInfo.getModified());
+        String                 eTag     = generateETag(annoPageRequest.eTagId,
+                                                       withFilter(annoPageInfo.getCv(), annoPageRequest.filter),
+                                                       modified, version, request, FTMetrics.ENDPOINT_ANNOPAGE);
+        // only pages with a content version can have pre-rendered output
+        if (annoPageRequest.usePrerendered && annoPageInfo.getCv() != null && acceptsGzip(request)) {
+            // that's the eTag of the pre-rendered output, if there's none the page is checked again later
+            eTag = gzipETag(eTag);
+        }
+        ResponseEntity<String> cached   = CacheUtils.checkCached(request, modified, eTag, annoPageRequest.cacheControl,
+                                                                 annoPageRequest.surrogateKeys);
+        if (cached == null) {
+            return null;
+        }
+        recordConditional(request, FTMetrics.ENDPOINT_ANNOPAGE, version, cached);
+        return annoPageRequest.usePrerendered ? varyOnEncoding(cached) : cached;
+    }
+
+    /**
+     * Return the pre-rendered (gzipped) output of an AnnoPage. If the client accepts gzip encoding the data is sent
+     * as-is (with an eTag of its own, as it's a different representation) straight from the buffer it was read into,
+     * which for pages from the local page store is the memory-mapped file. Otherwise it's decompressed first.
+     */
+    private ResponseEntity<?> renderedAnnoPageResponse(RenderedAnnoPage rendered, AnnoPageInfo annoPageInfo,
+                                                       String version, String cacheControl, String surrogateKeys,
+                                                       HttpServletRequest request) throws SerializationException {
+        String        datasetId = rendered.getDsId();
+        String        recordId  = rendered.getLcId();
+        String        pageId    = rendered.getPgId();
+        ZonedDateTime modified  = CacheUtils.dateToZonedUTC(annoPageInfo.getModified());
+        String        eTag      = generateETag(datasetId + recordId + pageId, annoPageInfo.getCv(), modified, version,
+                                               request, FTMetrics.ENDPOINT_ANNOPAGE);
+        boolean       gzip      = acceptsGzip(request);
+        if (gzip) {
+            eTag = gzipETag(eTag);
+        }
+        // conditional requests only get here when the page was changed
+        recordConditional(request, FTMetrics.ENDPOINT_ANNOPAGE, version, null);
+        HttpHeaders   headers   = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified),
+                                                             cacheControl, surrogateKeys);
+        headers = addContentTypeToResponseHeader(headers, request, version);
+        headers.add("Vary", ACCEPT_ENCODING);
+        ByteBuffer gzipped = rendered.getJsonBuffer();
+        if (gzip) {
+            headers.add(CONTENT_ENCODING, GZIP);
+            metrics.responseSize(FTMetrics.ENDPOINT_ANNOPAGE, version, gzipped.remaining());
+            return new ResponseEntity<>(new ByteBufferResource(gzipped), headers, HttpStatus.OK);
+        }
+        try {
+            byte[] json = AnnoPageRenderer.gunzip(gzipped);
+            metrics.responseSize(FTMetrics.ENDPOINT_ANNOPAGE, version, json.length);
+            return new ResponseEntity<>(json, headers, HttpStatus.OK);
+        } catch (IOException e) {
+            throw new SerializationException("Error decompressing pre-rendered AnnoPage: " + e.getMessage(), e);
+        }
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+        if (StringUtils.isBlank(acceptEncoding)) {
+            return false;
+        }
+        // an explicit gzip entry wins over the * wildcard, a q-value of 0 means "not acceptable" (RFC 7231 5.3.4)
+        Double gzipQuality     = null;
+        Double wildcardQuality = null;
+        for (String coding : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(coding, ';');
+            if (parts.length == 0) {
+                continue;
+            }
+            String name = parts[0].trim();
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                gzipQuality = quality(parts);
+            } else if ("*".equals(name)) {
+                wildcardQuality = quality(parts);
+            }
+        }
+        Double quality = (gzipQuality != null ? gzipQuality : wildcardQuality);
+        return quality != null && quality > 0;
+    }
+
+    /**
+     * @return the q-value of an Accept-Encoding entry split on ';', 1 if it has none and 0 if it's not valid
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() > 2 && Character.toLowerCase(parameter.charAt(0)) == 'q'
+                && parameter.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return copy of a 304 response with a "Vary: Accept-Encoding" header, for pages that may be sent gzipped
+     */
+    private static ResponseEntity<String> varyOnEncoding(ResponseEntity<String> cached) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(cached.getHeaders());
+        headers.add("Vary", ACCEPT_ENCODING);
+        return new ResponseEntity<>(cached.getBody(), headers, cached.getStatusCode());
+    }
+
+    /**
+     * @return the eTag of the gzip-encoded variant of a response with the given eTag
+     */
+    private static String gzipETag(String eTag) {
+        return eTag.substring(0, eTag.length() - 1) + "-gz\"";
+    }
+
+    /**
+     * Handles fetching multiple pages (resources) of a record with all their annotations in one request. Pages can be
+     * requested as a list of page ids ("pages" parameter) and/or as a numeric range ("from" and "to" parameters).
+     * Pages are returned as a JSON array, or as newline-delimited JSON when that is requested in the Accept header.
+     * Requested pages that do not exist are skipped.
+     * @return ResponseEntity
+     */
+    @GetMapping(value    = "/{datasetId}/{recordId}/annopages")
+    public ResponseEntity<StreamingResponseBody> annopages(@PathVariable String datasetId,
+                           @PathVariable String recordId,
+                           @RequestParam(value = "pages", required = false) List<String> pageIds,
+                           @RequestParam(value = "from", required = false) Integer from,
+                           @RequestParam(value = "to", required = false) Integer to,
+                           @RequestParam(value = "format", required = false) String version,
+                           HttpServletRequest request) throws SerializationException {
+        LOG.debug("Retrieve Annopages: " + datasetId + "/" + recordId + "/" + pageIds + " " + from + "-" + to);
+        boolean ndjson = StringUtils.containsIgnoreCase(request.getHeader(ACCEPT), MEDIA_TYPE_NDJSON);
+        boolean includeContext = true;
+        HttpHeaders headers = new HttpHeaders();
+        if (ndjson) {
+            version = StringUtils.isBlank(version) ? "2" : version;
+            headers.add(CONTENTTYPE, MEDIA_TYPE_NDJSON + ";" + UTF_8);
+        } else {
+            String acceptHeaderStatus = processAcceptHeader(request, version);
+            if (StringUtils.equalsIgnoreCase(acceptHeaderStatus, "X")){
+                return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
             } else {
-                annotationPage = fts.generateAnnoPageV2(annoPage);
+                version = acceptHeaderStatus;
             }
+            if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")){
+                headers.add(CONTENTTYPE, MEDIA_TYPE_JSON + ";" + UTF_8);
+                includeContext = false;
+            } else {
+                headers.add(CONTENTTYPE, MEDIA_TYPE_JSONLD + ";" + UTF_8);
+            }
+        }
 
+        List<String> requestedPageIds = new ArrayList<>();
+        if (pageIds != null) {
+            requestedPageIds.addAll(pageIds);
+        }
+        if (from != null && to != null && from <= to) {
+            if ((long) to - from >= fts.getSettings().getAnnoPageBatchMaxPages()) {
+                return errorResponse("Too many pages requested; the maximum is "
+                                     + fts.getSettings().getAnnoPageBatchMaxPages(), HttpStatus.BAD_REQUEST);
+            }
+            for (int i = from; i <= to; i++) {
+                requestedPageIds.add(String.valueOf(i));
+            }
+        }
+        if (requestedPageIds.isEmpty()) {
+            return errorResponse("No pages requested; please provide a 'pages' parameter or a valid 'from' and 'to'"
+                                 + " parameter", HttpStatus.BAD_REQUEST);
+        }
+        if (requestedPageIds.size() > fts.getSettings().getAnnoPageBatchMaxPages()) {
+            return errorResponse("Too many pages requested; the maximum is "
+                                 + fts.getSettings().getAnnoPageBatchMaxPages(), HttpStatus.BAD_REQUEST);
+        }
+
+        AnnoPageBatchIterator annoPages;
+        try {
+            annoPages = fts.fetchAnnoPages(datasetId, recordId, requestedPageIds);
         } catch (AnnoPageDoesNotExistException e) {
+            LOG.warn(e.getMessage());
+            return errorResponse(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+        final String  iiifVersion = version;
+        final boolean withContext = includeContext;
+        // pages are read from the database while they are written
+        StreamingResponseBody body = out -> {
+            try (AnnoPageBatchIterator pages = annoPages) {
+                fts.writeAnnoPages(out, pages, iiifVersion, withContext, ndjson);
+            }
+        };
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Handles listing all available pages of a record, with their modified date and (optionally) the number of
+     * annotations per page. Without annotation count this is answered from an index only.
+     * This path would hide a Fulltext Resource with id "annopage", so if the record has no pages we look for such a
+     * Resource before returning a 404.
+     * @return ResponseEntity
+     */
+    @GetMapping(value    = "/{datasetId}/{recordId}/" + LIST_PATH)
+    public ResponseEntity<String> annopageList(@PathVariable String datasetId,
+                           @PathVariable String recordId,
+                           @RequestParam(value = "count", required = false, defaultValue = "false") boolean count,
+                           HttpServletRequest request) throws SerializationException {
+        LOG.debug("List Annopages: " + datasetId + "/" + recordId);
+        HttpHeaders headers = new HttpHeaders();
+        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "X")){
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        headers.add(CONTENTTYPE, MEDIA_TYPE_JSON + ";" + UTF_8);
+
+        AnnoPageSummary[] annoPages;
+        try {
+            annoPages = fts.listAnnoPages(datasetId, recordId, count);
+        } catch (AnnoPageDoesNotExistException e) {
+            ResponseEntity<String> resource = fulltextResponse(datasetId, recordId, LIST_PATH, request);
+            if (resource.getStatusCode() != HttpStatus.NOT_FOUND) {
+                return resource;
+            }
             LOG.warn(e.getMessage());
             return new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse(e.getMessage())),
+                                        headers,
                                         HttpStatus.NOT_FOUND);
         }
-        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")){
-            annotationPage.setContext(null);
+        return new ResponseEntity<>(fts.serializeResource(annoPages),
+                                    headers,
+                                    HttpStatus.OK);
+    }
+
+    /**
+     * Handles searching the text of all pages of a record. The response is a IIIF Content Search (version 1) result
+     * with the matching word annotations, which always uses IIIF version 2.
+     * This path would hide a Fulltext Resource with id "search", so requests without a query are handled as requests
+     * for such a Resource, and only if it doesn't exist we report the missing query.
+     * @return ResponseEntity
+     */
+    @GetMapping(value    = "/{datasetId}/{recordId}/" + SEARCH_PATH)
+    public ResponseEntity<String> search(@PathVariable String datasetId,
+                           @PathVariable String recordId,
+                           @RequestParam(value = "q", required = false) String query,
+                           HttpServletRequest request) throws SerializationException {
+        LOG.debug("Search: " + datasetId + "/" + recordId + " q=" + query);
+        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "X")){
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (StringUtils.isBlank(query)) {
+            ResponseEntity<String> resource = fulltextResponse(datasetId, recordId, SEARCH_PATH, request);
+            if (resource.getStatusCode() != HttpStatus.NOT_FOUND) {
+                return resource;
+            }
+            headers.add(CONTENTTYPE, MEDIA_TYPE_JSON + ";" + UTF_8);
+            return new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse("No query; please provide a 'q' "
+                                        + "parameter")), headers, HttpStatus.BAD_REQUEST);
+        }
+
+        SearchResultV2 result;
+        try {
+            result = fts.search(datasetId, recordId, query);
+        } catch (IllegalArgumentException e) {
+            headers.add(CONTENTTYPE, MEDIA_TYPE_JSON + ";" + UTF_8);
+            return new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse(e.getMessage())),
+                                        headers,
+                                        HttpStatus.BAD_REQUEST);
+        }
+        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")) {
+            result.setContext(null);
         }
-        return new ResponseEntity<>(fts.serializeResource(annotationPage),
+        headers = addContentTypeToResponseHeader(headers, request, "2");
+        return new ResponseEntity<>(fts.serializeResource(result),
                                     headers,
                                     HttpStatus.OK);
     }
 
+    /**
+     * Generate the eTag of a response. Documents that have a content version (set by the loader) get a strong eTag
+     * based on that; for older documents we calculate a weak eTag from the id and the modified date
+     */
+    private String generateETag(String id, String contentVersion, ZonedDateTime modified, String version,
+                                HttpServletRequest request, String endpoint) {
+        Timer.Sample sample = metrics.start();
+        boolean json = StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON");
+        String eTag;
+        if (StringUtils.isNotEmpty(contentVersion)) {
+            eTag = CacheUtils.generateContentETag(contentVersion, version, json, fts.getSettings().getAppVersion());
+        } else {
+            eTag = CacheUtils.generateETag(id, modified, fts.getETagSalt(version), true,
+                                           fts.getSettings().isETagFastHash());
+        }
+        metrics.stop(sample, FTMetrics.STAGE_ETAG, endpoint, version);
+        return eTag;
+    }
+
+    /**
+     * Run a request while tracing it for the slow request recorder
+     */
+    private <T> T traced(String endpoint, String datasetId, String recordId, String id, String version,
+                         QueryExecutor.QueryTask<T> task) throws Exception {
+        slowRequests.start(endpoint, datasetId, recordId, id, version);
+        try {
+            return task.call();
+        } finally {
+            slowRequests.finish();
+        }
+    }
+
+    /**
+     * Continue a suspended request trace while running a task
+     */
+    private <T> T resumed(SlowRequestRecorder.Trace trace, QueryExecutor.QueryTask<T> task) throws Exception {
+        slowRequests.resume(trace);
+        try {
+            return task.call();
+        } finally {
+            slowRequests.finish();
+        }
+    }
+
+    /**
+     * Continue an async request once its lookup is done, in the callback of the async driver. If the request can be
+     * answered from the result of the lookup (e.g. with a 304) that's done right there, otherwise the rest of the
+     * request needs the blocking driver and is submitted to the query thread pool.
+     * @param trace  suspended trace of the request
+     * @param answer answers the request from the result of the lookup, or returns null if that's not possible
+     * @param task   handles the rest of the request
+     */
+    private CompletableFuture<ResponseEntity<?>> continueAsync(SlowRequestRecorder.Trace trace,
+                                                               Supplier<ResponseEntity<?>> answer,
+                                                               QueryExecutor.QueryTask<ResponseEntity<?>> task) {
+        slowRequests.resume(trace);
+        ResponseEntity<?> answered;
+        try {
+            answered = answer.get();
+        } catch (RuntimeException e) {
+            slowRequests.finish();
+            throw e;
+        }
+        if (answered != null) {
+            slowRequests.finish();
+            return CompletableFuture.completedFuture(answered);
+        }
+        slowRequests.suspend();
+        return queryExecutor.submit(() -> resumed(trace, task));
+    }
+
+    /**
+     * Create a response body that writes a page while its annotations are mapped. The body is written after this
+     * handler returns, so it takes over the request trace and records the size of what it actually wrote.
+     */
+    private StreamingResponseBody streamedAnnoPage(AnnoPage annoPage, String version, boolean includeContext) {
+        SlowRequestRecorder.Trace trace = slowRequests.suspend();
+        return out -> {
+            slowRequests.resume(trace);
+            try {
+                CountingOutputStream counter = new CountingOutputStream(out);
+                fts.writeAnnoPage(counter, annoPage, version, includeContext);
+                metrics.responseSize(FTMetrics.ENDPOINT_ANNOPAGE, version, counter.count);
+            } finally {
+                slowRequests.finish();
+            }
+        };
+    }
+
+    private static int nrAnnotations(AnnoPage annoPage) {
+        return annoPage.getAns() == null ? 0 : annoPage.getAns().size();
+    }
+
+    /**
+     * Record the outcome of a conditional request
+     * @param cached response returned by CacheUtils.checkCached(), null if the full response is sent
+     */
+    private void recordConditional(HttpServletRequest request, String endpoint, String version,
+                                   ResponseEntity<?> cached) {
+        if (CacheUtils.isConditionalRequest(request)) {
+            int status = (cached == null ? HttpStatus.OK.value() : cached.getStatusCodeValue());
+            metrics.conditional(endpoint, version, status);
+        }
+    }
+
+    /**
+     * Serialize a response object, recording the serialization time
+     */
+    private String serialize(Object response, String endpoint, String version) throws SerializationException {
+        Timer.Sample sample = metrics.start();
+        String result = fts.serializeResource(response);
+        metrics.stop(sample, FTMetrics.STAGE_SERIALIZATION, endpoint, version);
+        return result;
+    }
+
+    /**
+     * Create a 200 response, recording the size of the body
+     */
+    private ResponseEntity<String> okResponse(String body, HttpHeaders headers, String endpoint, String version) {
+        metrics.responseSize(endpoint, version, FTMetrics.utf8Length(body));
+        return new ResponseEntity<>(body, headers, HttpStatus.OK);
+    }
+
+    /**
+     * @return a short description of the requested granularity, region and char range, or null if the entire page
+     * is requested
+     */
+    private static String filterKey(List<String> dcTypes, Region region, CharRange charRange) {
+        if (dcTypes == null && region == null && charRange == null) {
+            return null;
+        }
+        return (dcTypes == null ? "" : String.join("", dcTypes)) + (region == null ? "" : "@" + region)
+               + (charRange == null ? "" : "#" + charRange);
+    }
+
+    /**
+     * Add the filter to a value that is used for the eTag, so filtered and unfiltered responses have a different eTag
+     * @return the value with the filter appended, or the value as-is if it's null or there is no filter
+     */
+    private static String withFilter(String value, String filter) {
+        if (value == null || filter == null) {
+            return value;
+        }
+        return value + '-' + filter;
+    }
+
+    /**
+     * @return the surrogate keys of a response, or null if surrogate keys are disabled
+     */
+    private String surrogateKeys(String datasetId, String recordId, String pageId) {
+        if (fts.getSettings().isSurrogateKeysEnabled()) {
+            return CacheUtils.generateSurrogateKeys(datasetId, recordId, pageId);
+        }
+        return null;
+    }
+
+    private ResponseEntity<StreamingResponseBody> errorResponse(String message, HttpStatus status)
+            throws SerializationException {
+        byte[] error = fts.serializeResource(new JsonErrorResponse(message)).getBytes(StandardCharsets.UTF_8);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(CONTENTTYPE, MEDIA_TYPE_JSON + ";" + UTF_8);
+        return new ResponseEntity<>(out -> out.write(error), headers, status);
+    }
+
     private HttpHeaders addContentTypeToResponseHeader(HttpHeaders headers, HttpServletRequest request, String version) {
         if ("3".equalsIgnoreCase(version)) {
             if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")) {
@@ -129,14 +778,20 @@ public class FTController {
 
     /**
      * Handles fetching a single annotation
-     * @return ResponseEntity
+     * @return ResponseEntity, or a CompletableFuture of it when queries run on a thread pool
      */
     @GetMapping(value = "/{datasetId}/{recordId}/anno/{annoID}")
-    public ResponseEntity<String> annotation(@PathVariable String datasetId,
+    public Object annotation(@PathVariable String datasetId,
                              @PathVariable String recordId,
                              @PathVariable String annoID,
                              @RequestParam(value = "format", required = false) String version,
-                             HttpServletRequest request) throws SerializationException {
+                             HttpServletRequest request) throws Exception {
+        return queryExecutor.execute(() -> traced(FTMetrics.ENDPOINT_ANNOTATION, datasetId, recordId, annoID, version,
+                () -> annotationResponse(datasetId, recordId, annoID, version, request)));
+    }
+
+    private ResponseEntity<String> annotationResponse(String datasetId, String recordId, String annoID, String version,
+                                                      HttpServletRequest request) throws SerializationException {
         LOG.debug("Retrieve Annotation: " + datasetId + "/" + recordId + "/" + annoID);
         String acceptHeaderStatus = processAcceptHeader(request, version);
 
@@ -146,22 +801,25 @@ public class FTController {
             version = acceptHeaderStatus;
         }
 
+        String cacheControl  = fts.getSettings().getCacheControl(FTSettings.CACHE_ANNOTATION);
+        String surrogateKeys = surrogateKeys(datasetId, recordId, null);
         HttpHeaders headers;
         AnnotationWrapper annotation;
         try {
             AnnoPage                annoPage = fts.fetchAPAnnotation(datasetId, recordId, annoID);
+            slowRequests.annotations(nrAnnotations(annoPage));
             ZonedDateTime           modified = CacheUtils.dateToZonedUTC(annoPage.getModified());
-            String                  eTag     = generateETag(datasetId + recordId + annoID,
-                                                            modified,
-                                                            version,
-                                                            fts.getSettings().getAppVersion(),
-                                                            true);
-            ResponseEntity<String>  cached   = CacheUtils.checkCached(request, modified, eTag);
+            String                  eTag     = generateETag(datasetId + recordId + annoID, annoPage.getCv(),
+                                                            modified, version, request, FTMetrics.ENDPOINT_ANNOTATION);
+            ResponseEntity<String>  cached   = CacheUtils.checkCached(request, modified, eTag, cacheControl,
+                                                                      surrogateKeys);
+            recordConditional(request, FTMetrics.ENDPOINT_ANNOTATION, version, cached);
             if (cached != null) {
                 return cached;
             }
 
-            headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified));
+            headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified),
+                                                 cacheControl, surrogateKeys);
             headers = addContentTypeToResponseHeader(headers, request, version);
 
             if ("3".equalsIgnoreCase(version)) {
@@ -177,66 +835,169 @@ public class FTController {
         if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")){
             annotation.setContext(null);
         }
-        return new ResponseEntity<>(fts.serializeResource(annotation),
-                                    headers,
-                                    HttpStatus.OK);
+        return okResponse(serialize(annotation, FTMetrics.ENDPOINT_ANNOTATION, version), headers,
+                          FTMetrics.ENDPOINT_ANNOTATION, version);
     }
 
     /**
      * Handles fetching a Fulltext Resource
-     * @return ResponseEntity
+     * @return ResponseEntity, or a CompletableFuture of it when queries run on a thread pool
      */
     @GetMapping(value = "/{datasetId}/{recordId}/{resId}")
-    public ResponseEntity<String> fulltextJsonLd(@PathVariable String datasetId,
+    public Object fulltextJsonLd(@PathVariable String datasetId,
                                  @PathVariable String recordId,
                                  @PathVariable String resId,
-                                 HttpServletRequest request) throws SerializationException {
+                                 HttpServletRequest request) throws Exception {
+        if (fts.getSettings().isQueryAsyncMode()) {
+            return fulltextAsync(datasetId, recordId, resId, request);
+        }
+        return queryExecutor.execute(() -> traced(FTMetrics.ENDPOINT_RESOURCE, datasetId, recordId, resId,
+                RESOURCE_ETAG_VERSION, () -> fulltextResponse(datasetId, recordId, resId, request)));
+    }
+
+    private ResponseEntity<String> fulltextResponse(String datasetId, String recordId, String resId,
+                                                    HttpServletRequest request) throws SerializationException {
         LOG.debug("Retrieve Resource: " + datasetId + "/" + recordId + "/" + resId);
+        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "X")){
+            return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
+        }
+        // for conditional requests we first check if the resource has changed, without loading its text
+        ResourceInfo resourceInfo = null;
+        if (CacheUtils.isConditionalRequest(request)) {
+            resourceInfo = fts.fetchResourceInfo(datasetId, recordId, resId);
+        }
+        return fulltextResponse(datasetId, recordId, resId, resourceInfo, request);
+    }
+
+    /**
+     * Handle a Fulltext Resource request in the "async" query execution mode, see
+     * {@link #annopageAsync(String, String, String, String, String, String, String, HttpServletRequest)}
+     */
+    private CompletableFuture<ResponseEntity<?>> fulltextAsync(String datasetId, String recordId, String resId,
+                                                               HttpServletRequest request) {
+        if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "X")){
+            return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE));
+        }
+        if (!CacheUtils.isConditionalRequest(request)) {
+            return queryExecutor.submit(() -> traced(FTMetrics.ENDPOINT_RESOURCE, datasetId, recordId, resId,
+                    RESOURCE_ETAG_VERSION, () -> fulltextResponse(datasetId, recordId, resId, null, request)));
+        }
+        slowRequests.start(FTMetrics.ENDPOINT_RESOURCE, datasetId, recordId, resId, RESOURCE_ETAG_VERSION);
+        CompletableFuture<ResourceInfo> info  = fts.fetchResourceInfoAsync(datasetId, recordId, resId);
+        SlowRequestRecorder.Trace       trace = slowRequests.suspend();
+        return info.thenCompose(resourceInfo -> continueAsync(trace,
+                () -> checkResourceInfo(datasetId, recordId, resId, resourceInfo, request),
+                () -> fulltextResponse(datasetId, recordId, resId, resourceInfo, request)));
+    }
+
+    /**
+     * For conditional requests, check if the resource has changed using only its ResourceInfo
+     * @return the 304 or 412 response, or null if the request isn't conditional or the resource did change
+     */
+    private ResponseEntity<String> checkResourceInfo(String datasetId, String recordId, String resId,
+                                                     ResourceInfo resourceInfo, HttpServletRequest request) {
+        if (resourceInfo == null || resourceInfo.getModified() == null || !CacheUtils.isConditionalRequest(request)) {
+            return null;
+        }
+        String                 cacheControl  = fts.getSettings().getCacheControl(FTSettings.CACHE_RESOURCE);
+        String                 surrogateKeys = surrogateKeys(datasetId, recordId, null);
+        ZonedDateTime          modified      = CacheUtils.dateToZonedUTC(resourceInfo.getModified());
+        String                 eTag          = generateETag(datasetId + recordId + resId, resourceInfo.getCv(),
+                                                            modified, RESOURCE_ETAG_VERSION, request,
+                                                            FTMetrics.ENDPOINT_RESOURCE);
+        ResponseEntity<String> cached        = CacheUtils.checkCached(request, modified, eTag, cacheControl,
+                                                                      surrogateKeys);
+        if (cached != null) {
+            recordConditional(request, FTMetrics.ENDPOINT_RESOURCE, RESOURCE_ETAG_VERSION, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * @param resourceInfo info of the resource, null if it wasn't fetched (for unconditional requests) or if the
+     *                     resource doesn't exist
+     */
+    private ResponseEntity<String> fulltextResponse(String datasetId, String recordId, String resId,
+                                                    ResourceInfo resourceInfo, HttpServletRequest request)
+            throws SerializationException {
         boolean includeContext = true;
-        HttpHeaders headers = new HttpHeaders();
+        String contentType;
 
         if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "X")){
             return new ResponseEntity<>(HttpStatus.NOT_ACCEPTABLE);
         } else if (StringUtils.equalsIgnoreCase(acceptHeaderJsonOrLd(request), "JSON")){
-            headers.add(CONTENTTYPE, MEDIA_TYPE_JSON +";" + UTF_8);
+            contentType = MEDIA_TYPE_JSON +";" + UTF_8;
             includeContext = false;
         } else {
-            headers.add(CONTENTTYPE, MEDIA_TYPE_JSONLD +";" + UTF_8);
+            contentType = MEDIA_TYPE_JSONLD +";" + UTF_8;
         }
 
+        String cacheControl  = fts.getSettings().getCacheControl(FTSettings.CACHE_RESOURCE);
+        String surrogateKeys = surrogateKeys(datasetId, recordId, null);
+
+        ResponseEntity<String> notChanged = checkResourceInfo(datasetId, recordId, resId, resourceInfo, request);
+        if (notChanged != null) {
+            return notChanged;
+        }
+
+        HttpHeaders headers;
         FullTextResource resource;
         try {
-            resource = fts.getFullTextResource(datasetId, recordId, resId);
+            Resource ftResource = fts.fetchResource(datasetId, recordId, resId);
+            // resources that were loaded before we started tracking modification dates can't be cached
+            if (ftResource.getModified() == null) {
+                headers = new HttpHeaders();
+            } else {
+                ZonedDateTime          modified = CacheUtils.dateToZonedUTC(ftResource.getModified());
+                String                 eTag     = generateETag(datasetId + recordId + resId, ftResource.getCv(),
+                                                               modified, RESOURCE_ETAG_VERSION, request,
+                                                               FTMetrics.ENDPOINT_RESOURCE);
+                ResponseEntity<String> cached   = CacheUtils.checkCached(request, modified, eTag, cacheControl,
+                                                                         surrogateKeys);
+                recordConditional(request, FTMetrics.ENDPOINT_RESOURCE, RESOURCE_ETAG_VERSION, cached);
+                if (cached != null) {
+                    return cached;
+                }
+                headers = CacheUtils.generateHeaders(request, eTag, CacheUtils.zonedDateTimeToString(modified),
+                                                     cacheControl, surrogateKeys);
+            }
+            headers.add(CONTENTTYPE, contentType);
+            resource = fts.generateFullTextResource(ftResource);
         } catch (ResourceDoesNotExistException e) {
             LOG.warn(e.getMessage());
+            HttpHeaders errorHeaders = new HttpHeaders();
+            errorHeaders.add(CONTENTTYPE, contentType);
             return new ResponseEntity<>(fts.serializeResource(new JsonErrorResponse(e.getMessage())),
-                                        headers,
+                                        errorHeaders,
                                         HttpStatus.NOT_FOUND);
         }
         if (!includeContext){
             resource.setContext(null);
         }
-        return new ResponseEntity<>(fts.serializeResource(resource),
-                                    headers,
-                                    HttpStatus.OK);
+        return okResponse(serialize(resource, FTMetrics.ENDPOINT_RESOURCE, RESOURCE_ETAG_VERSION), headers,
+                          FTMetrics.ENDPOINT_RESOURCE, RESOURCE_ETAG_VERSION);
     }
 
     /**
-     * For testing HEAD request performance (EA-1239)
-     * This is currently also the method that is used in production, as it seems to be the fastest (together with count)
-     * @return ResponseEntity
+     * Handles HEAD requests for an annotation page: only checks if the page exists
+     * @return ResponseEntity, or a CompletableFuture of it when queries run on a thread pool
      */
-    @RequestMapping(value    = {"/{datasetId}/{recordId}/annopage/{pageId}",
-                                "/{datasetId}/{recordId}/annopage-limitone/{pageId}"},
+    @RequestMapping(value    = "/{datasetId}/{recordId}/annopage/{pageId}",
                     method   = RequestMethod.HEAD)
-    public ResponseEntity annoPageHeadExistsOne(@PathVariable String datasetId,
+    public Object annoPageHeadExistsOne(@PathVariable String datasetId,
                                               @PathVariable String recordId,
-                                              @PathVariable String pageId) {
-        if (fts.doesAnnoPageExistByLimitOne(datasetId, recordId, pageId)){
-            return new ResponseEntity(HttpStatus.OK);
-        } else {
-            return new ResponseEntity(HttpStatus.NOT_FOUND);
+                                              @PathVariable String pageId) throws Exception {
+        if (fts.getSettings().isQueryAsyncMode()) {
+            return fts.doesAnnoPageExistAsync(datasetId, recordId, pageId)
+                      .thenApply(exists -> new ResponseEntity(exists ? HttpStatus.OK : HttpStatus.NOT_FOUND));
         }
+        return queryExecutor.execute(() -> {
+            if (fts.doesAnnoPageExistByLimitOne(datasetId, recordId, pageId)){
+                return new ResponseEntity(HttpStatus.OK);
+            } else {
+                return new ResponseEntity(HttpStatus.NOT_FOUND);
+            }
+        });
     }
 
 
@@ -287,53 +1048,37 @@ public class FTController {
                (StringUtils.containsIgnoreCase(accept, MEDIA_TYPE_JSONLD));
     }
 
-    // ---- deprecated testing stuff ----
-
     /**
-     * for testing HEAD request performance (EA-1239)
-     * @return
-     * @deprecated
+     * For testing retrieving the version from the pom file
      */
-    @Deprecated
-    @RequestMapping(value    = "/{datasetId}/{recordId}/annopage-countone/{pageId}",
-                    method   = RequestMethod.HEAD,
-                    produces = APPLICATION_JSON_VALUE)
-    public ResponseEntity annoPageHeadCountOne(@PathVariable String datasetId,
-                                       @PathVariable String recordId,
-                                       @PathVariable String pageId) {
-        if (fts.doesAnnoPageExistByCount(datasetId, recordId, pageId)){
-            return new ResponseEntity(HttpStatus.OK);
-        } else {
-            return new ResponseEntity(HttpStatus.NOT_FOUND);
-        }
+    @GetMapping(value = "/showversion")
+    public ResponseEntity<String> showVersion() throws SerializationException {
+        String response = "The version of this API is: " + fts.getSettings().getAppVersion();
+        return new ResponseEntity<>(fts.serializeResource(response), HttpStatus.I_AM_A_TEAPOT);
     }
 
     /**
-     * for testing HEAD request performance (EA-1239)
-     * @return
-     * @deprecated
+     * Counts the bytes written to the response
      */
-    @Deprecated
-    @RequestMapping(value    = "/{datasetId}/{recordId}/annopage-findone/{pageId}",
-            method   = RequestMethod.HEAD,
-            produces = APPLICATION_JSON_VALUE)
-    public ResponseEntity annoPageHeadFindOne(@PathVariable String datasetId,
-                                       @PathVariable String recordId,
-                                       @PathVariable String pageId) {
-        if (fts.doesAnnoPageExistsByFindOne(datasetId, recordId, pageId)){
-            return new ResponseEntity(HttpStatus.OK);
-        } else {
-            return new ResponseEntity(HttpStatus.NOT_FOUND);
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
         }
-    }
 
-    /**
-     * For testing retrieving the version from the pom file
-     */
-    @GetMapping(value = "/showversion")
-    public ResponseEntity<String> showVersion() throws SerializationException {
-        String response = "The version of this API is: " + fts.getSettings().getAppVersion();
-        return new ResponseEntity<>(fts.serializeResource(response), HttpStatus.I_AM_A_TEAPOT);
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
     }
 
 }
@@ -0,0 +1,113 @@
+package eu.europeana.fulltext.api;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.QueryLimiter;
+import eu.europeana.fulltext.api.service.cache.AnnoPageExistenceFilter;
+import eu.europeana.fulltext.api.service.cache.AnnoPageExistenceFilter.Lookup;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests that the existence filter answers lookups without querying the database, and that it's bypassed as soon as
+ * the check on a timer finds pages that were loaded after the filter was built
+ */
+public class AnnoPageExistenceFilterTest {
+
+    private final List<String> pageIds = new ArrayList<>();
+
+    private FTSettings              settings;
+    private AnnoPageRepositoryImpl  repository;
+    private SimpleMeterRegistry     meterRegistry;
+    private AnnoPageExistenceFilter filter;
+
+    @Before
+    public void setup() {
+        settings = mock(FTSettings.class);
+        given(settings.isExistenceFilterEnabled()).willReturn(true);
+        given(settings.getExistenceFilterFpp()).willReturn(0.01);
+        given(settings.getExistenceFilterMaxBytes()).willReturn(1024L * 1024L);
+        given(settings.getExistenceFilterInsertCheckMs()).willReturn(60_000L);
+
+        repository = mock(AnnoPageRepositoryImpl.class);
+        given(repository.count()).willAnswer(invocation -> (long) pageIds.size());
+        given(repository.scanPageKeys(any())).willAnswer(invocation -> {
+            AnnoPageRepositoryImpl.PageKeyConsumer consumer = invocation.getArgument(0);
+            for (String pageId : pageIds) {
+                consumer.accept("ds1", "lc1", pageId);
+            }
+            return (long) pageIds.size();
+        });
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new AnnoPageExistenceFilter(settings, repository, new QueryLimiter(settings), meterRegistry);
+        pageIds.add("pg1");
+        filter.refresh();
+    }
+
+    /**
+     * Pages that aren't in the filter are reported as absent without querying the database; the only check for
+     * inserted pages is the one when the filter was built
+     */
+    @Test
+    public void testAbsent() {
+        assertEquals(Lookup.MIGHT_EXIST, filter.lookup("ds1", "lc1", "pg1"));
+        assertEquals(Lookup.ABSENT, filter.lookup("ds1", "lc1", "pg2"));
+        assertEquals(Lookup.ABSENT, filter.lookup("ds1", "lc1", "pg3"));
+        verify(repository, times(1)).existsInsertedSince(any());
+    }
+
+    /**
+     * A page that is created after the filter was built is not reported as absent once the timed check has found it,
+     * and the filter is bypassed until it's rebuilt
+     */
+    @Test
+    public void testPageCreatedAfterRefresh() {
+        pageIds.add("pg2");
+        given(repository.existsInsertedSince(any())).willReturn(true);
+        filter.checkForInserts();
+        assertEquals(Lookup.NOT_CHECKED, filter.lookup("ds1", "lc1", "pg2"));
+        assertEquals(Lookup.NOT_CHECKED, filter.lookup("ds1", "lc1", "pg3"));
+        verify(repository, times(2)).existsInsertedSince(any());
+
+        given(repository.existsInsertedSince(any())).willReturn(false);
+        filter.refresh();
+        assertEquals(Lookup.MIGHT_EXIST, filter.lookup("ds1", "lc1", "pg2"));
+        assertEquals(Lookup.ABSENT, filter.lookup("ds1", "lc1", "pg3"));
+    }
+
+    /**
+     * The filter isn't trusted when the check for inserted pages hasn't succeeded for twice its interval
+     */
+    @Test
+    public void testNotVerified() throws InterruptedException {
+        given(settings.getExistenceFilterInsertCheckMs()).willReturn(1L);
+        Thread.sleep(10);
+        assertEquals(Lookup.NOT_CHECKED, filter.lookup("ds1", "lc1", "pg2"));
+        filter.checkForInserts();
+        given(settings.getExistenceFilterInsertCheckMs()).willReturn(60_000L);
+        assertEquals(Lookup.ABSENT, filter.lookup("ds1", "lc1", "pg2"));
+    }
+
+    /**
+     * Only pages that the filter said might exist count as false positive when they're not found
+     */
+    @Test
+    public void testFalsePositives() {
+        filter.reportNotFound(filter.lookup("ds1", "lc1", "pg1"));
+        filter.reportNotFound(Lookup.NOT_CHECKED);
+        filter.reportNotFound(Lookup.ABSENT);
+        assertEquals(1.0, meterRegistry.get("fulltext.existence.filter.lookups").tag("result", "false_positive")
+                                       .counter().count(), 0.0);
+    }
+}
@@ -2,28 +2,56 @@ package eu.europeana.fulltext.api;
 
 
 import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.model.JsonErrorResponse;
+import eu.europeana.fulltext.api.model.v2.SearchResultV2;
+import eu.europeana.fulltext.api.service.AnnoPageBatchIterator;
 import eu.europeana.fulltext.api.service.CacheUtils;
+import eu.europeana.fulltext.api.service.FTMetrics;
 import eu.europeana.fulltext.api.service.FTService;
+import eu.europeana.fulltext.api.service.QueryExecutor;
+import eu.europeana.fulltext.api.service.SlowRequestRecorder;
 import eu.europeana.fulltext.api.service.exception.AnnoPageDoesNotExistException;
+import eu.europeana.fulltext.api.service.exception.ResourceDoesNotExistException;
 import eu.europeana.fulltext.api.service.exception.SerializationException;
 import eu.europeana.fulltext.api.web.FTController;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.ResourceInfo;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 import static eu.europeana.fulltext.api.TestUtils.*;
 import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_IIIF_V2;
 import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_IIIF_V3;
 import static org.hamcrest.CoreMatchers.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.ArgumentMatchers.startsWith;
 import static org.mockito.BDDMockito.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
@@ -38,6 +66,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @WebMvcTest(FTController.class)
+@Import(QueryExecutor.class)
 //@AutoConfigureMockMvc
 public class FTControllerTest {
 
@@ -50,6 +79,7 @@ public class FTControllerTest {
     private static final String JSONLD_ANN_V3_1_OUTPUT  = "{Annotation_V3_1 : JSONLD}";
     private static final String JSONLD_ANN_V3_2_OUTPUT  = "{Annotation_V3_2 : JSONLD}";
     private static final String JSONLD_ANN_V3_3_OUTPUT  = "{Annotation_V3_3 : JSONLD}";
+    private static final String JSON_ERROR_OUTPUT       = "{error : JSON}";
     private static final String THE_WRONG_ETAG          = "W/\"abcdef0123456789\"";
     private static final String ANOTHER_WRONG_ETAG      = "W/\"bcdefa1234567890\"";
 
@@ -98,13 +128,21 @@ public class FTControllerTest {
     private FTSettings ftSettings;
     @MockBean
     private CacheUtils cacheUtils;
+    @MockBean
+    private FTMetrics  ftMetrics;
+    @MockBean
+    private SlowRequestRecorder slowRequestRecorder;
 
     @Before
     public void setup() throws AnnoPageDoesNotExistException, SerializationException {
 
-        given(ftService.fetchAnnoPage(any(), any(), any())).willReturn(anp_1);
+        given(ftService.fetchAnnoPage(any(), any(), any(), any())).willReturn(anp_1);
+        given(ftService.fetchAnnoPageSelection(any(), any(), any(), any(), any(), any())).willReturn(anp_1);
         given(ftService.generateAnnoPageV2(anp_1)).willReturn(anpv2_1);
         given(ftService.generateAnnoPageV3(anp_1)).willReturn(anpv3_1);
+        given(ftService.renderAnnoPage(eq(anp_1), eq("2"), anyBoolean(), any())).willReturn(JSONLD_ANP_V2_OUTPUT);
+        given(ftService.renderAnnoPage(eq(anp_1), eq("3"), anyBoolean(), any())).willReturn(JSONLD_ANP_V3_OUTPUT);
+        given(ftService.fetchAnnoPages(any(), any(), any())).willReturn(mock(AnnoPageBatchIterator.class));
         given(ftService.fetchAPAnnotation(any(), any(), any())).willReturn(anp_1);
         given(ftService.generateAnnotationV2(any(), eq("an1"))).willReturn(annv2_1);
         given(ftService.generateAnnotationV2(any(), eq("an2"))).willReturn(annv2_2);
@@ -121,11 +159,15 @@ public class FTControllerTest {
         given(ftService.serializeResource(annv3_1)).willReturn(JSONLD_ANN_V3_1_OUTPUT);
         given(ftService.serializeResource(annv3_2)).willReturn(JSONLD_ANN_V3_2_OUTPUT);
         given(ftService.serializeResource(annv3_3)).willReturn(JSONLD_ANN_V3_3_OUTPUT);
+        given(ftService.serializeResource(any(JsonErrorResponse.class))).willReturn(JSON_ERROR_OUTPUT);
 
         given(ftService.doesAnnoPageExistByLimitOne(any(), any(), startsWith("a"))).willReturn(true);
         given(ftService.doesAnnoPageExistByLimitOne(any(), any(), startsWith("z"))).willReturn(false);
 
         given(ftSettings.getAppVersion()).willReturn("v1.0-test");
+        given(ftService.getETagSalt(anyString()))
+                .willAnswer(invocation -> new CacheUtils.ETagSalt("v1.0-test", invocation.getArgument(0)));
+        given(ftSettings.getAnnoPageBatchMaxPages()).willReturn(5);
         given(ftService.getSettings()).willReturn(ftSettings);
 
         v2ETag = TestUtils.getETagFromIds("bombombom",
@@ -267,6 +309,125 @@ public class FTControllerTest {
                     .andExpect(status().isNotFound());
     }
 
+    /**
+     * Batch Annotationpage test: pages can be requested by id and by range, but not more than the configured maximum
+     */
+    @Test
+    public void testGetAnnopages() throws Exception {
+        MvcResult result = this.mockMvc.perform(get("/presentation/knikkebeen/takkebeen/annopages")
+                                                        .param("pages", "a,b")
+                                                        .param("from", "1")
+                                                        .param("to", "3"))
+                                       .andExpect(request().asyncStarted())
+                                       .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andDo(print());
+        verify(ftService).fetchAnnoPages("knikkebeen", "takkebeen", Arrays.asList("a", "b", "1", "2", "3"));
+
+        result = this.mockMvc.perform(get("/presentation/knikkebeen/takkebeen/annopages")
+                                              .param("from", "1")
+                                              .param("to", "6"))
+                             .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isBadRequest())
+                    .andDo(print());
+
+        result = this.mockMvc.perform(get("/presentation/knikkebeen/takkebeen/annopages"))
+                             .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isBadRequest())
+                    .andDo(print());
+    }
+
+    /**
+     * Annotationpage test with a textGranularity filter: the granularity is passed on as dcTypes, unknown values
+     * result in a HTTP 400
+     */
+    @Test
+    public void testGetAnnopageTextGranularity() throws Exception {
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/1")
+                                     .param("textGranularity", "Line,block"))
+                    .andExpect(status().isOk());
+        verify(ftService).fetchAnnoPage("fiets", "bel", "1", Arrays.asList("B", "L"));
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/1")
+                                     .param("textGranularity", "paragraph"))
+                    .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Annotationpage test with a region and/or char range: the page is fetched with fetchAnnoPageSelection, invalid
+     * regions or char ranges result in a HTTP 400
+     */
+    @Test
+    public void testGetAnnopageSelection() throws Exception {
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/1")
+                                     .param("xywh", "0,0,800,600")
+                                     .param("textGranularity", "word"))
+                    .andExpect(status().isOk());
+        verify(ftService).fetchAnnoPageSelection(eq("fiets"), eq("bel"), eq("1"), any(), isNull(),
+                                                 eq(Collections.singletonList("W")));
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/2")
+                                     .param("char", "0,20"))
+                    .andExpect(status().isOk());
+        verify(ftService).fetchAnnoPageSelection(eq("fiets"), eq("bel"), eq("2"), isNull(), any(), isNull());
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/1")
+                                     .param("xywh", "0,0,-800,600"))
+                    .andExpect(status().isBadRequest());
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/annopage/1")
+                                     .param("char", "20,5"))
+                    .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Search test: the query is passed on to the service, a missing query results in a HTTP 400 (unless there is a
+     * Resource with id "search", see testResourceWithEndpointId)
+     */
+    @Test
+    public void testSearch() throws Exception {
+        given(ftService.fetchResource(any(), any(), eq("search")))
+                .willThrow(new ResourceDoesNotExistException("No Resource search"));
+        given(ftService.search(any(), any(), any())).willReturn(new SearchResultV2("search"));
+        given(ftService.serializeResource(any(SearchResultV2.class))).willReturn("{SearchResult : JSONLD}");
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/search").param("q", "wickie"))
+                    .andExpect(status().isOk())
+                    .andExpect(content().string("{SearchResult : JSONLD}"));
+        verify(ftService).search("fiets", "bel", "wickie");
+
+        this.mockMvc.perform(get("/presentation/fiets/bel/search"))
+                    .andExpect(status().isBadRequest());
+    }
+
+    /**
+     * Resources with the same id as a record level endpoint ("annopage", "search") can still be retrieved when the
+     * endpoint has nothing to return
+     */
+    @Test
+    public void testResourceWithEndpointId() throws Exception {
+        given(ftService.listAnnoPages(any(), any(), anyBoolean()))
+                .willThrow(new AnnoPageDoesNotExistException("No AnnoPages"));
+        for (String resId : new String[] {"annopage", "search"}) {
+            Resource resource = new Resource(resId, "nl", "Sjakie en de chocoladefabriek", "roald", "dahl");
+            resource.setModified(lastModifiedDate);
+            given(ftService.fetchResource(any(), any(), eq(resId))).willReturn(resource);
+            given(ftService.fetchResourceInfo(any(), any(), eq(resId)))
+                    .willReturn(new ResourceInfo(resId, lastModifiedDate, null));
+            String eTag = TestUtils.getETagFromIds("roald", "dahl", resId, "edm", ftSettings.getAppVersion(), true);
+
+            this.mockMvc.perform(get("/presentation/roald/dahl/" + resId)
+                                         .header(HEADER_IFNONEMATCH, eTag))
+                        .andExpect(header().string(HEADER_ETAG, containsString(eTag)))
+                        .andExpect(status().isNotModified());
+            verify(ftService).fetchResourceInfo("roald", "dahl", resId);
+            verify(ftService, never()).fetchResource(any(), any(), eq(resId));
+        }
+    }
+
     /**
      * test record-exist HEAD call
      *
@@ -343,6 +504,240 @@ public class FTControllerTest {
 
     }
 
+    /**
+     * test that a conditional request for an AnnoPage with a content version is answered with a strong eTag, without
+     * loading the AnnoPage itself
+     */
+    @Test
+    public void testIfNoneMatchAnnoPageContentVersion() throws Exception {
+        given(ftService.fetchAnnoPageInfo(any(), any(), eq("versioned")))
+                .willReturn(AnnoPageInfo.withCv("versioned", lastModifiedDate, "0123456789abcdef01234567"));
+        String contentETag = CacheUtils.generateContentETag("0123456789abcdef01234567", "2", false,
+                                                            ftSettings.getAppVersion());
+
+        this.mockMvc.perform(get("/presentation/dubbel/dekker/annopage/versioned")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                     .header(HEADER_IFNONEMATCH, contentETag))
+                    .andExpect(header().string(HEADER_ETAG, contentETag))
+                    .andExpect(content().string(""))
+                    .andExpect(status().isNotModified())
+                    .andDo(print());
+        verify(ftService, never()).fetchAnnoPage(any(), any(), eq("versioned"), any());
+    }
+
+    /**
+     * test that in async mode HEAD requests and conditional requests for unchanged pages are answered from the async
+     * lookups, while other requests still load the AnnoPage
+     */
+    @Test
+    public void testAsyncMode() throws Exception {
+        given(ftSettings.isQueryAsyncMode()).willReturn(true);
+        given(ftService.doesAnnoPageExistAsync(any(), any(), eq("asyncpage")))
+                .willReturn(CompletableFuture.completedFuture(true));
+        given(ftService.fetchAnnoPageInfoAsync(any(), any(), eq("asyncpage")))
+                .willReturn(CompletableFuture.completedFuture(
+                        AnnoPageInfo.withCv("asyncpage", lastModifiedDate, "0123456789abcdef01234567")));
+        String contentETag = CacheUtils.generateContentETag("0123456789abcdef01234567", "2", false,
+                                                            ftSettings.getAppVersion());
+
+        MvcResult result = this.mockMvc.perform(head("/presentation/dubbel/dekker/annopage/asyncpage"))
+                                       .andExpect(request().asyncStarted())
+                                       .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk());
+
+        result = this.mockMvc.perform(get("/presentation/dubbel/dekker/annopage/asyncpage")
+                                              .header(HEADER_ACCEPT,
+                                                      "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                              .header(HEADER_IFNONEMATCH, contentETag))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(header().string(HEADER_ETAG, contentETag))
+                    .andExpect(status().isNotModified())
+                    .andDo(print());
+        verify(ftService, never()).fetchAnnoPage(any(), any(), eq("asyncpage"), any());
+        verify(ftService, never()).doesAnnoPageExistByLimitOne(any(), any(), eq("asyncpage"));
+        verify(ftService, never()).fetchAnnoPageInfo(any(), any(), eq("asyncpage"));
+
+        // the eTag doesn't match, so the page is loaded
+        result = this.mockMvc.perform(get("/presentation/dubbel/dekker/annopage/asyncpage")
+                                              .header(HEADER_ACCEPT,
+                                                      "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                              .header(HEADER_IFNONEMATCH, THE_WRONG_ETAG))
+                             .andExpect(request().asyncStarted())
+                             .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andDo(print());
+        verify(ftService).fetchAnnoPage(any(), any(), eq("asyncpage"), any());
+    }
+
+    /**
+     * test that very large AnnoPages are written by the service while the response is sent, and that the size of what
+     * was actually written is recorded
+     */
+    @Test
+    public void testStreamedAnnoPage() throws Exception {
+        byte[] output = JSONLD_ANP_V2_OUTPUT.getBytes(StandardCharsets.UTF_8);
+        given(ftSettings.getAnnoPageStreamMinAnnotations()).willReturn(anp_1.getAns().size());
+        willAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write(output);
+            return null;
+        }).given(ftService).writeAnnoPage(any(), eq(anp_1), eq("2"), anyBoolean());
+
+        MvcResult result = this.mockMvc.perform(get("/presentation/globl/klok/annopage/bogloe"))
+                                       .andExpect(request().asyncStarted())
+                                       .andReturn();
+        this.mockMvc.perform(asyncDispatch(result))
+                    .andExpect(status().isOk())
+                    .andExpect(content().json(JSONLD_ANP_V2_OUTPUT));
+        verify(ftService, never()).renderAnnoPage(any(), any(), anyBoolean(), any());
+        verify(ftMetrics).responseSize(FTMetrics.ENDPOINT_ANNOPAGE, "2", output.length);
+    }
+
+    /**
+     * test that pre-rendered AnnoPages are returned as-is (gzipped) when enabled and accepted by the client, with an
+     * eTag that differs from the one of the decompressed output
+     */
+    @Test
+    public void testPrerenderedAnnoPage() throws Exception {
+        byte[] gzipped = TestUtils.gzip(JSONLD_ANP_V2_OUTPUT);
+        AnnoPageInfo annoPageInfo = AnnoPageInfo.withCv("prerendered", lastModifiedDate, "0123456789abcdef01234567");
+        given(ftSettings.isPrerenderedEnabled()).willReturn(true);
+        given(ftService.fetchAnnoPageInfo(any(), any(), eq("prerendered"))).willReturn(annoPageInfo);
+        given(ftService.fetchRenderedAnnoPage(eq(annoPageInfo), any(), any(), eq("2")))
+                .willReturn(new RenderedAnnoPage("gebakken", "lucht", "prerendered", "2",
+                                                 "0123456789abcdef01234567",
+                                                 ByteBuffer.wrap(gzipped).asReadOnlyBuffer()));
+        String eTag     = CacheUtils.generateContentETag("0123456789abcdef01234567", "2", false,
+                                                         ftSettings.getAppVersion());
+        String gzipETag = eTag.substring(0, eTag.length() - 1) + "-gz\"";
+
+        this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                     .header("Accept-Encoding", "gzip, deflate"))
+                    .andExpect(header().string("Content-Encoding", "gzip"))
+                    .andExpect(header().string(HEADER_ETAG, gzipETag))
+                    .andExpect(header().stringValues(HEADER_VARY, hasItem("Accept-Encoding")))
+                    .andExpect(header().longValue("Content-Length", gzipped.length))
+                    .andExpect(content().bytes(gzipped))
+                    .andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\""))
+                    .andExpect(header().doesNotExist("Content-Encoding"))
+                    .andExpect(header().string(HEADER_ETAG, eTag))
+                    .andExpect(header().stringValues(HEADER_VARY, hasItem("Accept-Encoding")))
+                    .andExpect(content().string(JSONLD_ANP_V2_OUTPUT))
+                    .andExpect(status().isOk());
+
+        // the eTag of the gzipped output only matches when the client accepts gzip
+        this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                     .header("Accept-Encoding", "gzip, deflate")
+                                     .header(HEADER_IFNONEMATCH, gzipETag))
+                    .andExpect(header().string(HEADER_ETAG, gzipETag))
+                    .andExpect(header().stringValues(HEADER_VARY, hasItem("Accept-Encoding")))
+                    .andExpect(status().isNotModified());
+
+        this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                     .header(HEADER_IFNONEMATCH, gzipETag))
+                    .andExpect(header().string(HEADER_ETAG, eTag))
+                    .andExpect(content().string(JSONLD_ANP_V2_OUTPUT))
+                    .andExpect(status().isOk());
+        verify(ftService, never()).fetchAnnoPage(any(), any(), eq("prerendered"), any());
+    }
+
+    /**
+     * test that gzip is only used when the Accept-Encoding header allows it, taking q-values into account
+     */
+    @Test
+    public void testPrerenderedAnnoPageAcceptEncoding() throws Exception {
+        byte[] gzipped = TestUtils.gzip(JSONLD_ANP_V2_OUTPUT);
+        AnnoPageInfo annoPageInfo = AnnoPageInfo.withCv("prerendered", lastModifiedDate, "0123456789abcdef01234567");
+        given(ftSettings.isPrerenderedEnabled()).willReturn(true);
+        given(ftService.fetchAnnoPageInfo(any(), any(), eq("prerendered"))).willReturn(annoPageInfo);
+        given(ftService.fetchRenderedAnnoPage(eq(annoPageInfo), any(), any(), eq("2")))
+                .willAnswer(invocation -> new RenderedAnnoPage("gebakken", "lucht", "prerendered", "2",
+                                                               "0123456789abcdef01234567",
+                                                               ByteBuffer.wrap(gzipped).asReadOnlyBuffer()));
+
+        for (String acceptEncoding : new String[] {"gzip;q=0, deflate", "deflate, GZIP; q=0.0", "*;q=0", "identity",
+                                                   "*, gzip;q=0"}) {
+            this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                         .header(HEADER_ACCEPT,
+                                                 "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                         .header("Accept-Encoding", acceptEncoding))
+                        .andExpect(header().doesNotExist("Content-Encoding"))
+                        .andExpect(content().string(JSONLD_ANP_V2_OUTPUT))
+                        .andExpect(status().isOk());
+        }
+        for (String acceptEncoding : new String[] {"gzip;q=0.5", "deflate;q=1, x-gzip", "*",
+                                                   "deflate;q=0, *;q=0.1"}) {
+            this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/prerendered")
+                                         .header(HEADER_ACCEPT,
+                                                 "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                         .header("Accept-Encoding", acceptEncoding))
+                        .andExpect(header().string("Content-Encoding", "gzip"))
+                        .andExpect(content().bytes(gzipped))
+                        .andExpect(status().isOk());
+        }
+    }
+
+    /**
+     * test that If-None-Match is checked for pages without a content version when pre-rendered output is enabled
+     * (such pages have no pre-rendered output)
+     */
+    @Test
+    public void testPrerenderedEnabledPageWithoutCv() throws Exception {
+        given(ftSettings.isPrerenderedEnabled()).willReturn(true);
+        given(ftService.fetchAnnoPageInfo(any(), any(), eq("nocv")))
+                .willReturn(AnnoPageInfo.withCv("nocv", lastModifiedDate, null));
+        String eTag = TestUtils.getETagFromIds("gebakken", "lucht", "nocv", "2", ftSettings.getAppVersion(), true);
+
+        this.mockMvc.perform(get("/presentation/gebakken/lucht/annopage/nocv")
+                                     .header(HEADER_ACCEPT,
+                                             "application/ld+json;profile=\"" + MEDIA_TYPE_IIIF_V2 + "\"")
+                                     .header("Accept-Encoding", "gzip")
+                                     .header(HEADER_IFNONEMATCH, eTag))
+                    .andExpect(header().string(HEADER_ETAG, eTag))
+                    .andExpect(header().stringValues(HEADER_VARY, hasItem("Accept-Encoding")))
+                    .andExpect(status().isNotModified());
+        verify(ftService, never()).fetchRenderedAnnoPage(any(), any(), any(), any());
+        verify(ftService, never()).fetchAnnoPage(any(), any(), eq("nocv"), any());
+    }
+
+    /**
+     * test that the Fulltext Resource endpoint returns the caching headers and handles If-None-Match, without loading
+     * the text of the Resource
+     */
+    @Test
+    public void testIfNoneMatchResource() throws Exception {
+        Resource resource = new Resource("sjakie", "nl", "Sjakie en de chocoladefabriek", "roald", "dahl");
+        resource.setModified(lastModifiedDate);
+        given(ftService.fetchResource(any(), any(), eq("sjakie"))).willReturn(resource);
+        given(ftService.fetchResourceInfo(any(), any(), eq("sjakie")))
+                .willReturn(new ResourceInfo("sjakie", lastModifiedDate, null));
+        String eTag = TestUtils.getETagFromIds("roald", "dahl", "sjakie", "edm", ftSettings.getAppVersion(), true);
+
+        this.mockMvc.perform(get("/presentation/roald/dahl/sjakie")
+                                     .header(HEADER_IFNONEMATCH, eTag))
+                    .andExpect(header().string(HEADER_ETAG, containsString(eTag)))
+                    .andExpect(header().string(HEADER_LASTMODIFIED, containsString(LASTMODIFIED_GMT)))
+                    .andExpect(content().string(""))
+                    .andExpect(status().isNotModified())
+                    .andDo(print());
+        verify(ftService, never()).fetchResource(any(), any(), any());
+        verify(ftService, never()).generateFullTextResource(any());
+    }
+
     /**
      * test for the If-Match header handling for AnnoPage
      */
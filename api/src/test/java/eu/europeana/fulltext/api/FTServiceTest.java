@@ -17,29 +17,84 @@
 
 package eu.europeana.fulltext.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.model.AnnoPageSummary;
+import eu.europeana.fulltext.api.model.CharRange;
+import eu.europeana.fulltext.api.model.Region;
 import eu.europeana.fulltext.api.model.v2.AnnotationPageV2;
 import eu.europeana.fulltext.api.model.v2.AnnotationV2;
+import eu.europeana.fulltext.api.model.v2.SearchResultV2;
 import eu.europeana.fulltext.api.model.v3.AnnotationPageV3;
 import eu.europeana.fulltext.api.model.v3.AnnotationV3;
+import eu.europeana.fulltext.api.service.AnnoPageBatchIterator;
 import eu.europeana.fulltext.api.service.CacheUtils;
 import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.AsyncInfoRepository;
+import eu.europeana.fulltext.repository.impl.PageTermsRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.RenderedAnnoPageRepositoryImpl;
 import eu.europeana.fulltext.repository.impl.ResourceRepositoryImpl;
+import eu.europeana.fulltext.api.service.CharRangeIndex;
 import eu.europeana.fulltext.api.service.EDM2IIIFMapping;
+import eu.europeana.fulltext.api.service.FTMetrics;
 import eu.europeana.fulltext.api.service.FTService;
+import eu.europeana.fulltext.api.service.QueryLimiter;
+import eu.europeana.fulltext.api.service.SearchTerms;
+import eu.europeana.fulltext.api.service.SpatialIndex;
+import eu.europeana.fulltext.api.service.cache.AnnoPageCache;
+import eu.europeana.fulltext.api.service.cache.AnnoPageCodec;
+import eu.europeana.fulltext.api.service.cache.AnnoPageExistenceFilter;
+import eu.europeana.fulltext.api.service.cache.LocalPageStore;
+import eu.europeana.fulltext.api.service.cache.PageIndexCache;
 import eu.europeana.fulltext.api.service.exception.AnnoPageDoesNotExistException;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.PageTerm;
+import eu.europeana.fulltext.entity.PageTerms;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.Target;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mongodb.morphia.query.MorphiaIterator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static eu.europeana.fulltext.api.TestUtils.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
 
 /**
@@ -47,7 +102,7 @@ import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEqua
  */
 @RunWith(SpringJUnit4ClassRunner.class)
 @TestPropertySource(locations = "classpath:fulltext-test.properties")
-@SpringBootTest(classes = {FTService.class, FTSettings.class, EDM2IIIFMapping.class})
+@SpringBootTest(classes = {FTService.class, FTSettings.class, EDM2IIIFMapping.class, QueryLimiter.class})
 public class FTServiceTest {
 
 
@@ -58,6 +113,22 @@ public class FTServiceTest {
     private AnnoPageRepositoryImpl apRepository;
     @MockBean
     private ResourceRepositoryImpl resRepository;
+    @MockBean
+    private RenderedAnnoPageRepositoryImpl renderedRepository;
+    @MockBean
+    private PageTermsRepositoryImpl pageTermsRepository;
+    @MockBean
+    private AnnoPageExistenceFilter existenceFilter;
+    @MockBean
+    private LocalPageStore localPageStore;
+    @MockBean
+    private AnnoPageCache annoPageCache;
+    @MockBean
+    private PageIndexCache pageIndexCache;
+    @MockBean
+    private FTMetrics ftMetrics;
+    @MockBean
+    private AsyncInfoRepository asyncRepository;
 
 
     @Before
@@ -66,6 +137,8 @@ public class FTServiceTest {
                 .willReturn(true);
         given(apRepository.findByDatasetLocalPageId(eq("ds1"), eq("lc1"), eq("pg1")))
                 .willReturn(anp_1);
+        given(apRepository.iterateByDatasetLocalPageIds(eq("ds1"), eq("lc1"), eq(Arrays.asList("pg0", "pg1"))))
+                .willAnswer(invocation -> cursor(Collections.singletonList(anp_1)));
         given(apRepository.existsWithAnnoId(eq("ds1"), eq("lc1"), eq("an1")))
                 .willReturn(true);
         given(apRepository.findByDatasetLocalAnnoId(eq("ds1"), eq("lc1"), eq("an1")))
@@ -94,6 +167,38 @@ public class FTServiceTest {
         assertReflectionEquals(anpv2_1, ap);
     }
 
+    /**
+     * Check that an AnnoPage that was encoded for the off-heap AnnoPage cache and decoded again generates the same
+     * AnnotationPageV2 as the original
+     */
+    @Test
+    public void testAnnoPageCodecRoundTrip() throws AnnoPageDoesNotExistException {
+        prepareAnnotationPageV2();
+        AnnoPage decoded = AnnoPageCodec.decode(AnnoPageCodec.encode(ftService.fetchAnnoPage("ds1", "lc1", "pg1")));
+        assertReflectionEquals(anpv2_1, ftService.generateAnnoPageV2(decoded));
+    }
+
+    /**
+     * Check that optional fields survive encoding and decoding for the AnnoPage cache, both when they are set and when
+     * they are null
+     */
+    @Test
+    public void testAnnoPageCodecOptionalFields() {
+        AnnoPage annoPage = new AnnoPage("ds1", "lc1", "pg1", "tg1", new Resource("res1", null, "text", "ds1", "lc1"));
+        annoPage.setCv("cv1");
+        annoPage.setModified(new Date(1_500_000_000_000L));
+        annoPage.setAns(Arrays.asList(
+                // no from, to, targets or language
+                new Annotation("an1", 'P', null, null),
+                new Annotation("an2", 'W', 0, 5, Collections.singletonList(new Target(1, 2, 3, 4)), "nl"),
+                new Annotation("an3", 'W', 6, null, Collections.singletonList(new Target(1, null, 3, null)), null)));
+        assertReflectionEquals(annoPage, AnnoPageCodec.decode(AnnoPageCodec.encode(annoPage)));
+
+        // no content version, modified date, resource or annotations
+        AnnoPage emptyPage = new AnnoPage("ds1", "lc1", "pg2", null, null);
+        assertReflectionEquals(emptyPage, AnnoPageCodec.decode(AnnoPageCodec.encode(emptyPage)));
+    }
+
     /**
      * First create an AnnotationPageV3 through the FTService and EDM2IIIFMapping code (with mockito'd entity classes
      * instead of retrieving from Mongo); and deep compare the result with a manually constructed AnnotationPageV3
@@ -106,6 +211,325 @@ public class FTServiceTest {
         assertReflectionEquals(anpv3_1, ap);
     }
 
+    /**
+     * Check that the annotations of a page that is large enough to be mapped in parallel (see
+     * fulltext-test.properties) are the same and in the same order as when they are mapped one at a time
+     */
+    @Test
+    public void testParallelMapping() {
+        List<Annotation> annotations = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Annotation template = anp_1.getAns().get(i % anp_1.getAns().size());
+            annotations.add(new Annotation("an" + i, template.getDcType(), template.getFrom(), template.getTo(),
+                                           template.getTgs(), template.getLang()));
+        }
+        AnnoPage largePage = new AnnoPage("ds1", "lc1", "pg1", anp_1.getTgtId(), anp_1.getRes());
+        largePage.setAns(annotations);
+
+        AnnotationPageV2 apV2 = ftService.generateAnnoPageV2(largePage);
+        AnnotationPageV3 apV3 = ftService.generateAnnoPageV3(largePage);
+        assertEquals(annotations.size(), apV2.getResources().length);
+        assertEquals(annotations.size(), apV3.getItems().length);
+        for (int i = 0; i < annotations.size(); i++) {
+            AnnoPage singlePage = new AnnoPage("ds1", "lc1", "pg1", anp_1.getTgtId(), anp_1.getRes());
+            singlePage.setAns(Collections.singletonList(annotations.get(i)));
+            assertReflectionEquals(ftService.generateAnnoPageV2(singlePage).getResources()[0], apV2.getResources()[i]);
+            assertReflectionEquals(ftService.generateAnnoPageV3(singlePage).getItems()[0], apV3.getItems()[i]);
+        }
+    }
+
+    /**
+     * Check that a written AnnotationPage is exactly the same as a regularly rendered one, and that a streamed
+     * AnnotationPage can also be written by another ObjectMapper as part of another value
+     */
+    @Test
+    public void testStreamedAnnoPageEqualsRendered() throws Exception {
+        ObjectMapper otherMapper = new ObjectMapper();
+        for (String version : new String[]{"2", "3"}) {
+            for (boolean includeContext : new boolean[]{true, false}) {
+                String                rendered = ftService.renderAnnoPage(anp_1, version, includeContext);
+                ByteArrayOutputStream out      = new ByteArrayOutputStream();
+                ftService.writeAnnoPage(out, anp_1, version, includeContext);
+                assertEquals(rendered, new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+                String nested = otherMapper.writeValueAsString(
+                        Collections.singletonList(ftService.streamAnnoPage(anp_1, version, includeContext)));
+                assertEquals(otherMapper.readTree(rendered), otherMapper.readTree(nested).get(0));
+            }
+        }
+    }
+
+    /**
+     * Check that the mapping and serialization time of a streamed AnnotationPage are reported when it's written
+     * (which happens after the request handler returns)
+     */
+    @Test
+    public void testStreamedAnnoPageMetrics() throws Exception {
+        ftService.writeAnnoPage(new ByteArrayOutputStream(), anp_1, "3", true);
+        verify(ftMetrics).record(eq(FTMetrics.STAGE_MAPPING), eq(FTMetrics.ENDPOINT_ANNOPAGE), eq("3"), anyLong());
+        verify(ftMetrics).record(eq(FTMetrics.STAGE_SERIALIZATION), eq(FTMetrics.ENDPOINT_ANNOPAGE), eq("3"),
+                                 anyLong());
+    }
+
+    /**
+     * Only annotations with a target that intersects the region and/or with text that overlaps the char range are
+     * returned, in their original order, and they can be filtered on granularity as well
+     */
+    @Test
+    public void testFetchAnnoPageSelection() throws AnnoPageDoesNotExistException {
+        given(pageIndexCache.getSpatialIndex(any()))
+                .willAnswer(invocation -> SpatialIndex.build(invocation.getArgument(0)));
+        given(pageIndexCache.getCharRangeIndex(any()))
+                .willAnswer(invocation -> CharRangeIndex.build(invocation.getArgument(0)));
+
+        AnnoPage annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1",
+                                                             Region.parse("0,0,70,200"), null, null);
+        assertEquals(Arrays.asList(ann_1, ann_3), annoPage.getAns());
+        assertEquals(anp_1.getModified(), annoPage.getModified());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", Region.parse("100,140,10,10"), null, null);
+        assertEquals(Collections.singletonList(ann_3), annoPage.getAns());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", Region.parse("0,0,70,200"), null,
+                                                    Collections.singletonList("W"));
+        assertEquals(Collections.singletonList(ann_1), annoPage.getAns());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", Region.parse("500,500,10,10"), null, null);
+        assertTrue(annoPage.getAns().isEmpty());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", null, CharRange.parse("0,8"), null);
+        assertEquals(Arrays.asList(ann_1, ann_3), annoPage.getAns());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", null, CharRange.parse("10,12"),
+                                                    Collections.singletonList("W"));
+        assertEquals(Collections.singletonList(ann_2), annoPage.getAns());
+
+        annoPage = ftService.fetchAnnoPageSelection("ds1", "lc1", "pg1", Region.parse("0,0,70,200"),
+                                                    CharRange.parse("8,9"), null);
+        assertEquals(Collections.singletonList(ann_3), annoPage.getAns());
+    }
+
+    /**
+     * Check that an AnnotationPage that the existence filter reports as absent is not looked up in the database
+     */
+    @Test(expected = AnnoPageDoesNotExistException.class)
+    public void testExistenceFilterDefiniteMiss() throws AnnoPageDoesNotExistException {
+        given(existenceFilter.lookup(eq("ds1"), eq("lc1"), eq("pg9")))
+                .willReturn(AnnoPageExistenceFilter.Lookup.ABSENT);
+        try {
+            ftService.fetchAnnoPage("ds1", "lc1", "pg9");
+        } finally {
+            verify(apRepository, never()).existsByLimitOne(any(), any(), any());
+        }
+    }
+
+    /**
+     * Check that every lookup path reports a page that passed the existence filter but isn't in the database
+     */
+    @Test
+    public void testExistenceFilterNotFoundReported() {
+        AnnoPageExistenceFilter.Lookup mightExist = AnnoPageExistenceFilter.Lookup.MIGHT_EXIST;
+        given(existenceFilter.lookup(eq("ds1"), eq("lc1"), eq("pg9"))).willReturn(mightExist);
+        assertFalse(ftService.doesAnnoPageExistByLimitOne("ds1", "lc1", "pg9"));
+        assertNull(ftService.fetchAnnoPageInfo("ds1", "lc1", "pg9"));
+        try {
+            ftService.fetchAnnoPage("ds1", "lc1", "pg9", Collections.singletonList("L"));
+            fail("expected AnnoPageDoesNotExistException");
+        } catch (AnnoPageDoesNotExistException e) {
+            verify(existenceFilter, times(3)).reportNotFound(mightExist);
+        }
+    }
+
+    /**
+     * Check that the async lookups skip pages that are absent according to the existence filter, and report pages
+     * that the database doesn't have
+     */
+    @Test
+    public void testAsyncLookups() throws Exception {
+        AnnoPageExistenceFilter.Lookup mightExist = AnnoPageExistenceFilter.Lookup.MIGHT_EXIST;
+        given(existenceFilter.lookup(eq("ds1"), eq("lc1"), eq("pg9"))).willReturn(mightExist);
+        given(asyncRepository.existsByLimitOne(eq("ds1"), eq("lc1"), eq("pg9")))
+                .willReturn(CompletableFuture.completedFuture(false));
+        given(asyncRepository.findInfoByDatasetLocalPageId(eq("ds1"), eq("lc1"), eq("pg9")))
+                .willReturn(CompletableFuture.completedFuture(null));
+        assertFalse(ftService.doesAnnoPageExistAsync("ds1", "lc1", "pg9").get());
+        assertNull(ftService.fetchAnnoPageInfoAsync("ds1", "lc1", "pg9").get());
+        verify(existenceFilter, times(2)).reportNotFound(mightExist);
+
+        given(existenceFilter.lookup(eq("ds1"), eq("lc1"), eq("pg8")))
+                .willReturn(AnnoPageExistenceFilter.Lookup.ABSENT);
+        assertFalse(ftService.doesAnnoPageExistAsync("ds1", "lc1", "pg8").get());
+        assertNull(ftService.fetchAnnoPageInfoAsync("ds1", "lc1", "pg8").get());
+        verify(asyncRepository, never()).existsByLimitOne(any(), any(), eq("pg8"));
+        verify(asyncRepository, never()).findInfoByDatasetLocalPageId(any(), any(), eq("pg8"));
+    }
+
+    /**
+     * Check that concurrent requests for the same AnnoPage share one database fetch. The fetch is held until all other
+     * requests are waiting for it
+     */
+    @Test
+    public void testConcurrentFetchAnnoPageCoalesced() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        given(apRepository.existsByLimitOne(eq("ds2"), eq("lc2"), eq("pg2"))).willReturn(true);
+        given(apRepository.findByDatasetLocalPageId(eq("ds2"), eq("lc2"), eq("pg2"))).willAnswer(invocation -> {
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+            return anp_1;
+        });
+        int nrThreads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(nrThreads);
+        try {
+            List<Future<AnnoPage>> results = new ArrayList<>();
+            for (int i = 0; i < nrThreads; i++) {
+                results.add(executor.submit(() -> ftService.fetchAnnoPage("ds2", "lc2", "pg2")));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (ftService.getNrSharedAnnoPageLoads() < nrThreads - 1) {
+                assertTrue("Requests didn't wait for the fetch in progress", System.nanoTime() < deadline);
+                Thread.yield();
+            }
+            release.countDown();
+            for (Future<AnnoPage> result : results) {
+                assertEquals(anp_1, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verify(apRepository, times(1)).findByDatasetLocalPageId(eq("ds2"), eq("lc2"), eq("pg2"));
+    }
+
+    /**
+     * Index an AnnoPage the way the loader does and search it: only word annotations are indexed, and a hit contains
+     * the matching text and the text around it
+     */
+    @Test
+    public void testSearch() {
+        PageTerms pageTerms = SearchTerms.index(anp_1);
+        assertEquals(2, pageTerms.getTms().size());
+        PageTerm wickie = pageTerms.getTms().get(1);
+        assertEquals("wickie", wickie.getT());
+        assertEquals(Collections.singletonList("an1"), wickie.getAns());
+
+        given(pageTermsRepository.findByTerms(eq("ds1"), eq("lc1"), eq(Collections.singletonList("wickie"))))
+                .willReturn(Collections.singletonList(new PageTerms("ds1", "lc1", "pg1", null,
+                                                                    Collections.singletonList(wickie))));
+        given(apRepository.iterateByDatasetLocalPageIds(eq("ds1"), eq("lc1"), eq(Collections.singletonList("pg1"))))
+                .willAnswer(invocation -> cursor(Collections.singletonList(anp_1)));
+
+        SearchResultV2 result = ftService.search("ds1", "lc1", " WICKIE! ");
+        assertEquals(1, result.getWithin().getTotal());
+        assertEquals(1, result.getResources().length);
+        assertEquals(1, result.getHits().length);
+        assertTrue(result.getHits()[0].getAnnotations()[0].endsWith("/an1"));
+        assertEquals("Wickie ", result.getHits()[0].getMatch());
+        assertEquals("", result.getHits()[0].getBefore());
+        assertEquals("willah Koeckebacke!", result.getHits()[0].getAfter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchWithoutWords() {
+        ftService.search("ds1", "lc1", "?! -");
+    }
+
+    /**
+     * Fetch multiple AnnotationPages (of which one doesn't exist) and check if they are written as newline-delimited
+     * JSON, one page per line
+     */
+    @Test
+    public void testWriteAnnotationPagesNdjson() throws AnnoPageDoesNotExistException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (AnnoPageBatchIterator annoPages = ftService.fetchAnnoPages("ds1", "lc1", Arrays.asList("pg0", "pg1"))) {
+            ftService.writeAnnoPages(out, annoPages, "3", true, true);
+        }
+        String[] lines = out.toString(StandardCharsets.UTF_8.name()).split("\n");
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].contains("\"id\":\"https://iiif.europeana.eu/presentation/ds1/lc1/annopage/pg1\""));
+    }
+
+    /**
+     * Fetch multiple AnnotationPages that are queried in several chunks, with the database returning the pages of each
+     * chunk in reverse order and some pages missing. The pages should be returned in the requested order
+     */
+    @Test
+    public void testFetchAnnoPagesInRequestedOrder() throws AnnoPageDoesNotExistException {
+        List<String> pageIds  = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 25; i++) {
+            pageIds.add(String.valueOf(i));
+            if (i % 3 != 0) {
+                expected.add(String.valueOf(i));
+            }
+        }
+        given(apRepository.iterateByDatasetLocalPageIds(eq("ds1"), eq("lc2"), any())).willAnswer(invocation -> {
+            List<AnnoPage> found = new ArrayList<>();
+            for (String pageId : invocation.<List<String>>getArgument(2)) {
+                if (Integer.parseInt(pageId) % 3 != 0) {
+                    found.add(0, new AnnoPage("ds1", "lc2", pageId, "tg" + pageId, null));
+                }
+            }
+            return cursor(found);
+        });
+
+        List<String> result = new ArrayList<>();
+        try (AnnoPageBatchIterator annoPages = ftService.fetchAnnoPages("ds1", "lc2", pageIds)) {
+            while (annoPages.hasNext()) {
+                result.add(annoPages.next().getPgId());
+            }
+        }
+        assertEquals(expected, result);
+        verify(apRepository, times(3)).iterateByDatasetLocalPageIds(eq("ds1"), eq("lc2"), any());
+    }
+
+    @Test(expected = AnnoPageDoesNotExistException.class)
+    public void testFetchAnnoPagesNoneExist() throws AnnoPageDoesNotExistException {
+        given(apRepository.iterateByDatasetLocalPageIds(eq("ds1"), eq("lc1"), eq(Collections.singletonList("pg9"))))
+                .willAnswer(invocation -> cursor(Collections.emptyList()));
+        ftService.fetchAnnoPages("ds1", "lc1", Collections.singletonList("pg9"));
+    }
+
+    /**
+     * Check that listing the AnnoPages of a record without the number of annotations uses the covered query, and that
+     * the pages are returned in the order of the repository (sorted by pageId)
+     */
+    @Test
+    public void testListAnnoPages() throws AnnoPageDoesNotExistException {
+        given(apRepository.listByDatasetLocalId(eq("ds1"), eq("lc1"), eq(false)))
+                .willReturn(Arrays.asList(AnnoPageInfo.withCount("pg1", new Date(0), null),
+                                          AnnoPageInfo.withCount("pg2", null, null)));
+        AnnoPageSummary[] summaries = ftService.listAnnoPages("ds1", "lc1", false);
+        assertEquals(2, summaries.length);
+        assertEquals("pg1", summaries[0].getPageId());
+        assertTrue(summaries[0].getId().endsWith("ds1/lc1/annopage/pg1"));
+        assertNotNull(summaries[0].getModified());
+        assertNull(summaries[0].getNrAnnotations());
+        assertEquals("pg2", summaries[1].getPageId());
+        assertNull(summaries[1].getModified());
+        verify(apRepository, never()).listByDatasetLocalId(any(), any(), eq(true));
+    }
+
+    /**
+     * Check that listing the AnnoPages of a record with the number of annotations includes those numbers
+     */
+    @Test
+    public void testListAnnoPagesWithCount() throws AnnoPageDoesNotExistException {
+        given(apRepository.listByDatasetLocalId(eq("ds1"), eq("lc1"), eq(true)))
+                .willReturn(Arrays.asList(AnnoPageInfo.withCount("pg1", new Date(0), 5),
+                                          AnnoPageInfo.withCount("pg2", new Date(0), 0)));
+        AnnoPageSummary[] summaries = ftService.listAnnoPages("ds1", "lc1", true);
+        assertEquals(2, summaries.length);
+        assertEquals("pg1", summaries[0].getPageId());
+        assertEquals(Integer.valueOf(5), summaries[0].getNrAnnotations());
+        assertEquals("pg2", summaries[1].getPageId());
+        assertEquals(Integer.valueOf(0), summaries[1].getNrAnnotations());
+        verify(apRepository, never()).listByDatasetLocalId(any(), any(), eq(false));
+    }
+
+    @Test(expected = AnnoPageDoesNotExistException.class)
+    public void testListAnnoPagesNoneExist() throws AnnoPageDoesNotExistException {
+        given(apRepository.listByDatasetLocalId(eq("ds1"), eq("lc9"), eq(false))).willReturn(Collections.emptyList());
+        ftService.listAnnoPages("ds1", "lc9", false);
+    }
+
     @Test
     public void testGetAnnotationsV2() throws AnnoPageDoesNotExistException {
         prepareAnnotationsV2();
@@ -138,4 +562,15 @@ public class FTServiceTest {
         assertReflectionEquals(annv3_3, an);
     }
 
+    /**
+     * @return database cursor (mock) over the provided pages
+     */
+    @SuppressWarnings("unchecked")
+    private static MorphiaIterator<AnnoPage, AnnoPage> cursor(List<AnnoPage> annoPages) {
+        Iterator<AnnoPage> iterator = annoPages.iterator();
+        MorphiaIterator<AnnoPage, AnnoPage> cursor = mock(MorphiaIterator.class);
+        given(cursor.hasNext()).willAnswer(invocation -> iterator.hasNext());
+        given(cursor.next()).willAnswer(invocation -> iterator.next());
+        return cursor;
+    }
 }
@@ -0,0 +1,228 @@
+package eu.europeana.fulltext.api;
+
+import eu.europeana.fulltext.api.service.cache.MappedPageStore;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the memory-mapped store of pre-rendered AnnoPages against a temporary directory
+ */
+public class MappedPageStoreTest {
+
+    private static final int SEGMENT_BYTES = 1 << 22;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPutGet() throws IOException {
+        try (MappedPageStore store = new MappedPageStore(folder.getRoot().toPath(), SEGMENT_BYTES, 1)) {
+            RenderedAnnoPage page = page("pg1", "2", "cv1", "{\"page\" : 1}");
+            assertTrue(store.put(page));
+            RenderedAnnoPage stored = store.get("ds1", "lc1", "pg1", "2");
+            assertPageEquals(page, stored);
+            // the json is a read-only view on the mapped segment, not a copy
+            assertTrue(stored.getJsonBuffer().isDirect());
+            assertTrue(stored.getJsonBuffer().isReadOnly());
+            assertNull(store.get("ds1", "lc1", "pg1", "3"));
+            assertNull(store.get("ds1", "lc1", "pg2", "2"));
+            assertEquals(1, store.getNrEntries());
+        }
+    }
+
+    /**
+     * Storing a page again replaces the previously stored version
+     */
+    @Test
+    public void testOverwrite() throws IOException {
+        try (MappedPageStore store = new MappedPageStore(folder.getRoot().toPath(), SEGMENT_BYTES, 1)) {
+            assertTrue(store.put(page("pg1", "2", "cv1", "old")));
+            RenderedAnnoPage newPage = page("pg1", "2", "cv2", "new");
+            assertTrue(store.put(newPage));
+            assertPageEquals(newPage, store.get("ds1", "lc1", "pg1", "2"));
+            assertEquals(1, store.getNrEntries());
+        }
+    }
+
+    /**
+     * Storing more pages than fit in the initial index grows the index, without losing any pages
+     */
+    @Test
+    public void testIndexResize() throws IOException {
+        try (MappedPageStore store = new MappedPageStore(folder.getRoot().toPath(), SEGMENT_BYTES, 1)) {
+            long initialIndexSize = store.getIndexSizeInBytes();
+            int  nrPages          = 50_000; // more than 0.7 * 65536 index slots
+            for (int i = 0; i < nrPages; i++) {
+                assertTrue(store.put(page("pg" + i, "2", "cv", "json" + i)));
+            }
+            assertEquals(nrPages, store.getNrEntries());
+            assertEquals(initialIndexSize * 2, store.getIndexSizeInBytes());
+            for (int i = 0; i < nrPages; i++) {
+                assertEquals("json" + i, json(store.get("ds1", "lc1", "pg" + i, "2")));
+            }
+        }
+    }
+
+    /**
+     * When a segment is full a new one is created, a page that doesn't fit in a segment is not stored
+     */
+    @Test
+    public void testSegmentRollover() throws IOException {
+        String json = json300();
+        try (MappedPageStore store = new MappedPageStore(folder.getRoot().toPath(), 1024, 2)) {
+            // a page that doesn't fit in a segment at all
+            assertFalse(store.put(page("huge", "2", "cv", json + json + json + json)));
+
+            // 3 pages of ~330 bytes fit in one segment of 1024 bytes
+            for (int i = 0; i < 6; i++) {
+                assertTrue(store.put(page("pg" + i, "2", "cv", json)));
+            }
+            assertEquals(2 * 1024, store.getSizeInBytes());
+            assertEquals(0, store.getNrDroppedSegments());
+            for (int i = 0; i < 6; i++) {
+                assertEquals(json, json(store.get("ds1", "lc1", "pg" + i, "2")));
+            }
+        }
+    }
+
+    /**
+     * When all segments are full, the oldest segment makes room for new pages: its pages are dropped, the pages in the
+     * other segments stay available, and views on dropped pages remain readable. Reopening the store keeps the newest
+     * segments only
+     */
+    @Test
+    public void testDropOldestSegment() throws IOException {
+        String json = json300();
+        Path directory = folder.getRoot().toPath();
+        try (MappedPageStore store = new MappedPageStore(directory, 1024, 2)) {
+            for (int i = 0; i < 6; i++) {
+                assertTrue(store.put(page("pg" + i, "2", "cv", json)));
+            }
+            RenderedAnnoPage dropped = store.get("ds1", "lc1", "pg0", "2");
+
+            // the 7th page doesn't fit, so segment 0 (pg0-pg2) is replaced by a new segment
+            assertTrue(store.put(page("pg6", "2", "cv", json)));
+            assertEquals(1, store.getNrDroppedSegments());
+            assertEquals(2 * 1024, store.getSizeInBytes());
+            assertEquals(4, store.getNrEntries());
+            for (int i = 0; i < 3; i++) {
+                assertNull(store.get("ds1", "lc1", "pg" + i, "2"));
+            }
+            for (int i = 3; i < 7; i++) {
+                assertEquals(json, json(store.get("ds1", "lc1", "pg" + i, "2")));
+            }
+            assertEquals(json, json(dropped));
+            assertFalse(Files.exists(directory.resolve("segment-00000.dat")));
+            assertTrue(Files.exists(directory.resolve("segment-00002.dat")));
+
+            // a page stored again in the newest segment survives when its old record is dropped
+            assertTrue(store.put(page("pg3", "2", "cv2", json)));
+            assertTrue(store.put(page("pg7", "2", "cv", json)));
+            assertTrue(store.put(page("pg8", "2", "cv", json)));
+            assertEquals(2, store.getNrDroppedSegments());
+            assertEquals(4, store.getNrEntries());
+            assertEquals("cv2", store.get("ds1", "lc1", "pg3", "2").getCv());
+            assertNull(store.get("ds1", "lc1", "pg4", "2"));
+            assertNull(store.get("ds1", "lc1", "pg5", "2"));
+        }
+
+        try (MappedPageStore store = new MappedPageStore(directory, 1024, 2)) {
+            assertEquals(4, store.getNrEntries());
+            assertEquals("cv2", store.get("ds1", "lc1", "pg3", "2").getCv());
+            for (String pageId : new String[] {"pg6", "pg7", "pg8"}) {
+                assertEquals(json, json(store.get("ds1", "lc1", pageId, "2")));
+            }
+        }
+    }
+
+    /**
+     * Reopening a store rebuilds the index from the segments. A record that was cut off before its length was written
+     * is ignored, and overwritten by the next stored page
+     */
+    @Test
+    public void testRebuildIndex() throws IOException {
+        Path             directory = folder.getRoot().toPath();
+        RenderedAnnoPage page1     = page("pg1", "2", "cv1", "page 1");
+        RenderedAnnoPage page2     = page("pg2", "3", "cv2", "page 2");
+        RenderedAnnoPage page1New  = page("pg1", "2", "cv3", "page 1 again");
+        RenderedAnnoPage page3     = page("pg3", "2", "cv4", "page 3");
+        try (MappedPageStore store = new MappedPageStore(directory, SEGMENT_BYTES, 1)) {
+            assertTrue(store.put(page1));
+            assertTrue(store.put(page2));
+            assertTrue(store.put(page1New));
+        }
+
+        // simulate a crash while writing a record: its fields are written but its length isn't
+        int endOfData = recordLength(page1) + recordLength(page2) + recordLength(page1New);
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-00000.dat").toFile(), "rw")) {
+            file.seek(endOfData + 4);
+            file.write(new byte[] {0, 3, 'd', 's', '1', 0, 3, 'l', 'c', '1', 0, 3, 'p', 'g'});
+        }
+
+        try (MappedPageStore store = new MappedPageStore(directory, SEGMENT_BYTES, 1)) {
+            assertEquals(2, store.getNrEntries());
+            assertPageEquals(page1New, store.get("ds1", "lc1", "pg1", "2"));
+            assertPageEquals(page2, store.get("ds1", "lc1", "pg2", "3"));
+            assertNull(store.get("ds1", "lc1", "pg3", "2"));
+
+            assertTrue(store.put(page3));
+            assertPageEquals(page3, store.get("ds1", "lc1", "pg3", "2"));
+        }
+
+        try (MappedPageStore store = new MappedPageStore(directory, SEGMENT_BYTES, 1)) {
+            assertEquals(3, store.getNrEntries());
+            assertPageEquals(page1New, store.get("ds1", "lc1", "pg1", "2"));
+            assertPageEquals(page3, store.get("ds1", "lc1", "pg3", "2"));
+        }
+    }
+
+    private static String json300() {
+        char[] chars = new char[300];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+
+    private static RenderedAnnoPage page(String pageId, String version, String cv, String json) {
+        return new RenderedAnnoPage("ds1", "lc1", pageId, version, cv, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String json(RenderedAnnoPage page) {
+        return page == null ? null : new String(page.getJson(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of bytes a page takes up in a segment (see MappedPageStore for the record layout)
+     */
+    private static int recordLength(RenderedAnnoPage page) {
+        int length = 4 + 4 + page.getJson().length;
+        for (String field : new String[] {page.getDsId(), page.getLcId(), page.getPgId(), page.getVer(),
+                                          page.getCv()}) {
+            length += 2 + field.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return length;
+    }
+
+    private static void assertPageEquals(RenderedAnnoPage expected, RenderedAnnoPage actual) {
+        assertEquals(expected.getDsId(), actual.getDsId());
+        assertEquals(expected.getLcId(), actual.getLcId());
+        assertEquals(expected.getPgId(), actual.getPgId());
+        assertEquals(expected.getVer(), actual.getVer());
+        assertEquals(expected.getCv(), actual.getCv());
+        assertArrayEquals(expected.getJson(), actual.getJson());
+    }
+}
@@ -0,0 +1,113 @@
+package eu.europeana.fulltext.api;
+
+import eu.europeana.fulltext.api.service.cache.OffHeapLruCache;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests storing, evicting and removing values in the off-heap cache
+ */
+public class OffHeapLruCacheTest {
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Values that take up several blocks (or only part of a block) are returned unchanged
+     */
+    @Test
+    public void testPutGet() {
+        OffHeapLruCache cache = new OffHeapLruCache(16 * BLOCK_SIZE, BLOCK_SIZE, 1);
+        byte[] large = value(3 * BLOCK_SIZE + 5, 1);
+        byte[] small = value(3, 2);
+        assertTrue(cache.put("large", large));
+        assertTrue(cache.put("small", small));
+        assertTrue(cache.put("empty", new byte[0]));
+        assertArrayEquals(large, cache.get("large"));
+        assertArrayEquals(small, cache.get("small"));
+        assertArrayEquals(new byte[0], cache.get("empty"));
+        assertNull(cache.get("other"));
+        assertEquals(3, cache.getNrEntries());
+        assertEquals(large.length + small.length, cache.getUsedBytes());
+        assertEquals(16 * BLOCK_SIZE, cache.getCapacityBytes());
+    }
+
+    /**
+     * When the cache is full the least recently used values are evicted first, where both get and put count as use
+     */
+    @Test
+    public void testEvictionOrder() {
+        OffHeapLruCache cache = new OffHeapLruCache(4 * BLOCK_SIZE, BLOCK_SIZE, 1);
+        for (String key : new String[] {"a", "b", "c", "d"}) {
+            assertTrue(cache.put(key, value(BLOCK_SIZE, key.charAt(0))));
+        }
+        assertEquals(0, cache.getEvictions());
+        cache.get("a");
+
+        assertTrue(cache.put("e", value(BLOCK_SIZE, 'e')));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getEvictions());
+
+        // a value of 2 blocks evicts the 2 least recently used values
+        assertTrue(cache.put("f", value(2 * BLOCK_SIZE, 'f')));
+        assertNull(cache.get("c"));
+        assertNull(cache.get("d"));
+        assertEquals(3, cache.getEvictions());
+
+        assertArrayEquals(value(BLOCK_SIZE, 'a'), cache.get("a"));
+        assertArrayEquals(value(BLOCK_SIZE, 'e'), cache.get("e"));
+        assertArrayEquals(value(2 * BLOCK_SIZE, 'f'), cache.get("f"));
+        assertEquals(3, cache.getNrEntries());
+    }
+
+    /**
+     * A value larger than (a stripe of) the cache is not stored, and doesn't evict anything
+     */
+    @Test
+    public void testOversizedValue() {
+        OffHeapLruCache cache = new OffHeapLruCache(4 * BLOCK_SIZE, BLOCK_SIZE, 1);
+        assertTrue(cache.put("a", value(BLOCK_SIZE, 'a')));
+        assertFalse(cache.put("huge", value(4 * BLOCK_SIZE + 1, 'h')));
+        assertNull(cache.get("huge"));
+        assertArrayEquals(value(BLOCK_SIZE, 'a'), cache.get("a"));
+        assertEquals(0, cache.getEvictions());
+
+        // with 4 stripes each stripe has room for 4 blocks only
+        OffHeapLruCache striped = new OffHeapLruCache(16 * BLOCK_SIZE, BLOCK_SIZE, 4);
+        assertFalse(striped.put("huge", value(4 * BLOCK_SIZE + 1, 'h')));
+        assertTrue(striped.put("max", value(4 * BLOCK_SIZE, 'm')));
+        assertEquals(1, striped.getNrEntries());
+    }
+
+    /**
+     * Blocks of removed and replaced values are reused for new values, without evicting anything
+     */
+    @Test
+    public void testReuseFreedBlocks() {
+        OffHeapLruCache cache = new OffHeapLruCache(4 * BLOCK_SIZE, BLOCK_SIZE, 1);
+        assertTrue(cache.put("a", value(4 * BLOCK_SIZE, 'a')));
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.getUsedBytes());
+
+        assertTrue(cache.put("b", value(4 * BLOCK_SIZE, 'b')));
+        // replacing a value frees its old blocks first
+        assertTrue(cache.put("b", value(4 * BLOCK_SIZE, 'c')));
+        assertArrayEquals(value(4 * BLOCK_SIZE, 'c'), cache.get("b"));
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.getNrEntries());
+        assertEquals(4 * BLOCK_SIZE, cache.getUsedBytes());
+    }
+
+    private static byte[] value(int length, int fill) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) fill);
+        return value;
+    }
+}
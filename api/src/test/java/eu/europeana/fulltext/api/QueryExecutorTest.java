@@ -0,0 +1,96 @@
+package eu.europeana.fulltext.api;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.QueryExecutor;
+import eu.europeana.fulltext.api.service.exception.ServiceBusyException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests that tasks are run on the calling thread in blocking mode and on the query thread pool in executor mode
+ */
+public class QueryExecutorTest {
+
+    @Test
+    public void testBlockingMode() throws Exception {
+        QueryExecutor queryExecutor = new QueryExecutor(mock(FTSettings.class));
+        Thread caller = Thread.currentThread();
+        assertEquals(caller, queryExecutor.execute(Thread::currentThread));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBlockingModeException() throws Exception {
+        QueryExecutor queryExecutor = new QueryExecutor(mock(FTSettings.class));
+        queryExecutor.execute(() -> {
+            throw new IllegalStateException("test");
+        });
+    }
+
+    @Test
+    public void testExecutorMode() throws Exception {
+        FTSettings settings = mock(FTSettings.class);
+        given(settings.isQueryExecutorMode()).willReturn(true);
+        given(settings.getQueryThreads()).willReturn(1);
+        given(settings.getQueryQueueSize()).willReturn(1);
+        QueryExecutor queryExecutor = new QueryExecutor(settings);
+        try {
+            Object result = queryExecutor.execute(Thread::currentThread);
+            assertTrue(result instanceof CompletableFuture);
+            Object thread = ((CompletableFuture<?>) result).get(10, TimeUnit.SECONDS);
+            assertNotEquals(Thread.currentThread(), thread);
+
+            result = queryExecutor.execute(() -> {
+                throw new IllegalStateException("test");
+            });
+            try {
+                ((CompletableFuture<?>) result).get(10, TimeUnit.SECONDS);
+                fail("expected IllegalStateException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        } finally {
+            queryExecutor.shutdown();
+        }
+    }
+
+    /**
+     * When the thread and the queue are taken, a new task is rejected straight away
+     */
+    @Test
+    public void testExecutorModeBusy() throws Exception {
+        FTSettings settings = mock(FTSettings.class);
+        given(settings.isQueryExecutorMode()).willReturn(true);
+        given(settings.getQueryThreads()).willReturn(1);
+        given(settings.getQueryQueueSize()).willReturn(1);
+        QueryExecutor queryExecutor = new QueryExecutor(settings);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<Boolean> running  = queryExecutor.submit(() -> release.await(10, TimeUnit.SECONDS));
+            CompletableFuture<Boolean> queued   = queryExecutor.submit(() -> true);
+            CompletableFuture<Boolean> rejected = queryExecutor.submit(() -> true);
+            try {
+                rejected.get(10, TimeUnit.SECONDS);
+                fail("expected ServiceBusyException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ServiceBusyException);
+            }
+            release.countDown();
+            assertTrue(running.get(10, TimeUnit.SECONDS));
+            assertTrue(queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            queryExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package eu.europeana.fulltext.api;
+
+import eu.europeana.fulltext.api.config.FTSettings;
+import eu.europeana.fulltext.api.service.QueryLimiter;
+import eu.europeana.fulltext.api.service.exception.ServiceBusyException;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests that the number of database queries in flight is limited, and that a permit is only held while a query runs
+ */
+public class QueryLimiterTest {
+
+    private static QueryLimiter limiter(int maxInflight) {
+        FTSettings settings = mock(FTSettings.class);
+        given(settings.getMaxInflightQueries()).willReturn(maxInflight);
+        given(settings.getMaxInflightWaitMs()).willReturn(10L);
+        return new QueryLimiter(settings);
+    }
+
+    @Test
+    public void testNoLimit() {
+        QueryLimiter queryLimiter = limiter(0);
+        assertEquals("inner", queryLimiter.query(() -> queryLimiter.query(() -> "inner")));
+    }
+
+    /**
+     * A query that can't start because the maximum number of queries in flight is reached, is rejected after waiting
+     * for a while
+     */
+    @Test(expected = ServiceBusyException.class)
+    public void testMaxInflight() {
+        QueryLimiter queryLimiter = limiter(1);
+        // the outer query holds the only permit
+        queryLimiter.query(() -> queryLimiter.query(() -> "inner"));
+    }
+
+    /**
+     * Permits are released when a query is done, also when it fails
+     */
+    @Test
+    public void testRelease() {
+        QueryLimiter queryLimiter = limiter(1);
+        assertEquals("first", queryLimiter.query(() -> "first"));
+        try {
+            queryLimiter.query(() -> {
+                throw new IllegalStateException("test");
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals("second", queryLimiter.query(() -> "second"));
+    }
+
+    /**
+     * An async query holds its permit until its future completes, other async queries are rejected straight away in
+     * the meantime
+     */
+    @Test
+    public void testAsync() throws Exception {
+        QueryLimiter              queryLimiter = limiter(1);
+        CompletableFuture<String> running      = new CompletableFuture<>();
+        CompletableFuture<String> first        = queryLimiter.queryAsync(() -> running);
+
+        CompletableFuture<String> rejected = queryLimiter.queryAsync(() -> CompletableFuture.completedFuture("no"));
+        try {
+            rejected.get();
+            fail("expected ServiceBusyException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServiceBusyException);
+        }
+
+        running.complete("first");
+        assertEquals("first", first.get());
+        assertEquals("second", queryLimiter.queryAsync(() -> CompletableFuture.completedFuture("second")).get());
+    }
+}
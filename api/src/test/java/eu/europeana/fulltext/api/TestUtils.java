@@ -30,11 +30,15 @@ import eu.europeana.fulltext.api.model.v3.AnnotationPageV3;
 import eu.europeana.fulltext.api.model.v3.AnnotationV3;
 import eu.europeana.fulltext.api.service.CacheUtils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.Month;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.GZIPOutputStream;
 
 import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_EDM_JSONLD;
 import static eu.europeana.fulltext.api.config.FTDefinitions.MEDIA_TYPE_IIIF_V2;
@@ -262,7 +266,15 @@ class TestUtils {
                                         String iiifVersion, String appVersion, boolean weakETag){
         return CacheUtils.generateETag(dsId + lcId + pgOrAnnoID,
                                        CacheUtils.dateToZonedUTC(lastModifiedDate),
-                                       iiifVersion, appVersion, weakETag);
+                                       new CacheUtils.ETagSalt(appVersion, iiifVersion), weakETag, false);
+    }
+
+    public static byte[] gzip(String data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
     }
 
 }
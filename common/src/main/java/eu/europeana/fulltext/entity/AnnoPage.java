@@ -31,9 +31,18 @@ import java.util.List;
  * IIIF Api base URL: https://iiif.europeana.eu/presentation/
  * Resource base URL: https://www.europeana.eu/api/fulltext/
  *
+ * The (dsId, lcId, pgId, modified) index overlaps with the unique (dsId, lcId, pgId) index, but we need both: adding
+ * modified to the unique index would only make the combination of page and modified date unique, allowing duplicate
+ * pages, while without modified in an index the listing of a record's pages has to read every AnnoPage document
+ * (with all its annotations) of the record. The cost is one extra index entry per AnnoPage write, and AnnoPages are
+ * only written by the loader.
  */
 @Entity(value = "AnnoPage")
-@Indexes(@Index(fields = { @Field("dsId"), @Field("lcId"), @Field("pgId") }, options = @IndexOptions(unique = true)))
+@Indexes({
+        @Index(fields = { @Field("dsId"), @Field("lcId"), @Field("pgId") }, options = @IndexOptions(unique = true)),
+        // for listing all pages of a record with a covered (index-only) query
+        @Index(fields = { @Field("dsId"), @Field("lcId"), @Field("pgId"), @Field("modified") })
+})
 public class AnnoPage {
 
     @Id
@@ -44,6 +53,7 @@ public class AnnoPage {
     private String           tgtId; // IIIF_API_BASE_URL/      /      /canvas/{tgtId} USE WHOLE URL!!
     private List<Annotation> ans;   // List of Annotations
     private Date             modified = Date.from(LocalDateTime.now().atZone(ZoneId.systemDefault()).toInstant());
+    private String           cv;    // content version: hash of the page content, set by the loader
 
     @Reference
     private Resource res;           // RESOURCE_BASE_URL/      /      /{resId} (= resource)
@@ -114,4 +124,12 @@ public class AnnoPage {
     public void setModified(Date modified) {
         this.modified = modified;
     }
+
+    public String getCv() {
+        return cv;
+    }
+
+    public void setCv(String cv) {
+        this.cv = cv;
+    }
 }
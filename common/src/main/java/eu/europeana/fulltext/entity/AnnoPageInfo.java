@@ -0,0 +1,69 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.entity;
+
+import java.util.Date;
+
+/**
+ * Lightweight summary of an AnnoPage (not a Mongo document itself) that is read from the (dsId, lcId, pgId, modified)
+ * index, so we can list the available pages of a record without loading the pages themselves
+ */
+public class AnnoPageInfo {
+
+    private String  pgId;
+    private Date    modified;
+    private Integer nrAnnotations; // only set when explicitly requested, because it can't be read from an index
+    private String  cv;            // content version, only set when looking up a single page
+
+    private AnnoPageInfo(String pgId, Date modified, Integer nrAnnotations, String cv) {
+        this.pgId          = pgId;
+        this.modified      = modified;
+        this.nrAnnotations = nrAnnotations;
+        this.cv            = cv;
+    }
+
+    /**
+     * @return AnnoPageInfo with the number of annotations of the page (null if it's not known)
+     */
+    public static AnnoPageInfo withCount(String pgId, Date modified, Integer nrAnnotations) {
+        return new AnnoPageInfo(pgId, modified, nrAnnotations, null);
+    }
+
+    /**
+     * @return AnnoPageInfo with the content version of the page (null if the page has none)
+     */
+    public static AnnoPageInfo withCv(String pgId, Date modified, String cv) {
+        return new AnnoPageInfo(pgId, modified, null, cv);
+    }
+
+    public String getPgId() {
+        return pgId;
+    }
+
+    public Date getModified() {
+        return modified;
+    }
+
+    public Integer getNrAnnotations() {
+        return nrAnnotations;
+    }
+
+    public String getCv() {
+        return cv;
+    }
+}
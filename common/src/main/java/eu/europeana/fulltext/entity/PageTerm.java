@@ -0,0 +1,47 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.entity;
+
+import org.mongodb.morphia.annotations.Embedded;
+
+import java.util.List;
+
+/**
+ * A normalised word of an AnnoPage and the ids of the word annotations in which it occurs (in page order)
+ */
+@Embedded
+public class PageTerm {
+
+    private String       t;    // term
+    private List<String> ans;  // annotation ids
+
+    public PageTerm() {}
+
+    public PageTerm(String t, List<String> ans) {
+        this.t   = t;
+        this.ans = ans;
+    }
+
+    public String getT() {
+        return t;
+    }
+
+    public List<String> getAns() {
+        return ans;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.entity;
+
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.*;
+
+import java.util.List;
+
+/**
+ * Search index of an AnnoPage, generated by the loader: all (normalised) words of the page, each with the ids of the
+ * word annotations in which it occurs. There is one PageTerms document per AnnoPage; the multikey index on the terms
+ * lets us find the pages of a record that contain a word without scanning the page text.
+ * The content version (cv) is that of the AnnoPage it was generated from.
+ */
+@Entity(value = "PageTerms")
+@Indexes({
+        @Index(fields = { @Field("dsId"), @Field("lcId"), @Field("pgId") }, options = @IndexOptions(unique = true)),
+        @Index(fields = { @Field("dsId"), @Field("lcId"), @Field("tms.t") })
+})
+public class PageTerms {
+
+    @Id
+    private ObjectId       _id;   // Mongo ObjectId
+    private String         dsId;
+    private String         lcId;
+    private String         pgId;
+    private String         cv;    // content version of the AnnoPage that was indexed
+    private List<PageTerm> tms;   // sorted by term
+
+    public PageTerms() {}
+
+    public PageTerms(String dsId, String lcId, String pgId, String cv, List<PageTerm> tms) {
+        this.dsId = dsId;
+        this.lcId = lcId;
+        this.pgId = pgId;
+        this.cv   = cv;
+        this.tms  = tms;
+    }
+
+    public String getDsId() {
+        return dsId;
+    }
+
+    public String getLcId() {
+        return lcId;
+    }
+
+    public String getPgId() {
+        return pgId;
+    }
+
+    public String getCv() {
+        return cv;
+    }
+
+    public List<PageTerm> getTms() {
+        return tms;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.entity;
+
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.annotations.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pre-rendered (gzipped) IIIF JSON-LD output of an AnnoPage, generated by the loader so the API can return it without
+ * mapping or serializing the AnnoPage. There is one RenderedAnnoPage per AnnoPage per IIIF version.
+ * The content version (cv) is that of the AnnoPage it was rendered from, so outdated renderings can be detected.
+ */
+@Entity(value = "RenderedAnnoPage")
+@Indexes({
+        @Index(fields = { @Field("dsId"), @Field("lcId"), @Field("pgId"), @Field("ver") },
+               options = @IndexOptions(unique = true))
+})
+public class RenderedAnnoPage {
+
+    @Id
+    private ObjectId _id;   // Mongo ObjectId
+    private String   dsId;
+    private String   lcId;
+    private String   pgId;
+    private String   ver;   // IIIF version [2|3]
+    private String   cv;    // content version of the AnnoPage that was rendered
+    private byte[]   json;  // gzipped JSON-LD
+
+    // gzipped JSON-LD of a page read from a local store, a view on data outside the heap that isn't copied
+    @Transient
+    private ByteBuffer jsonBuffer;
+
+    public RenderedAnnoPage() {}
+
+    public RenderedAnnoPage(String dsId, String lcId, String pgId, String ver, String cv, byte[] json) {
+        this.dsId = dsId;
+        this.lcId = lcId;
+        this.pgId = pgId;
+        this.ver  = ver;
+        this.cv   = cv;
+        this.json = json;
+    }
+
+    /**
+     * Create a RenderedAnnoPage whose output is a (read-only) view on data that is stored elsewhere, e.g. in a
+     * memory-mapped file. The data is only copied when {@link #getJson()} is called.
+     */
+    public RenderedAnnoPage(String dsId, String lcId, String pgId, String ver, String cv, ByteBuffer jsonBuffer) {
+        this.dsId = dsId;
+        this.lcId = lcId;
+        this.pgId = pgId;
+        this.ver  = ver;
+        this.cv   = cv;
+        this.jsonBuffer = jsonBuffer;
+    }
+
+    public String getDsId() {
+        return dsId;
+    }
+
+    public String getLcId() {
+        return lcId;
+    }
+
+    public String getPgId() {
+        return pgId;
+    }
+
+    public String getVer() {
+        return ver;
+    }
+
+    public String getCv() {
+        return cv;
+    }
+
+    /**
+     * @return gzipped JSON-LD
+     */
+    public byte[] getJson() {
+        if (json == null && jsonBuffer != null) {
+            json = new byte[jsonBuffer.remaining()];
+            jsonBuffer.duplicate().get(json);
+        }
+        return json;
+    }
+
+    /**
+     * @return read-only view of the gzipped JSON-LD, without copying it
+     */
+    public ByteBuffer getJsonBuffer() {
+        if (jsonBuffer != null) {
+            return jsonBuffer.duplicate();
+        }
+        return json == null ? null : ByteBuffer.wrap(json).asReadOnlyBuffer();
+    }
+}
@@ -19,6 +19,8 @@ package eu.europeana.fulltext.entity;
 
 import org.mongodb.morphia.annotations.*;
 
+import java.util.Date;
+
 /**
  * Created by luthien on 31/05/2018.
  */
@@ -32,6 +34,8 @@ public class Resource {
     private String lcId;  // IIIF_API_BASE_URL/      /{lcId}/annopage/
     private String lang;
     private String value;
+    private String cv;    // content version: hash of the resource content, set by the loader
+    private Date   modified; // set by the loader, may be null for resources that were loaded before
 
     public Resource() {
     }
@@ -88,4 +92,20 @@ public class Resource {
         this.lcId = lcId;
     }
 
+    public Date getModified() {
+        return modified;
+    }
+
+    public void setModified(Date modified) {
+        this.modified = modified;
+    }
+
+    public String getCv() {
+        return cv;
+    }
+
+    public void setCv(String cv) {
+        this.cv = cv;
+    }
+
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.entity;
+
+import java.util.Date;
+
+/**
+ * Lightweight summary of a Resource (not a Mongo document itself) with only the fields needed to answer conditional
+ * requests, so we don't have to load the (possibly very large) text of the Resource for that
+ */
+public class ResourceInfo {
+
+    private String id;
+    private Date   modified; // may be null for resources that were loaded before we tracked modification dates
+    private String cv;       // content version, may be null
+
+    public ResourceInfo(String id, Date modified, String cv) {
+        this.id       = id;
+        this.modified = modified;
+        this.cv       = cv;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Date getModified() {
+        return modified;
+    }
+
+    public String getCv() {
+        return cv;
+    }
+}
@@ -19,14 +19,24 @@ package eu.europeana.fulltext.repository.impl;
 
 import com.mongodb.*;
 import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
 import eu.europeana.fulltext.repository.AnnoPageRepository;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.AdvancedDatastore;
 import org.mongodb.morphia.Key;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.query.MorphiaIterator;
 import org.mongodb.morphia.query.Query;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
 
 /**
  * Created by luthien on 31/05/2018.
@@ -43,8 +53,8 @@ public class AnnoPageRepositoryImpl extends BaseRepository<AnnoPage, ObjectId> i
 
 
     /**
-     * Check if an AnnoPage exists that contains an Annotation that matches the given parameters
-     * using DBCursor = DBCollection.find().limit(1) & DBCursor.count()
+     * Check if an AnnoPage exists that matches the given parameters. Only the pgId is projected, so this is answered
+     * from the (dsId, lcId, pgId) index without loading the AnnoPage document.
      * @param datasetId
      * @param localId
      * @param pageId
@@ -56,10 +66,7 @@ public class AnnoPageRepositoryImpl extends BaseRepository<AnnoPage, ObjectId> i
         query.put("dsId", datasetId);
         query.put("lcId", localId);
         query.put("pgId", pageId);
-        DBCursor cur = col.find(query).limit(1);
-        int count = cur.count();
-        cur.close();
-        return (count >= 1);
+        return exists(col, query, new BasicDBObject("_id", 0).append("pgId", 1));
     }
 
     /**
@@ -70,74 +77,196 @@ public class AnnoPageRepositoryImpl extends BaseRepository<AnnoPage, ObjectId> i
     }
 
     /**
-     * Check if an AnnoPage exists that contains an Annotation that matches the given parameters
-     * using DBCollection.findOne()
+     * Check if an AnnoPage exists that contains an Annotation that matches the given parameters. Note that annotations
+     * are not indexed, so this still has to read the AnnoPages of the record (but only returns the _id)
      * @param datasetId
      * @param localId
-     * @param pageId
+     * @param annoId
      * @return true if yes, otherwise false
      */
-    @Deprecated // keeping this temporarily for testing speed (EA-1239)
-    public boolean existsByFindOne(String datasetId, String localId, String pageId) {
+    public boolean existsWithAnnoId(String datasetId, String localId, String annoId) {
         DBCollection col = datastore.getCollection(AnnoPage.class);
         DBObject query= new BasicDBObject();
         query.put("dsId", datasetId);
         query.put("lcId", localId);
-        query.put("pgId", pageId);
-        return (null != col.findOne(query));
+        query.put("ans.anId", annoId);
+        return exists(col, query, new BasicDBObject("_id", 1));
     }
 
     /**
-     * Check if an AnnoPage exists that contains an Annotation that matches the given parameters
-     * using DBCollection.count()
+     * Find and return an AnnoPage that matches the given parameters
      * @param datasetId
      * @param localId
      * @param pageId
-     * @return true if yes, otherwise false
+     * @return AnnoPage
+     */
+    public AnnoPage findByDatasetLocalPageId(String datasetId, String localId, String pageId) {
+        Query<AnnoPage> findDLPQuery = datastore.createQuery(AnnoPage.class)
+                .filter("dsId ==", datasetId)
+                .filter("lcId ==", localId)
+                .filter("pgId ==", pageId);
+        return findDLPQuery.get();
+    }
+
+    /**
+     * Find and return an AnnoPage that matches the given parameters, with only the annotations of the given dcTypes.
+     * The annotations are filtered by MongoDB (with a $filter aggregation), so other annotations are never sent to us
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @param dcTypes dcType codes of the annotations that should be returned (e.g. "L" for lines)
+     * @return AnnoPage, or null if it doesn't exist
      */
-    @Deprecated // keeping this temporarily for testing speed (EA-1239)
-    public boolean existsByCount(String datasetId, String localId, String pageId) {
+    public AnnoPage findByDatasetLocalPageId(String datasetId, String localId, String pageId, List<String> dcTypes) {
         DBCollection col = datastore.getCollection(AnnoPage.class);
-        DBObject query= new BasicDBObject();
+        DBObject query = new BasicDBObject();
         query.put("dsId", datasetId);
         query.put("lcId", localId);
         query.put("pgId", pageId);
-        return (col.count(query) >= 1);
+        DBObject filteredAnnotations = new BasicDBObject("$filter", new BasicDBObject("input", "$ans")
+                .append("as", "an")
+                .append("cond", new BasicDBObject("$in", Arrays.asList("$$an.dcType", dcTypes))));
+        List<DBObject> pipeline = Arrays.asList(
+                new BasicDBObject("$match", query),
+                new BasicDBObject("$limit", 1),
+                new BasicDBObject("$addFields", new BasicDBObject("ans", filteredAnnotations)));
+        try (Cursor cur = col.aggregate(pipeline, AggregationOptions.builder().build())) {
+            if (!cur.hasNext()) {
+                return null;
+            }
+            Mapper mapper = datastore.getMapper();
+            return mapper.fromDBObject(datastore, AnnoPage.class, cur.next(), mapper.createEntityCache());
+        }
     }
 
     /**
-     * Check if an AnnoPage exists that contains an Annotation that matches the given parameters
+     * Find the modified date and content version of an AnnoPage, without loading its annotations
      * @param datasetId
      * @param localId
-     * @param annoId
-     * @return true if yes, otherwise false
+     * @param pageId
+     * @return AnnoPageInfo, or null if the AnnoPage doesn't exist
      */
-//    @ExistsQuery("{'dsId':'?0', 'lcId':'?1', 'ans.anId':'?2'}")
-    public boolean existsWithAnnoId(String datasetId, String localId, String annoId) {
+    public AnnoPageInfo findInfoByDatasetLocalPageId(String datasetId, String localId, String pageId) {
         DBCollection col = datastore.getCollection(AnnoPage.class);
         DBObject query= new BasicDBObject();
         query.put("dsId", datasetId);
         query.put("lcId", localId);
-        query.put("ans.anId", annoId);
-        DBCursor cur = col.find(query).limit(1);
-        int count = cur.count();
-        cur.close();
-        return (count >= 1);
+        query.put("pgId", pageId);
+        DBObject projection = new BasicDBObject("_id", 0).append("pgId", 1).append("modified", 1).append("cv", 1);
+        DBObject pageInfo = col.findOne(query, projection);
+        if (pageInfo == null) {
+            return null;
+        }
+        return AnnoPageInfo.withCv((String) pageInfo.get("pgId"), (Date) pageInfo.get("modified"),
+                                   (String) pageInfo.get("cv"));
     }
 
     /**
-     * Find and return an AnnoPage that matches the given parameters
+     * Iterate over all AnnoPages of a record that match one of the given pageIds, using a single $in query on the
+     * (dsId, lcId, pgId) index. AnnoPages are read from the cursor as the iterator advances, so they don't all have to
+     * be in memory at the same time. Note that the order of the AnnoPages is not guaranteed
      * @param datasetId
      * @param localId
-     * @param pageId
-     * @return AnnoPage
+     * @param pageIds
+     * @return iterator over the AnnoPages that were found, which should be closed when done
      */
-    public AnnoPage findByDatasetLocalPageId(String datasetId, String localId, String pageId) {
-        Query<AnnoPage> findDLPQuery = datastore.createQuery(AnnoPage.class)
-                .filter("dsId ==", datasetId)
-                .filter("lcId ==", localId)
-                .filter("pgId ==", pageId);
-        return findDLPQuery.get();
+    public MorphiaIterator<AnnoPage, AnnoPage> iterateByDatasetLocalPageIds(String datasetId, String localId,
+                                                                            List<String> pageIds) {
+        return datastore.createQuery(AnnoPage.class)
+                        .filter("dsId ==", datasetId)
+                        .filter("lcId ==", localId)
+                        .field("pgId").in(pageIds)
+                        .fetch();
+    }
+
+    /**
+     * List the pageId and modified date of all AnnoPages of a record. This is answered with a covered query on the
+     * (dsId, lcId, pgId, modified) index, so no AnnoPage documents are loaded.
+     * Optionally the number of annotations of each page can be included, but note that this requires an aggregation
+     * that does read all AnnoPage documents of the record.
+     * @param datasetId
+     * @param localId
+     * @param includeNrAnnotations if true, the number of annotations per page is included as well
+     * @return List of AnnoPageInfo, sorted by pageId in page order (see PageIdOrder), can be empty
+     */
+    public List<AnnoPageInfo> listByDatasetLocalId(String datasetId, String localId, boolean includeNrAnnotations) {
+        DBCollection col = datastore.getCollection(AnnoPage.class);
+        DBObject query = new BasicDBObject();
+        query.put("dsId", datasetId);
+        query.put("lcId", localId);
+
+        List<AnnoPageInfo> result = new ArrayList<>();
+        if (includeNrAnnotations) {
+            DBObject nrAnnotations = new BasicDBObject("$size",
+                    new BasicDBObject("$ifNull", Arrays.asList("$ans", Collections.emptyList())));
+            List<DBObject> pipeline = Arrays.asList(
+                    new BasicDBObject("$match", query),
+                    new BasicDBObject("$project", new BasicDBObject("_id", 0)
+                            .append("pgId", 1)
+                            .append("modified", 1)
+                            .append("nrAns", nrAnnotations)));
+            try (Cursor cur = col.aggregate(pipeline, AggregationOptions.builder().build())) {
+                while (cur.hasNext()) {
+                    DBObject pageInfo = cur.next();
+                    result.add(AnnoPageInfo.withCount((String) pageInfo.get("pgId"),
+                                                      (Date) pageInfo.get("modified"),
+                                                      (Integer) pageInfo.get("nrAns")));
+                }
+            }
+        } else {
+            DBObject projection = new BasicDBObject("_id", 0).append("pgId", 1).append("modified", 1);
+            DBObject indexKeys  = new BasicDBObject("dsId", 1).append("lcId", 1).append("pgId", 1).append("modified", 1);
+            try (DBCursor cur = col.find(query, projection).hint(indexKeys)) {
+                while (cur.hasNext()) {
+                    DBObject pageInfo = cur.next();
+                    result.add(AnnoPageInfo.withCount((String) pageInfo.get("pgId"), (Date) pageInfo.get("modified"),
+                                                      null));
+                }
+            }
+        }
+        // MongoDB would sort the pageIds as text
+        result.sort(Comparator.comparing(AnnoPageInfo::getPgId, PageIdOrder.INSTANCE));
+        return result;
+    }
+
+    /**
+     * Callback used when scanning the keys of all AnnoPages
+     */
+    public interface PageKeyConsumer {
+        void accept(String datasetId, String localId, String pageId);
+    }
+
+    /**
+     * Pass the (dsId, lcId, pgId) key of all AnnoPages in the database to the provided consumer. This is done with a
+     * covered query on the (dsId, lcId, pgId) index, so no AnnoPage documents are loaded.
+     * @param consumer
+     * @return the number of keys that were scanned
+     */
+    public long scanPageKeys(PageKeyConsumer consumer) {
+        DBCollection col = datastore.getCollection(AnnoPage.class);
+        DBObject projection = new BasicDBObject("_id", 0).append("dsId", 1).append("lcId", 1).append("pgId", 1);
+        DBObject indexKeys  = new BasicDBObject("dsId", 1).append("lcId", 1).append("pgId", 1);
+        long nrScanned = 0;
+        try (DBCursor cur = col.find(new BasicDBObject(), projection).hint(indexKeys).batchSize(10000)) {
+            while (cur.hasNext()) {
+                DBObject key = cur.next();
+                consumer.accept((String) key.get("dsId"), (String) key.get("lcId"), (String) key.get("pgId"));
+                nrScanned++;
+            }
+        }
+        return nrScanned;
+    }
+
+    /**
+     * Check if any AnnoPage was inserted after the given time. ObjectIds start with their creation time, so this is
+     * answered with a covered query on the _id index
+     * @param since
+     * @return true if yes, otherwise false
+     */
+    public boolean existsInsertedSince(Date since) {
+        DBCollection col = datastore.getCollection(AnnoPage.class);
+        DBObject query = new BasicDBObject("_id", new BasicDBObject("$gt", new ObjectId(since)));
+        return exists(col, query, new BasicDBObject("_id", 1));
     }
 
     /**
@@ -0,0 +1,110 @@
+package eu.europeana.fulltext.repository.impl;
+
+import com.mongodb.async.client.MongoClient;
+import com.mongodb.async.client.MongoCollection;
+import com.mongodb.async.client.MongoDatabase;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.ResourceInfo;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.mongodb.morphia.AdvancedDatastore;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Runs the small, indexed lookups of the request hot path (existence checks and the info needed to answer conditional
+ * requests) on the asynchronous Mongo driver. Each method returns straight away; the returned CompletableFuture is
+ * completed from the driver's callback, so no thread waits for the database in the meantime.
+ * The queries are the same as those of {@link AnnoPageRepositoryImpl#existsByLimitOne(String, String, String)},
+ * {@link AnnoPageRepositoryImpl#findInfoByDatasetLocalPageId(String, String, String)} and
+ * {@link ResourceRepositoryImpl#findInfoByDatasetLocalResId(String, String, String)}.
+ * This is not a Spring component, as only the API creates an async client (see its DataSourceConfig)
+ */
+public class AsyncInfoRepository {
+
+    private final MongoCollection<Document> annoPages;
+    private final MongoCollection<Document> resources;
+
+    /**
+     * @param mongoClient async client connected to the same database as the datastore
+     * @param datastore   Morphia datastore, used for the names of the database and its collections
+     */
+    public AsyncInfoRepository(MongoClient mongoClient, AdvancedDatastore datastore) {
+        MongoDatabase database = mongoClient.getDatabase(datastore.getDB().getName());
+        this.annoPages = database.getCollection(datastore.getCollection(AnnoPage.class).getName());
+        this.resources = database.getCollection(datastore.getCollection(Resource.class).getName());
+    }
+
+    /**
+     * Check if an AnnoPage exists that matches the given parameters (answered from the (dsId, lcId, pgId) index)
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return future that completes with true if yes, otherwise false
+     */
+    public CompletableFuture<Boolean> existsByLimitOne(String datasetId, String localId, String pageId) {
+        return first(annoPages, pageQuery(datasetId, localId, pageId), new Document("_id", 0).append("pgId", 1),
+                     document -> Boolean.TRUE)
+                .thenApply(exists -> exists != null);
+    }
+
+    /**
+     * Find only the modified date and content version of an AnnoPage
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @return future that completes with the AnnoPageInfo, or with null if the AnnoPage doesn't exist
+     */
+    public CompletableFuture<AnnoPageInfo> findInfoByDatasetLocalPageId(String datasetId, String localId,
+                                                                        String pageId) {
+        Document projection = new Document("_id", 0).append("pgId", 1).append("modified", 1).append("cv", 1);
+        return first(annoPages, pageQuery(datasetId, localId, pageId), projection,
+                     pageInfo -> AnnoPageInfo.withCv(pageInfo.getString("pgId"), pageInfo.getDate("modified"),
+                                                     pageInfo.getString("cv")));
+    }
+
+    /**
+     * Find only the modified date and content version of a Resource
+     * @param datasetId
+     * @param localId
+     * @param resId
+     * @return future that completes with the ResourceInfo, or with null if the Resource doesn't exist
+     */
+    public CompletableFuture<ResourceInfo> findInfoByDatasetLocalResId(String datasetId, String localId,
+                                                                       String resId) {
+        Document query      = new Document("dsId", datasetId).append("lcId", localId).append("_id", resId);
+        Document projection = new Document("_id", 1).append("modified", 1).append("cv", 1);
+        return first(resources, query, projection,
+                     resourceInfo -> new ResourceInfo(resourceInfo.getString("_id"), resourceInfo.getDate("modified"),
+                                                      resourceInfo.getString("cv")));
+    }
+
+    private static Document pageQuery(String datasetId, String localId, String pageId) {
+        return new Document("dsId", datasetId).append("lcId", localId).append("pgId", pageId);
+    }
+
+    /**
+     * Find the first document that matches the query
+     * @return future that completes with the converted document (or null if there is none) when the driver calls
+     * back, or with the driver's exception if the query failed
+     */
+    private static <T> CompletableFuture<T> first(MongoCollection<Document> collection, Bson query, Bson projection,
+                                                  Function<Document, T> converter) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        collection.find(query).projection(projection).first((document, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            try {
+                result.complete(document == null ? null : converter.apply(document));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -19,6 +19,9 @@ package eu.europeana.fulltext.repository.impl;
 
 import java.io.Serializable;
 
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 import com.mongodb.WriteResult;
 import eu.europeana.fulltext.repository.CrudRepository;
 import org.mongodb.morphia.AdvancedDatastore;
@@ -41,6 +44,20 @@ public class BaseRepository <T, ID extends Serializable> implements CrudReposito
         this.t = t;
     }
 
+    /**
+     * Check if a document exists that matches the query. At most 1 (projected) document is fetched in 1 batch; unlike
+     * DBCursor.count() this doesn't run a separate count command.
+     * @param col collection to query
+     * @param query
+     * @param projection fields to return, preferably only fields that are in the index used by the query
+     * @return true if a matching document exists, otherwise false
+     */
+    protected boolean exists(DBCollection col, DBObject query, DBObject projection) {
+        try (DBCursor cur = col.find(query, projection).limit(1).batchSize(1)) {
+            return cur.hasNext();
+        }
+    }
+
     public Object getObjectByKey(Class<T> type, Key<T> key){
 	    return datastore.getByKey(type, key);
     }
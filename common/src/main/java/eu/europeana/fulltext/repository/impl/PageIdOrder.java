@@ -0,0 +1,60 @@
+package eu.europeana.fulltext.repository.impl;
+
+import java.util.Comparator;
+
+/**
+ * Orders pageIds the way the pages appear in a record. PageIds are usually page numbers stored as strings, so sorting
+ * them as text (which is what MongoDB does) puts "10" before "2". Numeric pageIds are compared by their value and come
+ * before other pageIds, which are compared as text.
+ * We sort in Java rather than with a numericOrdering collation, because a query with a collation can't use our
+ * (simple collation) indexes.
+ */
+final class PageIdOrder implements Comparator<String> {
+
+    static final PageIdOrder INSTANCE = new PageIdOrder();
+
+    private PageIdOrder() {
+        // use INSTANCE
+    }
+
+    @Override
+    public int compare(String pageId1, String pageId2) {
+        boolean numeric1 = isNumeric(pageId1);
+        boolean numeric2 = isNumeric(pageId2);
+        if (numeric1 && numeric2) {
+            // compare without parsing, so page numbers of any length are supported
+            String value1 = stripLeadingZeros(pageId1);
+            String value2 = stripLeadingZeros(pageId2);
+            int result = Integer.compare(value1.length(), value2.length());
+            if (result == 0) {
+                result = value1.compareTo(value2);
+            }
+            return result == 0 ? pageId1.compareTo(pageId2) : result;
+        }
+        if (numeric1 != numeric2) {
+            return numeric1 ? -1 : 1;
+        }
+        return pageId1.compareTo(pageId2);
+    }
+
+    private static boolean isNumeric(String pageId) {
+        if (pageId.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < pageId.length(); i++) {
+            char c = pageId.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripLeadingZeros(String pageId) {
+        int start = 0;
+        while (start < pageId.length() - 1 && pageId.charAt(start) == '0') {
+            start++;
+        }
+        return pageId.substring(start);
+    }
+}
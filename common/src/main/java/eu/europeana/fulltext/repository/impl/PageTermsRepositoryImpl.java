@@ -0,0 +1,105 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.repository.impl;
+
+import com.mongodb.*;
+import eu.europeana.fulltext.entity.PageTerms;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.mapping.Mapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Repository for the search index of AnnoPages
+ */
+@Repository
+public class PageTermsRepositoryImpl extends BaseRepository<PageTerms, ObjectId> {
+
+    public PageTermsRepositoryImpl() {
+        super(PageTerms.class);
+    }
+
+    @Autowired
+    private AdvancedDatastore datastore;
+
+    /**
+     * Find the pages of a record that contain at least one of the given terms. Of each page only the matching terms
+     * are returned (filtered by MongoDB with a $filter aggregation), so the rest of the page's index is never sent
+     * to us.
+     * @param datasetId
+     * @param localId
+     * @param terms normalised terms
+     * @return the matching pages, sorted by pageId in page order (see PageIdOrder)
+     */
+    public List<PageTerms> findByTerms(String datasetId, String localId, List<String> terms) {
+        DBCollection col = datastore.getCollection(PageTerms.class);
+        DBObject query = new BasicDBObject();
+        query.put("dsId", datasetId);
+        query.put("lcId", localId);
+        query.put("tms.t", new BasicDBObject("$in", terms));
+        DBObject matchingTerms = new BasicDBObject("$filter", new BasicDBObject("input", "$tms")
+                .append("as", "tm")
+                .append("cond", new BasicDBObject("$in", Arrays.asList("$$tm.t", terms))));
+        List<DBObject> pipeline = Arrays.asList(
+                new BasicDBObject("$match", query),
+                new BasicDBObject("$addFields", new BasicDBObject("tms", matchingTerms)));
+
+        List<PageTerms> result = new ArrayList<>();
+        Mapper mapper = datastore.getMapper();
+        try (Cursor cur = col.aggregate(pipeline, AggregationOptions.builder().build())) {
+            while (cur.hasNext()) {
+                result.add(mapper.fromDBObject(datastore, PageTerms.class, cur.next(), mapper.createEntityCache()));
+            }
+        }
+        // MongoDB would sort the pageIds as text
+        result.sort(Comparator.comparing(PageTerms::getPgId, PageIdOrder.INSTANCE));
+        return result;
+    }
+
+    /**
+     * Save the search index of a page, replacing any existing index of the same page
+     * @param pageTerms
+     */
+    public void save(PageTerms pageTerms) {
+        DBCollection col = datastore.getCollection(PageTerms.class);
+        DBObject query = new BasicDBObject();
+        query.put("dsId", pageTerms.getDsId());
+        query.put("lcId", pageTerms.getLcId());
+        query.put("pgId", pageTerms.getPgId());
+        col.remove(query);
+        create(pageTerms);
+    }
+
+    /**
+     * Deletes the search index of all pages of a particular dataset
+     * @param datasetId
+     * @return the number of deleted page indexes
+     */
+    public int deleteDataset(String datasetId) {
+        DBCollection col = datastore.getCollection(PageTerms.class);
+        WriteResult result = col.remove(new BasicDBObject("dsId", datasetId));
+        return result.getN();
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2007-2018 The Europeana Foundation
+ *
+ *  Licenced under the EUPL, Version 1.1 (the "Licence") and subsequent versions as approved
+ *  by the European Commission;
+ *  You may not use this work except in compliance with the Licence.
+ *
+ *  You may obtain a copy of the Licence at:
+ *  http://joinup.ec.europa.eu/software/page/eupl
+ *
+ *  Unless required by applicable law or agreed to in writing, software distributed under
+ *  the Licence is distributed on an "AS IS" basis, without warranties or conditions of
+ *  any kind, either express or implied.
+ *  See the Licence for the specific language governing permissions and limitations under
+ *  the Licence.
+ */
+
+package eu.europeana.fulltext.repository.impl;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.query.MorphiaIterator;
+import org.mongodb.morphia.query.Query;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.function.Consumer;
+
+/**
+ * Repository for pre-rendered AnnoPages
+ */
+@Repository
+public class RenderedAnnoPageRepositoryImpl extends BaseRepository<RenderedAnnoPage, ObjectId> {
+
+    public RenderedAnnoPageRepositoryImpl() {
+        super(RenderedAnnoPage.class);
+    }
+
+    @Autowired
+    private AdvancedDatastore datastore;
+
+    /**
+     * Find the pre-rendered output of an AnnoPage for a particular IIIF version
+     * @param datasetId
+     * @param localId
+     * @param pageId
+     * @param version IIIF version [2|3]
+     * @return RenderedAnnoPage, or null if it doesn't exist
+     */
+    public RenderedAnnoPage findByDatasetLocalPageId(String datasetId, String localId, String pageId,
+                                                     String version) {
+        Query<RenderedAnnoPage> findDLPQuery = datastore.createQuery(RenderedAnnoPage.class)
+                                                        .filter("dsId ==", datasetId)
+                                                        .filter("lcId ==", localId)
+                                                        .filter("pgId ==", pageId)
+                                                        .filter("ver ==", version);
+        return findDLPQuery.get();
+    }
+
+    /**
+     * Pass all pre-rendered AnnoPages of a dataset to the provided consumer, one at a time
+     * @param datasetId
+     * @param consumer
+     * @return the number of pre-rendered AnnoPages that were scanned
+     */
+    public long scanDataset(String datasetId, Consumer<RenderedAnnoPage> consumer) {
+        MorphiaIterator<RenderedAnnoPage, RenderedAnnoPage> pages = datastore.createQuery(RenderedAnnoPage.class)
+                                                                             .filter("dsId ==", datasetId)
+                                                                             .fetch();
+        long nrScanned = 0;
+        try {
+            while (pages.hasNext()) {
+                consumer.accept(pages.next());
+                nrScanned++;
+            }
+        } finally {
+            pages.close();
+        }
+        return nrScanned;
+    }
+
+    /**
+     * Save a pre-rendered AnnoPage, replacing any existing rendering of the same page and version
+     * @param renderedAnnoPage
+     */
+    public void save(RenderedAnnoPage renderedAnnoPage) {
+        DBCollection col = datastore.getCollection(RenderedAnnoPage.class);
+        DBObject query = new BasicDBObject();
+        query.put("dsId", renderedAnnoPage.getDsId());
+        query.put("lcId", renderedAnnoPage.getLcId());
+        query.put("pgId", renderedAnnoPage.getPgId());
+        query.put("ver", renderedAnnoPage.getVer());
+        col.remove(query);
+        create(renderedAnnoPage);
+    }
+
+    /**
+     * Deletes all pre-rendered annotation pages of a particular dataset
+     * @param datasetId
+     * @return the number of deleted pre-rendered pages
+     */
+    public int deleteDataset(String datasetId) {
+        DBCollection col = datastore.getCollection(RenderedAnnoPage.class);
+        WriteResult result = col.remove(new BasicDBObject("dsId", datasetId));
+        return result.getN();
+    }
+
+}
@@ -19,12 +19,15 @@ package eu.europeana.fulltext.repository.impl;
 
 import com.mongodb.*;
 import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.ResourceInfo;
 import eu.europeana.fulltext.repository.ResourceRepository;
 import org.mongodb.morphia.AdvancedDatastore;
 import org.mongodb.morphia.Key;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.util.Date;
+
 
 /**
  * Created by luthien on 31/05/2018.
@@ -40,7 +43,8 @@ public class ResourceRepositoryImpl extends BaseRepository<Resource, String> imp
     private AdvancedDatastore datastore;
 
     /**
-     * Check if a Resource exists that matches the given parameters
+     * Check if a Resource exists that matches the given parameters. Only the _id is projected, so this is answered
+     * from the (dsId, lcId, _id) index without loading the Resource document.
      * @param datasetId
      * @param localId
      * @param resId
@@ -52,10 +56,7 @@ public class ResourceRepositoryImpl extends BaseRepository<Resource, String> imp
         query.put("dsId", datasetId);
         query.put("lcId", localId);
         query.put("_id", resId);
-        DBCursor cur   = col.find(query).limit(1);
-        int      count = cur.count();
-        cur.close();
-        return (count >= 1);
+        return exists(col, query, new BasicDBObject("_id", 1));
     }
 
     /**
@@ -81,6 +82,29 @@ public class ResourceRepositoryImpl extends BaseRepository<Resource, String> imp
         return findDLPQuery.get();
     }
 
+    /**
+     * Find only the modified date and content version of a Resource, so we can answer conditional requests without
+     * loading its text
+     * @param datasetId
+     * @param localId
+     * @param resId
+     * @return ResourceInfo, or null if the Resource doesn't exist
+     */
+    public ResourceInfo findInfoByDatasetLocalResId(String datasetId, String localId, String resId) {
+        DBCollection col = datastore.getCollection(Resource.class);
+        DBObject query= new BasicDBObject();
+        query.put("dsId", datasetId);
+        query.put("lcId", localId);
+        query.put("_id", resId);
+        DBObject projection = new BasicDBObject("_id", 1).append("modified", 1).append("cv", 1);
+        DBObject resourceInfo = col.findOne(query, projection);
+        if (resourceInfo == null) {
+            return null;
+        }
+        return new ResourceInfo((String) resourceInfo.get("_id"), (Date) resourceInfo.get("modified"),
+                                (String) resourceInfo.get("cv"));
+    }
+
     /**
      * Deletes all resources part of a particular dataset
      * @param datasetId
@@ -36,16 +36,62 @@ public class LoaderSettings {
     @Value("${resource.baseurl}")
     private String resourceBaseUrl;
 
+    @Value("${annopage.baseurl:https://iiif.europeana.eu/presentation/}")
+    private String annoPageBaseUrl;
+
+    @Value("${annopage.directory:/annopage/}")
+    private String annoPageDirectory;
+
+    @Value("${annotation.baseurl:http://data.europeana.eu/annotation/}")
+    private String annotationBaseUrl;
+
+    @Value("${annotation.directory:/}")
+    private String annotationDirectory;
+
     @Value("${batch.base.directory}")
     private String batchBaseDirectory;
 
     @Value("${stop.error.save}")
     private Boolean stopOnSaveError;
 
+    @Value("${prerender.enabled:false}")
+    private boolean prerenderEnabled;
+
+    @Value("${searchindex.enabled:false}")
+    private boolean searchIndexEnabled;
+
+    @Value("${cache.invalidation.mode:none}")
+    private String cacheInvalidationMode;
+
+    @Value("${cache.invalidation.file:}")
+    private String cacheInvalidationFile;
+
+    @Value("${cache.invalidation.http.url:}")
+    private String cacheInvalidationUrl;
+
+    @Value("${cache.invalidation.http.token:}")
+    private String cacheInvalidationToken;
+
     public String getResourceBaseUrl() {
         return resourceBaseUrl;
     }
 
+    public String getAnnoPageBaseUrl() {
+        return annoPageBaseUrl;
+    }
+
+    public String getAnnoPageDirectory() {
+        return annoPageDirectory;
+    }
+
+    public String getAnnotationBaseUrl() {
+        return annotationBaseUrl;
+    }
+
+    public String getAnnotationDirectory() {
+        return annotationDirectory;
+    }
+
     public String getBatchBaseDirectory() { return batchBaseDirectory; }
 
     /**
@@ -55,4 +101,46 @@ public class LoaderSettings {
         return stopOnSaveError;
     }
 
+    /**
+     * @return true if the loader should pre-render the IIIF v2 and v3 JSON-LD output of each saved AnnoPage
+     */
+    public boolean isPrerenderEnabled() {
+        return prerenderEnabled;
+    }
+
+    /**
+     * @return true if the loader should save the search index (words and their word annotations) of each saved AnnoPage
+     */
+    public boolean isSearchIndexEnabled() {
+        return searchIndexEnabled;
+    }
+
+    /**
+     * @return how cache invalidations are published after loading or deleting data, either 'none', 'file' or 'http'
+     */
+    public String getCacheInvalidationMode() {
+        return cacheInvalidationMode;
+    }
+
+    /**
+     * @return file to which invalidated surrogate keys are appended (only used in 'file' mode)
+     */
+    public String getCacheInvalidationFile() {
+        return cacheInvalidationFile;
+    }
+
+    /**
+     * @return url to which purge requests are sent (only used in 'http' mode)
+     */
+    public String getCacheInvalidationUrl() {
+        return cacheInvalidationUrl;
+    }
+
+    /**
+     * @return optional token that is sent along with purge requests (only used in 'http' mode)
+     */
+    public String getCacheInvalidationToken() {
+        return cacheInvalidationToken;
+    }
+
 }
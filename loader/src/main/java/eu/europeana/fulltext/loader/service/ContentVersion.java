@@ -0,0 +1,104 @@
+package eu.europeana.fulltext.loader.service;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.entity.Resource;
+import eu.europeana.fulltext.entity.Target;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility class for calculating the content version of AnnoPages and Resources. The content version is a (truncated)
+ * SHA-256 hash of all fields that end up in the API output, so it only changes when the content changes. The API
+ * uses it to generate strong eTags without having to hash anything itself.
+ */
+public final class ContentVersion {
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+    private static final int    NR_BYTES  = 12; // 96 bits is plenty to detect changes of a single page
+    private static final byte   SEPARATOR = 0;
+
+    private ContentVersion() {
+        // empty constructor to prevent initialization
+    }
+
+    /**
+     * @param resource
+     * @return content version of the provided resource
+     */
+    public static String of(Resource resource) {
+        MessageDigest digest = newDigest();
+        update(digest, resource.getId());
+        update(digest, resource.getLang());
+        update(digest, resource.getValue());
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Calculates the content version of an AnnoPage. This includes the content version of its resource, so if the
+     * resource's content version is not set yet, it is set as well
+     * @param annoPage
+     * @return content version of the provided AnnoPage
+     */
+    public static String of(AnnoPage annoPage) {
+        MessageDigest digest = newDigest();
+        update(digest, annoPage.getTgtId());
+        Resource resource = annoPage.getRes();
+        if (resource != null) {
+            if (resource.getCv() == null) {
+                resource.setCv(of(resource));
+            }
+            update(digest, resource.getCv());
+        }
+        if (annoPage.getAns() != null) {
+            for (Annotation annotation : annoPage.getAns()) {
+                update(digest, annotation.getAnId());
+                update(digest, String.valueOf(annotation.getDcType()));
+                update(digest, annotation.getMotiv());
+                update(digest, annotation.getLang());
+                update(digest, annotation.getFrom());
+                update(digest, annotation.getTo());
+                if (annotation.getTgs() != null) {
+                    for (Target target : annotation.getTgs()) {
+                        update(digest, target.getX());
+                        update(digest, target.getY());
+                        update(digest, target.getW());
+                        update(digest, target.getH());
+                    }
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java implementation is required to support SHA-256
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value != null) {
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update(SEPARATOR);
+    }
+
+    private static void update(MessageDigest digest, Integer value) {
+        update(digest, value == null ? null : value.toString());
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] hex = new char[NR_BYTES * 2];
+        for (int i = 0; i < NR_BYTES; i++) {
+            hex[i * 2]     = HEX_CHARS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_CHARS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -21,13 +21,13 @@ import eu.europeana.fulltext.entity.AnnoPage;
 import eu.europeana.fulltext.loader.config.LoaderDefinitions;
 import eu.europeana.fulltext.loader.config.LoaderSettings;
 import eu.europeana.fulltext.loader.exception.LoaderException;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -49,13 +49,16 @@ public class LoadArchiveService extends SimpleFileVisitor<Path> {
     private XMLParserService parser;
     private MongoService mongoService;
     private LoaderSettings settings;
+    private LoaderMetrics metrics;
     private int apCounter = 0;
     private List<AnnoPage> apList = new ArrayList<>();
 
-    public LoadArchiveService(XMLParserService parser, MongoService mongoService, LoaderSettings settings) {
+    public LoadArchiveService(XMLParserService parser, MongoService mongoService, LoaderSettings settings,
+                              LoaderMetrics metrics) {
         this.parser = parser;
         this.mongoService = mongoService;
         this.settings = settings;
+        this.metrics = metrics;
     }
 
     /**
@@ -126,7 +129,7 @@ public class LoadArchiveService extends SimpleFileVisitor<Path> {
 
             if (apCounter > 0) {
                 LOG.debug("... remaining {} xml files parsed, flushing to MongoDB ...", apCounter);
-                mongoService.saveAnnoPageList(apList, saveMode);
+                flush(saveMode);
                 LOG.debug("... done.");
                 apList = new ArrayList<>();
                 apCounter = 0;
@@ -160,20 +163,24 @@ public class LoadArchiveService extends SimpleFileVisitor<Path> {
     private void parseArchiveFile(ZipEntry element, ZipFile archive, ProgressLogger progressFiles,
                                   ProgressLogger progressAnnotations, MongoSaveMode saveMode) throws LoaderException {
         LOG.debug("Parsing file {} ", element.getName());
-        try (InputStream  inputStream = archive.getInputStream(element)) {
+        try (CountingInputStream inputStream = new CountingInputStream(archive.getInputStream(element))) {
             String pageId = getPageIdFromFileName(element.getName());
+            long start = System.nanoTime();
             AnnoPage ap = parser.parse(pageId, inputStream, element.getName(), progressAnnotations);
+            metrics.fileParsed(System.nanoTime() - start, inputStream.getByteCount(),
+                               ap.getAns() == null ? 0 : ap.getAns().size());
             apList.add(ap);
             apCounter++;
             progressFiles.addItemOk();
         } catch (IOException | LoaderException e) {
             progressFiles.addItemFail();
+            metrics.fileFailed(e);
             LogFile.OUT.error("{} - Error parsing file: {}", element.getName(), getRootCauseMsg(e), e);
         }
 
         if (apCounter > 99){
             LOG.debug("... 100 xml files parsed, flushing to MongoDB ...");
-            mongoService.saveAnnoPageList(apList, saveMode);
+            flush(saveMode);
             LOG.debug("... done, continuing ...");
             apList.clear();
             apCounter = 0;
@@ -181,6 +188,12 @@ public class LoadArchiveService extends SimpleFileVisitor<Path> {
         LOG.debug("Done parsing file {} ", element.toString());
     }
 
+    private void flush(MongoSaveMode saveMode) throws LoaderException {
+        long start = System.nanoTime();
+        mongoService.saveAnnoPageList(apList, saveMode);
+        metrics.batchFlushed(System.nanoTime() - start);
+    }
+
     private String getPageIdFromFileName(String fileName ) {
         String pageId = fileName;
         if (StringUtils.contains(pageId, "/")) {
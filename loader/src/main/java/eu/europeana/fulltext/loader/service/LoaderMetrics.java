@@ -0,0 +1,137 @@
+package eu.europeana.fulltext.loader.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput metrics of the loader, exposed via the actuator metrics endpoint:
+ * <ul>
+ *     <li>fulltext.loader.files - number of xml files read, tagged with result ok or fail</li>
+ *     <li>fulltext.loader.bytes.decompressed - number of bytes read from the archives after decompression</li>
+ *     <li>fulltext.loader.parse - time it takes to parse a single xml file</li>
+ *     <li>fulltext.loader.annotations.per.page - distribution of the number of annotations per AnnoPage</li>
+ *     <li>fulltext.loader.flush - time it takes to save a batch of AnnoPages to the database</li>
+ *     <li>fulltext.loader.documents.written - number of documents saved, tagged with type annopage or resource</li>
+ *     <li>fulltext.loader.failures - number of failures, tagged with stage and exception type</li>
+ * </ul>
+ * Counters are backed by LongAdders, so they can be updated from multiple threads without contention. Documents
+ * written per second can be derived from the documents.written counter (e.g. with a rate function in the dashboard).
+ */
+@Component
+public class LoaderMetrics {
+
+    public static final String STAGE_PARSE     = "parse";
+    public static final String STAGE_SAVE      = "save";
+    public static final String STAGE_PRERENDER = "prerender";
+    public static final String STAGE_INDEX     = "index";
+
+    private static final String PREFIX = "fulltext.loader.";
+
+    private final MeterRegistry meterRegistry;
+
+    private final LongAdder filesOk           = new LongAdder();
+    private final LongAdder filesFail         = new LongAdder();
+    private final LongAdder bytesDecompressed = new LongAdder();
+    private final LongAdder annoPagesWritten  = new LongAdder();
+    private final LongAdder resourcesWritten  = new LongAdder();
+
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+
+    private final Timer               parseTimer;
+    private final Timer               flushTimer;
+    private final DistributionSummary annotationsPerPage;
+
+    public LoaderMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        registerCounter(PREFIX + "files", filesOk, "result", "ok");
+        registerCounter(PREFIX + "files", filesFail, "result", "fail");
+        FunctionCounter.builder(PREFIX + "bytes.decompressed", bytesDecompressed, LongAdder::sum)
+                       .baseUnit("bytes")
+                       .register(meterRegistry);
+        registerCounter(PREFIX + "documents.written", annoPagesWritten, "type", "annopage");
+        registerCounter(PREFIX + "documents.written", resourcesWritten, "type", "resource");
+        this.parseTimer = Timer.builder(PREFIX + "parse")
+                               .publishPercentileHistogram()
+                               .register(meterRegistry);
+        this.flushTimer = Timer.builder(PREFIX + "flush")
+                               .publishPercentileHistogram()
+                               .register(meterRegistry);
+        this.annotationsPerPage = DistributionSummary.builder(PREFIX + "annotations.per.page")
+                                                     .register(meterRegistry);
+    }
+
+    private void registerCounter(String name, LongAdder adder, String tagKey, String tagValue) {
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                       .tag(tagKey, tagValue)
+                       .register(meterRegistry);
+    }
+
+    /**
+     * Report that an xml file was read and parsed
+     * @param nanos         time it took to parse the file
+     * @param bytes         number of (decompressed) bytes read
+     * @param nrAnnotations number of annotations of the parsed AnnoPage
+     */
+    public void fileParsed(long nanos, long bytes, int nrAnnotations) {
+        filesOk.increment();
+        bytesDecompressed.add(bytes);
+        parseTimer.record(nanos, TimeUnit.NANOSECONDS);
+        annotationsPerPage.record(nrAnnotations);
+    }
+
+    /**
+     * Report that an xml file could not be read or parsed
+     * @param e the error
+     */
+    public void fileFailed(Exception e) {
+        filesFail.increment();
+        failure(STAGE_PARSE, e);
+    }
+
+    /**
+     * Report the time it took to save a batch of AnnoPages
+     * @param nanos
+     */
+    public void batchFlushed(long nanos) {
+        flushTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Report that an AnnoPage was saved
+     */
+    public void annoPageWritten() {
+        annoPagesWritten.increment();
+    }
+
+    /**
+     * Report that a Resource was saved
+     */
+    public void resourceWritten() {
+        resourcesWritten.increment();
+    }
+
+    /**
+     * Report a failure
+     * @param stage one of the STAGE constants
+     * @param e     the error, the type of which is used as tag
+     */
+    public void failure(String stage, Exception e) {
+        String exception = e.getClass().getSimpleName();
+        failures.computeIfAbsent(stage + '/' + exception, key -> {
+            LongAdder adder = new LongAdder();
+            FunctionCounter.builder(PREFIX + "failures", adder, LongAdder::sum)
+                           .tag("stage", stage)
+                           .tag("exception", exception)
+                           .register(meterRegistry);
+            return adder;
+        }).increment();
+    }
+}
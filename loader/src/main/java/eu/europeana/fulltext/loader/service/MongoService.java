@@ -1,16 +1,25 @@
 package eu.europeana.fulltext.loader.service;
 
+import eu.europeana.fulltext.api.service.AnnoPageRenderer;
+import eu.europeana.fulltext.api.service.BaseUrls;
+import eu.europeana.fulltext.api.service.SearchTerms;
 import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
 import eu.europeana.fulltext.entity.Resource;
 import eu.europeana.fulltext.loader.config.LoaderSettings;
 import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.PageTermsRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.RenderedAnnoPageRepositoryImpl;
 import eu.europeana.fulltext.repository.impl.ResourceRepositoryImpl;
 import eu.europeana.fulltext.loader.exception.LoaderException;
+import eu.europeana.fulltext.loader.service.invalidation.CacheInvalidationService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -22,16 +31,36 @@ public class MongoService {
 
     private static final Logger LOG = LogManager.getLogger(MongoService.class);
 
+    private static final String[] PRERENDER_VERSIONS = {"2", "3"};
+
     @Autowired
     ResourceRepositoryImpl resourceRepositoryImpl;
 
     @Autowired
     AnnoPageRepositoryImpl annoPageRepositoryImpl;
 
+    @Autowired
+    RenderedAnnoPageRepositoryImpl renderedAnnoPageRepositoryImpl;
+
+    @Autowired
+    PageTermsRepositoryImpl pageTermsRepositoryImpl;
+
+    @Autowired
+    CacheInvalidationService cacheInvalidationService;
+
+    @Autowired
+    LoaderMetrics loaderMetrics;
+
     private LoaderSettings settings;
 
+    // base urls of the ids in the pre-rendered output
+    private BaseUrls baseUrls;
+
     public MongoService(LoaderSettings settings) {
         this.settings = settings;
+        this.baseUrls = new BaseUrls(settings.getAnnoPageBaseUrl(), settings.getAnnoPageDirectory(),
+                                     settings.getAnnotationBaseUrl(), settings.getAnnotationDirectory(),
+                                     settings.getResourceBaseUrl());
     }
 
     public void saveAnnoPageList(List<AnnoPage> apList, MongoSaveMode saveMode) throws LoaderException {
@@ -54,6 +83,7 @@ public class MongoService {
                 LogFile.OUT.warn("Expected number of annotation pages in database is {}, but actual number is {}",
                         annoPageCount + apList.size(), annoPageCount);
             }
+            cacheInvalidationService.invalidateAnnoPages(apList);
         }
         LOG.debug("Saving done.");
     }
@@ -67,10 +97,16 @@ public class MongoService {
         String lcId = resource.getLcId();
         String id = resource.getId();
         try{
+            resource.setCv(ContentVersion.of(resource));
+            if (resource.getModified() == null) {
+                resource.setModified(new Date());
+            }
             resourceRepositoryImpl.save(resource);
+            loaderMetrics.resourceWritten();
             LOG.debug("{}/{}/{} - Resource saved", dsId, lcId, id);
             return true;
         } catch (Exception e){
+            loaderMetrics.failure(LoaderMetrics.STAGE_SAVE, e);
             LogFile.OUT.error("{}/{}/{} - Error saving resource", dsId, lcId, id, e);
             if (settings.isStopOnSaveError()) {
                 throw new LoaderException("Error saving resource with dsId: " + dsId +
@@ -100,10 +136,19 @@ public class MongoService {
         String lcId = annoPage.getLcId();
         String pgId = annoPage.getPgId();
         try{
+            annoPage.setCv(ContentVersion.of(annoPage));
             annoPageRepositoryImpl.save(annoPage);
+            loaderMetrics.annoPageWritten();
             LOG.debug("{}/{}/{} AnnoPage saved", dsId, lcId, pgId);
+            if (settings.isPrerenderEnabled()) {
+                prerenderAnnoPage(annoPage);
+            }
+            if (settings.isSearchIndexEnabled()) {
+                indexAnnoPage(annoPage);
+            }
             return true;
         } catch (Exception e){
+            loaderMetrics.failure(LoaderMetrics.STAGE_SAVE, e);
             LogFile.OUT.error("{}/{}/{} - Error saving AnnoPage", dsId, lcId, pgId, e);
             if (settings.isStopOnSaveError()) {
                 throw new LoaderException("Error saving Annopage with dsId: " + dsId +
@@ -115,11 +160,54 @@ public class MongoService {
     }
 
     /**
-     * Deletes all annotation pages that belong to a particular dataset
+     * Render the IIIF output of an AnnoPage for all supported versions and save it, so the API doesn't have to do this
+     * for each request. Failing to do so is logged, but isn't considered an error as the API can still generate the
+     * output itself.
+     * @param annoPage saved AnnoPage (with content version set)
+     */
+    private void prerenderAnnoPage(AnnoPage annoPage) {
+        String dsId = annoPage.getDsId();
+        String lcId = annoPage.getLcId();
+        String pgId = annoPage.getPgId();
+        for (String version : PRERENDER_VERSIONS) {
+            try {
+                byte[] json = AnnoPageRenderer.renderGzipped(annoPage, version, baseUrls);
+                renderedAnnoPageRepositoryImpl.save(new RenderedAnnoPage(dsId, lcId, pgId, version, annoPage.getCv(),
+                                                                         json));
+                LOG.debug("{}/{}/{} AnnoPage version {} pre-rendered ({} bytes)", dsId, lcId, pgId, version,
+                          json.length);
+            } catch (IOException | RuntimeException e) {
+                loaderMetrics.failure(LoaderMetrics.STAGE_PRERENDER, e);
+                LogFile.OUT.warn("{}/{}/{} - Error pre-rendering AnnoPage version {}", dsId, lcId, pgId, version, e);
+            }
+        }
+    }
+
+    /**
+     * Save the search index of an AnnoPage, so the API can search the words of a record without scanning the page
+     * text. Failing to do so is logged, but isn't considered an error as the page itself was saved.
+     * @param annoPage saved AnnoPage (with content version set)
+     */
+    private void indexAnnoPage(AnnoPage annoPage) {
+        try {
+            pageTermsRepositoryImpl.save(SearchTerms.index(annoPage));
+            LOG.debug("{}/{}/{} AnnoPage indexed", annoPage.getDsId(), annoPage.getLcId(), annoPage.getPgId());
+        } catch (RuntimeException e) {
+            loaderMetrics.failure(LoaderMetrics.STAGE_INDEX, e);
+            LogFile.OUT.warn("{}/{}/{} - Error indexing AnnoPage", annoPage.getDsId(), annoPage.getLcId(),
+                             annoPage.getPgId(), e);
+        }
+    }
+
+    /**
+     * Deletes all annotation pages (and their pre-rendered output and search index) that belong to a particular
+     * dataset
      * @param datasetId
      * @return the number of deleted annopages
      */
     public long deleteAllAnnoPages(String datasetId) {
+        renderedAnnoPageRepositoryImpl.deleteDataset(datasetId);
+        pageTermsRepositoryImpl.deleteDataset(datasetId);
         return annoPageRepositoryImpl.deleteDataset(datasetId);
     }
 
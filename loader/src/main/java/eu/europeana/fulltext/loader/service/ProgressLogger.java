@@ -5,8 +5,11 @@ import org.apache.logging.log4j.Logger;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
- * Utility class to log progress of long processes
+ * Utility class to log progress of long processes. Items can be reported from multiple threads.
  * @author Patrick Ehlert
  * Created on 30-03-2018
  */
@@ -14,18 +17,16 @@ public class ProgressLogger {
 
     private static final Logger LOG = LogManager.getLogger(ProgressLogger.class);
 
-    private long expectedItems;
-    private long itemsOk;
-    private long itemsFail;
+    private volatile long expectedItems;
+    private final LongAdder itemsOk = new LongAdder();
+    private final LongAdder itemsFail = new LongAdder();
 
-    private long startTime;
-    private int logAfterSeconds;
-    private long lastLogTime;
+    private final long startTime;
+    private final int logAfterSeconds;
+    private final AtomicLong lastLogTime;
 
     public ProgressLogger(int logAfterSeconds) {
-        this.startTime = System.currentTimeMillis();
-        this.lastLogTime = startTime;
-        this.logAfterSeconds = logAfterSeconds;
+        this(0, logAfterSeconds);
     }
 
     /**
@@ -37,7 +38,7 @@ public class ProgressLogger {
      */
     public ProgressLogger(long expectedItems, int logAfterSeconds) {
         this.startTime = System.currentTimeMillis();
-        this.lastLogTime = startTime;
+        this.lastLogTime = new AtomicLong(startTime);
         this.expectedItems = expectedItems;
         this.logAfterSeconds = logAfterSeconds;
     }
@@ -50,38 +51,41 @@ public class ProgressLogger {
      * Report that another item is processed fine.
      */
     public void addItemOk() {
-        this.itemsOk++;
+        this.itemsOk.increment();
         logProgress();
     }
 
     public long getItemsDone() {
-        return this.itemsFail + this.itemsOk;
+        return this.itemsFail.sum() + this.itemsOk.sum();
     }
 
     public long getItemsOk() {
-        return this.itemsOk;
+        return this.itemsOk.sum();
     }
 
     public long getItemsFail() {
-        return this.itemsFail;
+        return this.itemsFail.sum();
     }
 
     /**
      * Report that another item is processed fine.
      */
     public void addItemFail() {
-        this.itemsFail++;
+        this.itemsFail.increment();
         logProgress();
     }
 
     /**
      * Log the number of items that are left to retrieve and an estimate of the remaining time, but only every x seconds
-     * as specified by logAfterSeconds
+     * as specified by logAfterSeconds. If multiple threads report progress at the same time only one of them logs.
      */
     public void logProgress() {
-        Duration d = new Duration(lastLogTime, System.currentTimeMillis());
-        if (logAfterSeconds > 0 && d.getMillis() / 1000 > logAfterSeconds) {
-            Long itemsDone = getItemsDone();
+        long now = System.currentTimeMillis();
+        long lastLog = lastLogTime.get();
+        Duration d = new Duration(lastLog, now);
+        if (logAfterSeconds > 0 && d.getMillis() / 1000 > logAfterSeconds && lastLogTime.compareAndSet(lastLog, now)) {
+            long itemsDone = getItemsDone();
+            long itemsFail = getItemsFail();
             if (expectedItems > 0) {
                 Double itemsPerMS = itemsDone * 1d / (System.currentTimeMillis() - startTime);
                 if (itemsPerMS * 1000 > 1.0) {
@@ -96,7 +100,6 @@ public class ProgressLogger {
             } else {
                 LOG.info("Processed {} items. {} failed.", itemsDone, itemsFail);
             }
-            lastLogTime = System.currentTimeMillis();
         }
     }
 
@@ -105,7 +108,7 @@ public class ProgressLogger {
      */
     public String getResults() {
         return("Processed " + getItemsDone()+" files in " + getDurationText(System.currentTimeMillis() - startTime)+
-                " (expected "+ expectedItems+" files). " + itemsFail + " files were skipped.");
+                " (expected "+ expectedItems+" files). " + getItemsFail() + " files were skipped.");
     }
 
     /**
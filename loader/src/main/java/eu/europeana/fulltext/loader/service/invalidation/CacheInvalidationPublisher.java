@@ -0,0 +1,20 @@
+package eu.europeana.fulltext.loader.service.invalidation;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Publishes the surrogate keys of changed data, so downstream caches (a CDN or an in-process cache) can purge them.
+ * Keys use the same format as the Surrogate-Key headers generated by the API, see
+ * {@link eu.europeana.fulltext.api.service.CacheUtils#generateSurrogateKeys(String, String, String)}
+ */
+public interface CacheInvalidationPublisher {
+
+    /**
+     * Publish the provided surrogate keys
+     * @param surrogateKeys keys that should be purged
+     * @throws IOException when there was a problem publishing the keys
+     */
+    void publish(Collection<String> surrogateKeys) throws IOException;
+
+}
@@ -0,0 +1,122 @@
+package eu.europeana.fulltext.loader.service.invalidation;
+
+import eu.europeana.fulltext.api.service.CacheUtils;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.loader.config.LoaderSettings;
+import eu.europeana.fulltext.loader.exception.ConfigurationException;
+import eu.europeana.fulltext.loader.service.LogFile;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tells downstream caches which data was changed by the loader. For each saved batch of AnnoPages the record and page
+ * surrogate keys are published, for a deleted dataset only the dataset key. The dataset key is deliberately not
+ * published for saved batches, as that would purge all cached responses of a dataset after every batch of a long
+ * import.
+ * Failing to publish is logged but never stops the loading process.
+ */
+@Service
+public class CacheInvalidationService {
+
+    private static final Logger LOG = LogManager.getLogger(CacheInvalidationService.class);
+
+    private static final String MODE_NONE = "none";
+    private static final String MODE_FILE = "file";
+    private static final String MODE_HTTP = "http";
+
+    private final CacheInvalidationPublisher publisher;
+
+    @Autowired
+    public CacheInvalidationService(LoaderSettings settings) throws ConfigurationException {
+        this(createPublisher(settings));
+    }
+
+    /**
+     * @param publisher publisher to use, if null no invalidations are published
+     */
+    public CacheInvalidationService(CacheInvalidationPublisher publisher) {
+        this.publisher = publisher;
+        if (publisher == null) {
+            LOG.info("Cache invalidation is disabled");
+        } else {
+            LOG.info("Publishing cache invalidations to {}", publisher);
+        }
+    }
+
+    private static CacheInvalidationPublisher createPublisher(LoaderSettings settings) throws ConfigurationException {
+        String mode = StringUtils.defaultIfBlank(settings.getCacheInvalidationMode(), MODE_NONE);
+        if (MODE_NONE.equalsIgnoreCase(mode)) {
+            return null;
+        }
+        if (MODE_FILE.equalsIgnoreCase(mode)) {
+            if (StringUtils.isBlank(settings.getCacheInvalidationFile())) {
+                throw new ConfigurationException("Property cache.invalidation.file is required in file mode");
+            }
+            return new FileInvalidationPublisher(Paths.get(settings.getCacheInvalidationFile()));
+        }
+        if (MODE_HTTP.equalsIgnoreCase(mode)) {
+            try {
+                return new HttpInvalidationPublisher(new URL(settings.getCacheInvalidationUrl()),
+                                                     settings.getCacheInvalidationToken());
+            } catch (MalformedURLException e) {
+                throw new ConfigurationException("Property cache.invalidation.http.url is not a valid url", e);
+            }
+        }
+        throw new ConfigurationException("Unknown cache.invalidation.mode " + mode);
+    }
+
+    /**
+     * Publish the record and page keys of all provided AnnoPages. Should be called after the AnnoPages were saved.
+     * @param annoPages saved AnnoPages
+     */
+    public void invalidateAnnoPages(List<AnnoPage> annoPages) {
+        if (publisher == null || annoPages.isEmpty()) {
+            return;
+        }
+        Set<String> recordKeys  = new LinkedHashSet<>();
+        Set<String> pageKeys    = new LinkedHashSet<>();
+        for (AnnoPage annoPage : annoPages) {
+            String dsId = annoPage.getDsId();
+            String lcId = annoPage.getLcId();
+            recordKeys.add(CacheUtils.recordSurrogateKey(dsId, lcId));
+            pageKeys.add(CacheUtils.pageSurrogateKey(dsId, lcId, annoPage.getPgId()));
+        }
+        Set<String> keys = new LinkedHashSet<>(recordKeys);
+        keys.addAll(pageKeys);
+        publish(keys);
+    }
+
+    /**
+     * Publish the key of a dataset. Should be called after the dataset was deleted.
+     * @param datasetId id of the deleted dataset
+     */
+    public void invalidateDataset(String datasetId) {
+        if (publisher == null) {
+            return;
+        }
+        publish(Collections.singletonList(CacheUtils.datasetSurrogateKey(datasetId)));
+    }
+
+    private void publish(Collection<String> keys) {
+        try {
+            publisher.publish(keys);
+            LOG.debug("Published {} cache invalidation keys", keys.size());
+        } catch (IOException | RuntimeException e) {
+            LogFile.OUT.warn("Error publishing {} cache invalidation keys", keys.size(), e);
+        }
+    }
+
+}
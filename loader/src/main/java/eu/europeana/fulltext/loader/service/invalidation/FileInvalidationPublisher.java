@@ -0,0 +1,38 @@
+package eu.europeana.fulltext.loader.service.invalidation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * Appends published surrogate keys to a local file, one key per line. Meant for testing and for setups where another
+ * process picks up the invalidations.
+ */
+public class FileInvalidationPublisher implements CacheInvalidationPublisher {
+
+    private final Path file;
+
+    public FileInvalidationPublisher(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void publish(Collection<String> surrogateKeys) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (String key : surrogateKeys) {
+                writer.write(key);
+                writer.write('\n');
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "file " + file;
+    }
+}
@@ -0,0 +1,73 @@
+package eu.europeana.fulltext.loader.service.invalidation;
+
+import eu.europeana.fulltext.api.service.CacheUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sends published surrogate keys to an HTTP purge endpoint. Keys are sent space-separated in a Surrogate-Key header of
+ * a POST request, in chunks of at most {@value #MAX_KEYS_PER_REQUEST} keys (which is what most CDNs accept).
+ */
+public class HttpInvalidationPublisher implements CacheInvalidationPublisher {
+
+    static final int MAX_KEYS_PER_REQUEST = 256;
+
+    private static final int TIMEOUT_MS = 5000;
+
+    private final URL url;
+    private final String token;
+
+    /**
+     * @param url purge endpoint
+     * @param token optional token, sent as Authorization bearer token (can be empty or null)
+     */
+    public HttpInvalidationPublisher(URL url, String token) {
+        this.url = url;
+        this.token = token;
+    }
+
+    @Override
+    public void publish(Collection<String> surrogateKeys) throws IOException {
+        List<String> chunk = new ArrayList<>(MAX_KEYS_PER_REQUEST);
+        for (String key : surrogateKeys) {
+            chunk.add(key);
+            if (chunk.size() == MAX_KEYS_PER_REQUEST) {
+                post(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            post(chunk);
+        }
+    }
+
+    private void post(List<String> keys) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setRequestProperty(CacheUtils.SURROGATEKEY, String.join(" ", keys));
+            if (StringUtils.isNotEmpty(token)) {
+                connection.setRequestProperty("Authorization", "Bearer " + token);
+            }
+            int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                throw new IOException("Purge request to " + url + " returned status " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "url " + url;
+    }
+}
@@ -3,6 +3,7 @@ package eu.europeana.fulltext.loader.web;
 import eu.europeana.fulltext.loader.service.LoadArchiveService;
 import eu.europeana.fulltext.loader.service.MongoSaveMode;
 import eu.europeana.fulltext.loader.service.MongoService;
+import eu.europeana.fulltext.loader.service.invalidation.CacheInvalidationService;
 import org.apache.logging.log4j.LogManager;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -22,10 +23,13 @@ public class LoaderController {
 
     private LoadArchiveService loadArchiveService;
     private MongoService mongoService;
+    private CacheInvalidationService cacheInvalidationService;
 
-    public LoaderController(LoadArchiveService loadArchiveService, MongoService mongoService) {
+    public LoaderController(LoadArchiveService loadArchiveService, MongoService mongoService,
+                            CacheInvalidationService cacheInvalidationService) {
         this.loadArchiveService = loadArchiveService;
         this.mongoService = mongoService;
+        this.cacheInvalidationService = cacheInvalidationService;
     }
 
     /**
@@ -51,6 +55,7 @@ public class LoaderController {
         s.append(" annopages and ");
         s.append(mongoService.deleteAllResources(datasetId));
         s.append(" resources");
+        cacheInvalidationService.invalidateDataset(datasetId);
         String result = s.toString();
         LogManager.getLogger(LoaderController.class).info(result);
         return result;
@@ -0,0 +1,122 @@
+package eu.europeana.fulltext.loader.test;
+
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.AnnoPageInfo;
+import eu.europeana.fulltext.entity.Annotation;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.Morphia;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration;
+import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests listing the AnnoPages of a record against an embedded MongoDB, checking with the server's query statistics
+ * that the listing without annotation count doesn't read any documents
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = {AnnoPageRepositoryImpl.class, AnnoPageRepositoryTest.EmbeddedDatastore.class},
+                properties = "spring.data.mongodb.port=0")
+@ImportAutoConfiguration({EmbeddedMongoAutoConfiguration.class, MongoAutoConfiguration.class})
+public class AnnoPageRepositoryTest {
+
+    private static final String DATABASE = "fulltext-test";
+
+    @Configuration
+    static class EmbeddedDatastore {
+        @Bean
+        public AdvancedDatastore datastore(MongoClient mongoClient) {
+            Morphia morphia = new Morphia();
+            morphia.map(AnnoPage.class);
+            AdvancedDatastore datastore = (AdvancedDatastore) morphia.createDatastore(mongoClient, DATABASE);
+            datastore.ensureIndexes();
+            return datastore;
+        }
+    }
+
+    @Autowired
+    private AnnoPageRepositoryImpl annoPageRepository;
+    @Autowired
+    private AdvancedDatastore datastore;
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Before
+    public void setup() {
+        datastore.getCollection(AnnoPage.class).drop();
+        datastore.ensureIndexes();
+        for (String pageId : new String[] {"10", "2", "11", "1"}) {
+            AnnoPage annoPage = new AnnoPage("ds1", "lc1", pageId, "tg" + pageId, null);
+            annoPage.setAns(Arrays.asList(new Annotation("an" + pageId + "a", 'W', 0, 5),
+                                          new Annotation("an" + pageId + "b", 'W', 6, 9)));
+            annoPageRepository.save(annoPage);
+        }
+        annoPageRepository.save(new AnnoPage("ds1", "lc2", "1", "tg1", null));
+    }
+
+    /**
+     * The pages of a record are listed in page order, from the (dsId, lcId, pgId, modified) index only
+     */
+    @Test
+    public void testListIsCovered() {
+        long scanned = scannedObjects();
+        List<AnnoPageInfo> pages = annoPageRepository.listByDatasetLocalId("ds1", "lc1", false);
+        assertEquals("Listing read AnnoPage documents", scanned, scannedObjects());
+
+        assertEquals(Arrays.asList("1", "2", "10", "11"), pageIds(pages));
+        for (AnnoPageInfo page : pages) {
+            assertNotNull(page.getModified());
+        }
+    }
+
+    /**
+     * Counting the annotations of each page has to read the documents, which shows that the statistics we check in
+     * testListIsCovered do count them
+     */
+    @Test
+    public void testListWithCount() {
+        long scanned = scannedObjects();
+        List<AnnoPageInfo> pages = annoPageRepository.listByDatasetLocalId("ds1", "lc1", true);
+        assertTrue(scannedObjects() > scanned);
+
+        assertEquals(Arrays.asList("1", "2", "10", "11"), pageIds(pages));
+        for (AnnoPageInfo page : pages) {
+            assertEquals(Integer.valueOf(2), page.getNrAnnotations());
+        }
+    }
+
+    /**
+     * @return the total number of documents that the server examined to answer queries
+     */
+    private long scannedObjects() {
+        DBObject status  = mongoClient.getDB("admin").command("serverStatus");
+        DBObject metrics = (DBObject) ((DBObject) status.get("metrics")).get("queryExecutor");
+        return ((Number) metrics.get("scannedObjects")).longValue();
+    }
+
+    private static List<String> pageIds(List<AnnoPageInfo> pages) {
+        List<String> result = new ArrayList<>();
+        for (AnnoPageInfo page : pages) {
+            result.add(page.getPgId());
+        }
+        return result;
+    }
+}
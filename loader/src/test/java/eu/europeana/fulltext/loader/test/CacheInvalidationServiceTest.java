@@ -0,0 +1,65 @@
+package eu.europeana.fulltext.loader.test;
+
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.loader.service.invalidation.CacheInvalidationService;
+import eu.europeana.fulltext.loader.service.invalidation.FileInvalidationPublisher;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests which surrogate keys are published after saving AnnoPages and after deleting a dataset
+ */
+public class CacheInvalidationServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path                     file;
+    private CacheInvalidationService service;
+
+    @Before
+    public void setup() throws IOException {
+        file = folder.getRoot().toPath().resolve("invalidations.log");
+        service = new CacheInvalidationService(new FileInvalidationPublisher(file));
+    }
+
+    /**
+     * Saved AnnoPages only invalidate their own record and page, never the entire dataset
+     */
+    @Test
+    public void testInvalidateAnnoPages() throws IOException {
+        service.invalidateAnnoPages(Arrays.asList(new AnnoPage("ds1", "lc1", "pg1", "tg1", null),
+                                                  new AnnoPage("ds1", "lc1", "pg2", "tg2", null),
+                                                  new AnnoPage("ds1", "lc2", "pg1", "tg3", null)));
+        assertEquals(Arrays.asList("rec/ds1/lc1", "rec/ds1/lc2",
+                                   "page/ds1/lc1/pg1", "page/ds1/lc1/pg2", "page/ds1/lc2/pg1"),
+                     Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testInvalidateDataset() throws IOException {
+        service.invalidateDataset("ds1");
+        assertEquals(Collections.singletonList("ds/ds1"), Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Nothing is published for an empty batch
+     */
+    @Test
+    public void testInvalidateNoAnnoPages() {
+        service.invalidateAnnoPages(Collections.emptyList());
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,104 @@
+package eu.europeana.fulltext.loader.test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.fulltext.api.service.AnnoPageRenderer;
+import eu.europeana.fulltext.entity.AnnoPage;
+import eu.europeana.fulltext.entity.RenderedAnnoPage;
+import eu.europeana.fulltext.loader.config.LoaderSettings;
+import eu.europeana.fulltext.loader.exception.LoaderException;
+import eu.europeana.fulltext.loader.service.LoaderMetrics;
+import eu.europeana.fulltext.loader.service.MongoService;
+import eu.europeana.fulltext.loader.service.XMLParserService;
+import eu.europeana.fulltext.loader.service.invalidation.CacheInvalidationService;
+import eu.europeana.fulltext.repository.impl.AnnoPageRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.PageTermsRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.RenderedAnnoPageRepositoryImpl;
+import eu.europeana.fulltext.repository.impl.ResourceRepositoryImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests saving AnnoPages with pre-rendering enabled
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@TestPropertySource(locations = "classpath:loader-test.properties", properties = "prerender.enabled=true")
+@SpringBootTest(classes = {MongoService.class, LoaderSettings.class})
+public class MongoServiceTest {
+
+    private static final String FILE = "9200396-BibliographicResource_3000118435009-1.xml";
+    private static final String PAGE_ID =
+            "https://iiif.europeana.eu/presentation/9200396/BibliographicResource_3000118435009/annopage/1";
+
+    @Autowired
+    private MongoService mongoService;
+    @Autowired
+    private LoaderSettings settings;
+
+    @MockBean
+    private ResourceRepositoryImpl resourceRepository;
+    @MockBean
+    private AnnoPageRepositoryImpl annoPageRepository;
+    @MockBean
+    private RenderedAnnoPageRepositoryImpl renderedRepository;
+    @MockBean
+    private PageTermsRepositoryImpl pageTermsRepository;
+    @MockBean
+    private CacheInvalidationService cacheInvalidationService;
+    @MockBean
+    private LoaderMetrics loaderMetrics;
+
+    /**
+     * Check that a saved AnnoPage is pre-rendered for IIIF v2 and v3, and that the stored renderings can be
+     * decompressed and parsed again
+     */
+    @Test
+    public void testPrerenderAnnoPage() throws LoaderException, IOException {
+        AnnoPage annoPage = new XMLParserService(settings).parse("1", loadXmlFile(FILE), FILE);
+        assertTrue(mongoService.saveAnnoPage(annoPage));
+
+        ArgumentCaptor<RenderedAnnoPage> rendered = ArgumentCaptor.forClass(RenderedAnnoPage.class);
+        verify(renderedRepository, times(2)).save(rendered.capture());
+        ObjectMapper mapper = new ObjectMapper();
+        for (RenderedAnnoPage page : rendered.getAllValues()) {
+            assertEquals("9200396", page.getDsId());
+            assertEquals("BibliographicResource_3000118435009", page.getLcId());
+            assertEquals("1", page.getPgId());
+            assertEquals(annoPage.getCv(), page.getCv());
+
+            String json = new String(AnnoPageRenderer.gunzip(page.getJson()), StandardCharsets.UTF_8);
+            JsonNode tree = mapper.readTree(json);
+            assertTrue(json.contains('"' + PAGE_ID + '"'));
+            JsonNode annotations = tree.get("3".equals(page.getVer()) ? "items" : "resources");
+            assertNotNull(annotations);
+            assertEquals(annoPage.getAns().size(), annotations.size());
+        }
+        assertEquals("2", rendered.getAllValues().get(0).getVer());
+        assertEquals("3", rendered.getAllValues().get(1).getVer());
+    }
+
+    private InputStream loadXmlFile(String fileName) throws IOException {
+        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
+        if (is != null) {
+            return is;
+        }
+        throw new FileNotFoundException(fileName);
+    }
+}